@@ -0,0 +1,272 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rxtx.benchmark;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import rxtx.extension.JdbcConnectionExtension;
+import rxtx.extension.JdbcDatabase;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import javax.sql.DataSource;
+
+import org.h2.store.fs.FileUtils;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.RepeatedTest;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+/**
+ * Runs the same {@value #TESTS} tests on a schema of {@code rxtx.benchmark.tables} tables once with a database per
+ * test, as before {@link JdbcDatabase}, and once with a pooled database per class and per suite that is truncated
+ * between tests. Prints the wall time per test including schema creation next to the database setup time reported by
+ * {@link JdbcConnectionExtension}.
+ * <p>
+ * The {@code SeededSchema} classes compare a database per test with indexed tables of {@value #SEED_ROWS} rows each,
+ * created by running the schema script for each test and by restoring a {@link JdbcDatabase#schema()} snapshot.
+ * <p>
+ * Not part of the regular build, run with {@code -Dtest=DatabaseSetupBenchmark*} to include the nested classes. Tune
+ * the schema size with {@code -Drxtx.benchmark.tables}.
+ */
+@ExtendWith(JdbcConnectionExtension.class)
+final class DatabaseSetupBenchmark {
+
+	static final int TESTS = 200;
+
+	static final int SEED_ROWS = 20;
+
+	static final String SEEDED_SCHEMA = "memFS:DatabaseSetupBenchmark.sql";
+
+	private static final int tables = Integer.getInteger("rxtx.benchmark.tables", 20);
+
+	static {
+		writeSeededSchema();
+	}
+
+	@Nested
+	@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+	class DatabasePerTest {
+
+		final Stopwatch stopwatch = new Stopwatch();
+
+		@BeforeEach
+		void setUp(Statement statement) throws SQLException {
+			createTables(statement, "CREATE TABLE");
+		}
+
+		@RepeatedTest(TESTS)
+		void insert(Statement statement) throws SQLException {
+			insertAndCount(statement);
+		}
+
+		@AfterAll
+		void report() {
+			stopwatch.print("Database per test");
+		}
+	}
+
+	@Nested
+	@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+	@JdbcDatabase(scope = JdbcDatabase.Scope.CLASS)
+	class DatabasePerClass {
+
+		final Stopwatch stopwatch = new Stopwatch();
+
+		@BeforeAll
+		void setUp(DataSource dataSource) throws SQLException {
+
+			try (Connection connection = dataSource.getConnection();
+					Statement statement = connection.createStatement()) {
+				createTables(statement, "CREATE TABLE");
+			}
+		}
+
+		@RepeatedTest(TESTS)
+		void insert(Statement statement) throws SQLException {
+			insertAndCount(statement);
+		}
+
+		@AfterAll
+		void report() {
+			stopwatch.print("Database per class");
+		}
+	}
+
+	@Nested
+	@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+	@JdbcDatabase(scope = JdbcDatabase.Scope.SUITE)
+	class DatabasePerSuite {
+
+		final Stopwatch stopwatch = new Stopwatch();
+
+		@BeforeAll
+		void setUp(Statement statement) throws SQLException {
+			createTables(statement, "CREATE TABLE IF NOT EXISTS");
+		}
+
+		@RepeatedTest(TESTS)
+		void insert(Statement statement) throws SQLException {
+			insertAndCount(statement);
+		}
+
+		@AfterAll
+		void report() {
+			stopwatch.print("Database per suite");
+		}
+	}
+
+	@Nested
+	@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+	class SeededSchemaPerTest {
+
+		final Stopwatch stopwatch = new Stopwatch();
+
+		@BeforeEach
+		void setUp(Statement statement) throws SQLException {
+			statement.execute("RUNSCRIPT FROM '" + SEEDED_SCHEMA + "'");
+		}
+
+		@RepeatedTest(TESTS)
+		void insert(Statement statement) throws SQLException {
+			insertAndCountSeeded(statement);
+		}
+
+		@AfterAll
+		void report() {
+			stopwatch.print("Seeded schema per test");
+		}
+	}
+
+	@Nested
+	@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+	@JdbcDatabase(schema = SEEDED_SCHEMA, restore = JdbcDatabase.Restore.SCRIPT)
+	class SeededSchemaFromScript {
+
+		final Stopwatch stopwatch = new Stopwatch();
+
+		@RepeatedTest(TESTS)
+		void insert(Statement statement) throws SQLException {
+			insertAndCountSeeded(statement);
+		}
+
+		@AfterAll
+		void report() {
+			stopwatch.print("Seeded schema from SCRIPT snapshot");
+		}
+	}
+
+	@Nested
+	@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+	@JdbcDatabase(schema = SEEDED_SCHEMA, restore = JdbcDatabase.Restore.COPY)
+	class SeededSchemaFromCopy {
+
+		final Stopwatch stopwatch = new Stopwatch();
+
+		@RepeatedTest(TESTS)
+		void insert(Statement statement) throws SQLException {
+			insertAndCountSeeded(statement);
+		}
+
+		@AfterAll
+		void report() {
+			stopwatch.print("Seeded schema from file copy");
+		}
+	}
+
+	private static void createTables(Statement statement, String create) throws SQLException {
+
+		for (int i = 0; i < tables; i++) {
+
+			String foreignKey = i == 0 ? "" : String.format(", FOREIGN KEY (parent) REFERENCES table_%d (id)", i - 1);
+			statement.addBatch(String.format("%s table_%d (id INT PRIMARY KEY, name VARCHAR(255), parent INT%s)",
+					create, i, foreignKey));
+		}
+
+		statement.executeBatch();
+	}
+
+	/**
+	 * Insert a row and verify no rows of previous tests are left.
+	 */
+	private static void insertAndCount(Statement statement) throws SQLException {
+
+		statement.executeUpdate("INSERT INTO table_0 VALUES (1, 'Walter', NULL)");
+
+		try (ResultSet resultSet = statement.executeQuery("SELECT COUNT(*) FROM table_0")) {
+			resultSet.next();
+			assertEquals(1, resultSet.getInt(1));
+		}
+	}
+
+	/**
+	 * Insert a row and verify only the seed rows are present besides it.
+	 */
+	private static void insertAndCountSeeded(Statement statement) throws SQLException {
+
+		statement.executeUpdate("INSERT INTO table_0 VALUES (0, 'Walter', NULL)");
+
+		try (ResultSet resultSet = statement.executeQuery("SELECT COUNT(*) FROM table_0")) {
+			resultSet.next();
+			assertEquals(SEED_ROWS + 1, resultSet.getInt(1));
+		}
+	}
+
+	/**
+	 * Write the script of the seeded schema to H2's in-memory file system, where {@code RUNSCRIPT} can read it.
+	 */
+	private static void writeSeededSchema() {
+
+		try (Writer writer = new OutputStreamWriter(FileUtils.newOutputStream(SEEDED_SCHEMA, false),
+				StandardCharsets.UTF_8)) {
+
+			for (int i = 0; i < tables; i++) {
+
+				String foreignKey = i == 0 ? "" : String.format(", FOREIGN KEY (parent) REFERENCES table_%d (id)", i - 1);
+				writer.write(String.format("CREATE TABLE table_%d (id INT PRIMARY KEY, name VARCHAR(255), "
+						+ "parent INT%s);%n", i, foreignKey));
+				writer.write(String.format("CREATE INDEX table_%d_name ON table_%d (name);%n", i, i));
+				writer.write(String.format("INSERT INTO table_%d SELECT x, 'name-' || x, %s "
+						+ "FROM SYSTEM_RANGE(1, %d);%n", i, i == 0 ? "NULL" : "x", SEED_ROWS));
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	static class Stopwatch {
+
+		private final long start = System.nanoTime();
+
+		void print(String name) {
+
+			long elapsed = System.nanoTime() - start;
+			System.out.printf("%s: %d tests on %d tables in %d ms, %d us per test%n", name, TESTS, tables,
+					elapsed / 1_000_000, elapsed / TESTS / 1000);
+		}
+	}
+}
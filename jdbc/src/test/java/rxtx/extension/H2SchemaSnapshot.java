@@ -0,0 +1,174 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rxtx.extension;
+
+import rxtx.extension.JdbcDatabase.Restore;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.h2.store.fs.FileUtils;
+import org.h2.tools.DeleteDbFiles;
+import org.h2.util.IOUtils;
+import org.junit.jupiter.api.extension.ExtensionContext;
+
+/**
+ * Schema and seed data of an H2 database, built once from SQL scripts and restored into a new database for each test
+ * instead of running the scripts again. Dropped when the owning store is closed.
+ */
+final class H2SchemaSnapshot implements ExtensionContext.Store.CloseableResource {
+
+	private static final AtomicInteger counter = new AtomicInteger();
+
+	private final Restore restore;
+	private final String name;
+	private final List<String> script;
+
+	private H2SchemaSnapshot(Restore restore, String name, List<String> script) {
+		this.restore = restore;
+		this.name = name;
+		this.script = script;
+	}
+
+	/**
+	 * Run {@code scripts} in a new database and take a snapshot of it.
+	 *
+	 * @param scripts locations readable by {@code RUNSCRIPT}, names without a prefix are classpath resources.
+	 */
+	static H2SchemaSnapshot create(Restore restore, String... scripts) throws SQLException {
+
+		String name = "H2SchemaSnapshot-" + counter.incrementAndGet();
+
+		if (restore == Restore.COPY) {
+
+			try (Connection connection = DriverManager.getConnection("jdbc:h2:memFS:" + name, "sa", "sa");
+					Statement statement = connection.createStatement()) {
+
+				runScripts(statement, scripts);
+				statement.execute("SHUTDOWN COMPACT");
+			}
+
+			return new H2SchemaSnapshot(restore, name, Collections.emptyList());
+		}
+
+		List<String> script = new ArrayList<>();
+
+		try (Connection connection = DriverManager.getConnection("jdbc:h2:mem:" + name, "sa", "sa");
+				Statement statement = connection.createStatement()) {
+
+			runScripts(statement, scripts);
+
+			try (ResultSet resultSet = statement.executeQuery("SCRIPT NOPASSWORDS NOSETTINGS")) {
+				while (resultSet.next()) {
+					script.add(resultSet.getString(1));
+				}
+			}
+		}
+
+		return new H2SchemaSnapshot(restore, name, script);
+	}
+
+	/**
+	 * Restore the snapshot into a new database.
+	 *
+	 * @return the restored database, to be dropped by closing it.
+	 */
+	Database restore() throws SQLException {
+
+		String name = this.name + "-" + counter.incrementAndGet();
+
+		if (restore == Restore.COPY) {
+
+			try (InputStream in = FileUtils.newInputStream("memFS:" + this.name + ".mv.db");
+					OutputStream out = FileUtils.newOutputStream("memFS:" + name + ".mv.db", false)) {
+				IOUtils.copy(in, out);
+			} catch (IOException e) {
+				throw new SQLException("Cannot copy snapshot " + this.name, e);
+			}
+
+			// compacting on close would rewrite the copy we are about to delete
+			return new Database("jdbc:h2:memFS:" + name + ";DB_CLOSE_DELAY=-1;MAX_COMPACT_TIME=0", name);
+		}
+
+		Database database = new Database("jdbc:h2:mem:" + name + ";DB_CLOSE_DELAY=-1", null);
+
+		try (Connection connection = DriverManager.getConnection(database.url, "sa", "sa");
+				Statement statement = connection.createStatement()) {
+
+			for (String sql : script) {
+				statement.addBatch(sql);
+			}
+
+			statement.executeBatch();
+		}
+
+		return database;
+	}
+
+	@Override
+	public void close() {
+
+		if (restore == Restore.COPY) {
+			DeleteDbFiles.execute("memFS:", name, true);
+		}
+	}
+
+	private static void runScripts(Statement statement, String... scripts) throws SQLException {
+
+		for (String script : scripts) {
+			String location = script.contains(":") ? script : "classpath:/" + script;
+			statement.execute("RUNSCRIPT FROM '" + location + "'");
+		}
+	}
+
+	/**
+	 * A database restored from a snapshot, dropped when the owning store is closed.
+	 */
+	static class Database implements ExtensionContext.Store.CloseableResource {
+
+		final String url;
+
+		private final String fileName;
+
+		Database(String url, String fileName) {
+			this.url = url;
+			this.fileName = fileName;
+		}
+
+		@Override
+		public void close() throws SQLException {
+
+			try (Connection connection = DriverManager.getConnection(url, "sa", "sa");
+					Statement statement = connection.createStatement()) {
+				statement.execute("SHUTDOWN");
+			}
+
+			if (fileName != null) {
+				DeleteDbFiles.execute("memFS:", fileName, true);
+			}
+		}
+	}
+}
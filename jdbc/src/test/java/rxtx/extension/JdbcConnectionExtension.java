@@ -15,41 +15,77 @@
  */
 package rxtx.extension;
 
+import rxtx.extension.JdbcDatabase.Scope;
+
 import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.sql.DataSource;
 
 import org.h2.jdbcx.JdbcDataSource;
+import org.junit.jupiter.api.extension.AfterAllCallback;
 import org.junit.jupiter.api.extension.AfterEachCallback;
+import org.junit.jupiter.api.extension.ExtensionConfigurationException;
 import org.junit.jupiter.api.extension.ExtensionContext;
 import org.junit.jupiter.api.extension.ParameterContext;
 import org.junit.jupiter.api.extension.ParameterResolutionException;
 import org.junit.jupiter.api.extension.ParameterResolver;
+import org.junit.platform.commons.support.AnnotationSupport;
+
+import com.zaxxer.hikari.HikariDataSource;
 
 /**
- * Extension providing a JDBC {@link Connection}.
+ * Extension providing a JDBC {@link DataSource}, {@link Connection} and {@link Statement}. By default, each test gets
+ * a new H2 in-memory database. Test classes annotated with {@link JdbcDatabase @JdbcDatabase} may share a pooled
+ * database per class or per test run instead, see {@link Scope}. Databases per test may start from a snapshot of a
+ * schema created once, see {@link JdbcDatabase#schema()}.
+ * <p>
+ * Time spent creating databases, acquiring connections and truncating tables is printed after each test class.
  */
-public class JdbcConnectionExtension implements AfterEachCallback, ParameterResolver {
+public class JdbcConnectionExtension implements AfterEachCallback, AfterAllCallback, ParameterResolver {
 
 	private static final ExtensionContext.Namespace JDBC = ExtensionContext.Namespace.create("JDBC");
 
 	@Override
 	public void afterEach(ExtensionContext context) throws Exception {
 
-		ExtensionContext.Store store = context.getStore(JDBC);
-		Statement statement = store.get(Statement.class, Statement.class);
-		if (statement != null) {
-			store.remove(Statement.class);
-			statement.close();
+		close(context);
+
+		SetupTime setupTime = getSetupTime(context);
+		PooledDatabase database = getDatabaseStore(context).get(PooledDatabase.class, PooledDatabase.class);
+
+		if (database != null) {
+
+			long start = System.nanoTime();
+			database.truncateTables();
+			setupTime.add(System.nanoTime() - start);
 		}
 
-		Connection connection = store.get(Connection.class, Connection.class);
-		if (connection != null) {
-			store.remove(Connection.class);
-			connection.close();
+		setupTime.tests.incrementAndGet();
+	}
+
+	@Override
+	public void afterAll(ExtensionContext context) throws Exception {
+
+		close(context);
+
+		SetupTime setupTime = getSetupTime(context);
+		int tests = setupTime.tests.get();
+
+		if (tests > 0) {
+			System.out.printf("%s: %s scope, %d tests, database setup %d us per test%n",
+					context.getRequiredTestClass().getSimpleName(), getScope(context), tests,
+					setupTime.nanos.get() / tests / 1000);
 		}
 	}
 
@@ -65,24 +101,34 @@ public class JdbcConnectionExtension implements AfterEachCallback, ParameterReso
 	public Object resolveParameter(ParameterContext parameterContext, ExtensionContext extensionContext)
 			throws ParameterResolutionException {
 
-		ExtensionContext.Store store = extensionContext.getStore(JDBC);
-
 		if (parameterContext.getParameter().getType().isAssignableFrom(DataSource.class)) {
-			return getDataSource(store);
+			return getDataSource(extensionContext);
 		}
 
 		if (parameterContext.getParameter().getType().isAssignableFrom(Connection.class)) {
-			return getConnection(store);
+			return getConnection(extensionContext);
 		}
 
 		if (parameterContext.getParameter().getType().isAssignableFrom(Statement.class)) {
-			return getStatement(store);
+			return getStatement(extensionContext);
 		}
 
 		throw new ParameterResolutionException("¯\\_(ツ)_/¯");
 	}
 
-	private JdbcDataSource getDataSource(ExtensionContext.Store store) {
+	private DataSource getDataSource(ExtensionContext context) {
+
+		long start = System.nanoTime();
+
+		try {
+			return getScope(context) == Scope.TEST ? getDataSource(context, context.getStore(JDBC))
+					: getPooledDatabase(context).dataSource;
+		} finally {
+			getSetupTime(context).add(System.nanoTime() - start);
+		}
+	}
+
+	private JdbcDataSource getDataSource(ExtensionContext context, ExtensionContext.Store store) {
 
 		JdbcDataSource dataSource = store.get(JdbcDataSource.class, JdbcDataSource.class);
 		if (dataSource == null) {
@@ -90,7 +136,9 @@ public class JdbcConnectionExtension implements AfterEachCallback, ParameterReso
 			dataSource = new JdbcDataSource();
 			dataSource.setUser("sa");
 			dataSource.setPassword("sa");
-			dataSource.setURL("jdbc:h2:mem:" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1;DB_CLOSE_ON_EXIT=true");
+			dataSource.setURL(findConfiguration(context).filter(it -> it.schema().length > 0)
+					.map(it -> restoreSnapshot(context, store, it))
+					.orElseGet(() -> "jdbc:h2:mem:" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1;DB_CLOSE_ON_EXIT=true"));
 
 			store.put(JdbcDataSource.class, dataSource);
 		}
@@ -98,15 +146,71 @@ public class JdbcConnectionExtension implements AfterEachCallback, ParameterReso
 		return dataSource;
 	}
 
-	private Connection getConnection(ExtensionContext.Store store) {
+	/**
+	 * Restore a snapshot of the configured schema, taken once per test run, into a database dropped with {@code store}.
+	 *
+	 * @return the JDBC URL of the restored database.
+	 */
+	private static String restoreSnapshot(ExtensionContext context, ExtensionContext.Store store,
+			JdbcDatabase configuration) {
+
+		String key = configuration.restore() + ":" + String.join(",", configuration.schema());
+
+		try {
+
+			H2SchemaSnapshot snapshot = context.getRoot().getStore(JDBC).getOrComputeIfAbsent(key,
+					it -> createSnapshot(configuration), H2SchemaSnapshot.class);
+
+			H2SchemaSnapshot.Database database = snapshot.restore();
+			store.put(H2SchemaSnapshot.Database.class, database);
+			return database.url;
+		} catch (SQLException e) {
+			throw new ParameterResolutionException("Cannot restore schema " + key, e);
+		}
+	}
+
+	private static H2SchemaSnapshot createSnapshot(JdbcDatabase configuration) {
+
+		try {
+			return H2SchemaSnapshot.create(configuration.restore(), configuration.schema());
+		} catch (SQLException e) {
+			throw new ParameterResolutionException("Cannot create schema snapshot", e);
+		}
+	}
+
+	private PooledDatabase getPooledDatabase(ExtensionContext context) {
+
+		JdbcDatabase configuration = findConfiguration(context).orElseThrow(IllegalStateException::new);
+
+		if (configuration.schema().length > 0) {
+			throw new ExtensionConfigurationException(
+					"Schema snapshots require Scope.TEST, pooled databases are truncated between tests");
+		}
+
+		return getDatabaseStore(context).getOrComputeIfAbsent(PooledDatabase.class,
+				it -> new PooledDatabase(configuration.scope(), configuration.poolSize()), PooledDatabase.class);
+	}
+
+	/**
+	 * Connections and statements are kept in a namespace local to {@code context}, as stores inherit values from their
+	 * parent and a test must not close a connection obtained in {@code @BeforeAll}.
+	 */
+	private Connection getConnection(ExtensionContext context) {
+
+		ExtensionContext.Store store = getLocalStore(context);
 
 		Connection connection = store.get(Connection.class, Connection.class);
 		if (connection == null) {
 
+			DataSource dataSource = getDataSource(context);
+			long start = System.nanoTime();
+
 			try {
-				connection = getDataSource(store).getConnection();
+				connection = dataSource.getConnection();
 			} catch (SQLException e) {
 				throw new ParameterResolutionException("Cannot create connection", e);
+			} finally {
+				getSetupTime(context).add(System.nanoTime() - start);
 			}
 
 			store.put(Connection.class, connection);
@@ -115,13 +219,15 @@ public class JdbcConnectionExtension implements AfterEachCallback, ParameterReso
 		return connection;
 	}
 
-	private Statement getStatement(ExtensionContext.Store store) {
+	private Statement getStatement(ExtensionContext context) {
+
+		ExtensionContext.Store store = getLocalStore(context);
 
 		Statement statement = store.get(Statement.class, Statement.class);
 		if (statement == null) {
 
 			try {
-				statement = getConnection(store).createStatement();
+				statement = getConnection(context).createStatement();
 				store.put(Statement.class, statement);
 			} catch (SQLException e) {
 				throw new ParameterResolutionException("Cannot create connection", e);
@@ -130,4 +236,152 @@ public class JdbcConnectionExtension implements AfterEachCallback, ParameterReso
 
 		return statement;
 	}
+
+	private static void close(ExtensionContext context) throws SQLException {
+
+		ExtensionContext.Store store = getLocalStore(context);
+		Statement statement = store.remove(Statement.class, Statement.class);
+		if (statement != null) {
+			statement.close();
+		}
+
+		Connection connection = store.remove(Connection.class, Connection.class);
+		if (connection != null) {
+			connection.close();
+		}
+	}
+
+	private static ExtensionContext.Store getLocalStore(ExtensionContext context) {
+		return context.getStore(ExtensionContext.Namespace.create("JDBC", context.getUniqueId()));
+	}
+
+	/**
+	 * A class-scoped database is kept in the local namespace of its class so that nested classes do not inherit it.
+	 */
+	private static ExtensionContext.Store getDatabaseStore(ExtensionContext context) {
+		return getScope(context) == Scope.SUITE ? context.getRoot().getStore(JDBC)
+				: getLocalStore(getClassContext(context));
+	}
+
+	private static SetupTime getSetupTime(ExtensionContext context) {
+		return getLocalStore(getClassContext(context)).getOrComputeIfAbsent(SetupTime.class, it -> new SetupTime(),
+				SetupTime.class);
+	}
+
+	private static Scope getScope(ExtensionContext context) {
+		return findConfiguration(context).map(JdbcDatabase::scope).orElse(Scope.TEST);
+	}
+
+	/**
+	 * Find {@link JdbcDatabase} on the test class or, for nested tests, its enclosing classes.
+	 */
+	private static Optional<JdbcDatabase> findConfiguration(ExtensionContext context) {
+
+		for (Class<?> type = context.getRequiredTestClass(); type != null; type = type.getEnclosingClass()) {
+
+			Optional<JdbcDatabase> configuration = AnnotationSupport.findAnnotation(type, JdbcDatabase.class);
+			if (configuration.isPresent()) {
+				return configuration;
+			}
+		}
+
+		return Optional.empty();
+	}
+
+	/**
+	 * @return the context of the test class, also for repeated and parameterized tests.
+	 */
+	private static ExtensionContext getClassContext(ExtensionContext context) {
+
+		ExtensionContext current = context;
+		while (current.getTestMethod().isPresent() && current.getParent().isPresent()) {
+			current = current.getParent().get();
+		}
+
+		return current;
+	}
+
+	/**
+	 * Pooled H2 in-memory database, dropped when the owning store is closed.
+	 */
+	static class PooledDatabase implements ExtensionContext.Store.CloseableResource {
+
+		private static final AtomicInteger counter = new AtomicInteger();
+
+		final HikariDataSource dataSource = new HikariDataSource();
+
+		PooledDatabase(Scope scope, int poolSize) {
+
+			String name = String.format("JdbcConnectionExtension-%s-%d", scope.name().toLowerCase(Locale.ROOT),
+					counter.incrementAndGet());
+
+			dataSource.setPoolName(name);
+			dataSource.setJdbcUrl("jdbc:h2:mem:" + name + ";DB_CLOSE_DELAY=-1");
+			dataSource.setUsername("sa");
+			dataSource.setPassword("sa");
+			dataSource.setMaximumPoolSize(poolSize);
+			dataSource.setMinimumIdle(1);
+		}
+
+		/**
+		 * Delete all rows of all tables. Only tables that may contain rows are truncated, the row count estimate of H2
+		 * counts uncommitted and deleted rows but never misses one. Identity columns and sequences are not reset.
+		 */
+		void truncateTables() throws SQLException {
+
+			try (Connection connection = dataSource.getConnection();
+					Statement statement = connection.createStatement()) {
+
+				List<String> tables = new ArrayList<>();
+				try (ResultSet resultSet = statement.executeQuery("SELECT table_name FROM information_schema.tables "
+						+ "WHERE table_schema = 'PUBLIC' AND table_type = 'TABLE' AND row_count_estimate > 0")) {
+
+					while (resultSet.next()) {
+						tables.add(resultSet.getString(1));
+					}
+				}
+
+				if (tables.isEmpty()) {
+					return;
+				}
+
+				statement.execute("SET REFERENTIAL_INTEGRITY FALSE");
+
+				try {
+
+					for (String table : tables) {
+						statement.addBatch("TRUNCATE TABLE \"" + table + "\"");
+					}
+
+					statement.executeBatch();
+				} finally {
+					statement.execute("SET REFERENTIAL_INTEGRITY TRUE");
+				}
+			}
+		}
+
+		/**
+		 * Close the pool, then drop the database that {@code DB_CLOSE_DELAY=-1} keeps open.
+		 */
+		@Override
+		public void close() throws SQLException {
+
+			dataSource.close();
+
+			try (Connection connection = DriverManager.getConnection(dataSource.getJdbcUrl(), "sa", "sa");
+					Statement statement = connection.createStatement()) {
+				statement.execute("SHUTDOWN");
+			}
+		}
+	}
+
+	static class SetupTime {
+
+		final AtomicLong nanos = new AtomicLong();
+		final AtomicInteger tests = new AtomicInteger();
+
+		void add(long nanos) {
+			this.nanos.addAndGet(nanos);
+		}
+	}
 }
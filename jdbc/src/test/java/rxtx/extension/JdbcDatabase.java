@@ -0,0 +1,89 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rxtx.extension;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Configures the database provided by {@link JdbcConnectionExtension} to a test class. Nested classes inherit the
+ * configuration of their enclosing class unless annotated themselves.
+ */
+@Target(ElementType.TYPE)
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface JdbcDatabase {
+
+	/**
+	 * @return the tests sharing a database.
+	 */
+	Scope scope() default Scope.TEST;
+
+	/**
+	 * @return maximum number of pooled connections for {@link Scope#CLASS} and {@link Scope#SUITE}.
+	 */
+	int poolSize() default 4;
+
+	/**
+	 * SQL scripts creating the schema and seed data of {@link Scope#TEST} databases. The scripts run once, each test
+	 * gets a database restored from a snapshot of the result. Names without a prefix are classpath resources, other
+	 * locations are passed to {@code RUNSCRIPT}, e.g. {@code memFS:schema.sql}.
+	 *
+	 * @return script locations, empty to start each test with an empty database.
+	 */
+	String[] schema() default {};
+
+	/**
+	 * @return how {@link #schema()} snapshots are restored.
+	 */
+	Restore restore() default Restore.COPY;
+
+	enum Scope {
+
+		/**
+		 * A new database and connection for each test. Tests create their schema in {@code @BeforeEach}.
+		 */
+		TEST,
+
+		/**
+		 * One pooled database for all tests of a class. Tables are truncated after each test, so the schema is created
+		 * once, e.g. in {@code @BeforeAll}.
+		 */
+		CLASS,
+
+		/**
+		 * One pooled database for all classes with this scope in a test run. Tables are truncated after each test.
+		 * Classes create their schema if it does not exist, e.g. with {@code CREATE TABLE IF NOT EXISTS}.
+		 */
+		SUITE
+	}
+
+	enum Restore {
+
+		/**
+		 * Copy the snapshot database file within H2's in-memory file system and open the copy.
+		 */
+		COPY,
+
+		/**
+		 * Replay the output of {@code SCRIPT} in a new in-memory database.
+		 */
+		SCRIPT
+	}
+}
@@ -20,29 +20,19 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 
-import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import rxtx.Rows;
 import rxtx.extension.JdbcConnectionExtension;
+import rxtx.extension.JdbcDatabase;
 
 /**
  * Tests explaining JDBC transactions using JDBC API.
  */
 @ExtendWith(JdbcConnectionExtension.class)
+@JdbcDatabase(schema = "person.sql")
 final class JdbcTransactionExcercise {
 
-	@BeforeEach
-	void setUp(Connection connection) throws SQLException {
-
-		Statement statement = connection.createStatement();
-		statement.executeUpdate(
-				"CREATE TABLE person " + "(id INT PRIMARY KEY, first_name VARCHAR(255), last_name VARCHAR(255))");
-		statement.executeUpdate("CREATE TABLE person_event "
-				+ "(id INT PRIMARY KEY, first_name VARCHAR(255), last_name VARCHAR(255), action VARCHAR(255))");
-		statement.close();
-	}
-
 	@Test
 	void autoCommit(Statement statement) throws SQLException {
 
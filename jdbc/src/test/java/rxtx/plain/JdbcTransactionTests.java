@@ -23,20 +23,23 @@ import java.sql.SQLException;
 import java.sql.Statement;
 
 import org.h2.jdbc.JdbcSQLIntegrityConstraintViolationException;
-import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import rxtx.Rows;
 import rxtx.extension.JdbcConnectionExtension;
+import rxtx.extension.JdbcDatabase;
 
 /**
- * Tests explaining JDBC transactions using JDBC API.
+ * Tests explaining JDBC transactions using JDBC API. Tests share a pooled database whose tables are truncated after
+ * each test.
  */
 @ExtendWith(JdbcConnectionExtension.class)
+@JdbcDatabase(scope = JdbcDatabase.Scope.CLASS)
 final class JdbcTransactionTests {
 
-	@BeforeEach
-	void setUp(Connection connection) throws SQLException {
+	@BeforeAll
+	static void setUp(Connection connection) throws SQLException {
 
 		Statement statement = connection.createStatement();
 		statement.executeUpdate(
@@ -34,6 +34,7 @@ import de.flapdoodle.embed.process.config.io.ProcessOutput;
 import de.flapdoodle.embed.process.distribution.GenericVersion;
 import de.flapdoodle.embed.process.io.Processors;
 import de.flapdoodle.embed.process.runtime.Network;
+import rxtx.support.BlockingDetection;
 
 import java.util.EnumSet;
 import java.util.List;
@@ -61,6 +62,8 @@ public final class MongoDBExtension implements BeforeAllCallback, AfterAllCallba
 	@Override
 	public void beforeAll(ExtensionContext context) throws Exception {
 
+		BlockingDetection.installIfEnabled();
+
 		ExtensionContext.Store store = context.getStore(MONGO);
 
 		EnumSet<Feature> features = Version.Main.PRODUCTION.getFeatures();
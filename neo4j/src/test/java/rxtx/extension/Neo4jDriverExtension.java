@@ -1,5 +1,7 @@
 package rxtx.extension;
 
+import rxtx.support.BlockingDetection;
+
 import org.junit.jupiter.api.extension.AfterAllCallback;
 import org.junit.jupiter.api.extension.BeforeAllCallback;
 import org.junit.jupiter.api.extension.ExtensionContext;
@@ -27,6 +29,8 @@ public class Neo4jDriverExtension implements BeforeAllCallback, AfterAllCallback
 
 	public void beforeAll(ExtensionContext context) {
 
+		BlockingDetection.installIfEnabled();
+
 		InProcessNeo4j neo4j = this.builder.build();
 		context.getStore(NEO4J).put(Neo4j.class, neo4j);
 		Config config = Config.builder().withLogging(Logging.slf4j()).build();
@@ -4,6 +4,7 @@ import static org.neo4j.driver.Values.*;
 
 import reactor.core.publisher.Flux;
 import reactor.test.StepVerifier;
+import rxtx.support.BlockingDetectionExtension;
 
 import java.util.function.Function;
 
@@ -30,7 +31,7 @@ import org.springframework.transaction.ReactiveTransactionManager;
 import org.springframework.transaction.annotation.EnableTransactionManagement;
 import org.springframework.transaction.reactive.TransactionalOperator;
 
-@ExtendWith(SpringExtension.class)
+@ExtendWith({ BlockingDetectionExtension.class, SpringExtension.class })
 @DisabledOnJre({ JRE.JAVA_8, JRE.JAVA_9, JRE.JAVA_10 }) // Neo4j 4.0 embedded is JDK 11+
 public class TransactionalTests {
 
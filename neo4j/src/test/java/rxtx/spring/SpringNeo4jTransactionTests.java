@@ -3,6 +3,7 @@ package rxtx.spring;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 import reactor.test.StepVerifier;
+import rxtx.support.BlockingDetectionExtension;
 
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.BeforeEach;
@@ -31,7 +32,7 @@ import org.springframework.transaction.annotation.EnableTransactionManagement;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.transaction.reactive.TransactionalOperator;
 
-@ExtendWith(SpringExtension.class)
+@ExtendWith({ BlockingDetectionExtension.class, SpringExtension.class })
 @DisabledOnJre({ JRE.JAVA_8, JRE.JAVA_9, JRE.JAVA_10 }) // Neo4j 4.0 embedded is JDK 11+
 class SpringNeo4jTransactionTests {
 
@@ -20,17 +20,25 @@ import io.r2dbc.spi.Connection;
 import io.r2dbc.spi.ConnectionFactory;
 import reactor.core.publisher.Mono;
 import reactor.test.StepVerifier;
+import rxtx.support.BlockingDetection;
 
 import org.junit.jupiter.api.extension.AfterEachCallback;
+import org.junit.jupiter.api.extension.BeforeAllCallback;
 import org.junit.jupiter.api.extension.ExtensionContext;
 import org.junit.jupiter.api.extension.ParameterContext;
 import org.junit.jupiter.api.extension.ParameterResolutionException;
 import org.junit.jupiter.api.extension.ParameterResolver;
 
-public abstract class AbstractR2dbcConnectionExtension implements AfterEachCallback, ParameterResolver {
+public abstract class AbstractR2dbcConnectionExtension
+		implements BeforeAllCallback, AfterEachCallback, ParameterResolver {
 
 	private static final ExtensionContext.Namespace R2DBC = ExtensionContext.Namespace.create("R2DBC");
 
+	@Override
+	public void beforeAll(ExtensionContext context) {
+		BlockingDetection.installIfEnabled();
+	}
+
 	@Override
 	public void afterEach(ExtensionContext context) {
 
@@ -66,22 +74,22 @@ public abstract class AbstractR2dbcConnectionExtension implements AfterEachCallb
 		ExtensionContext.Store store = extensionContext.getStore(R2DBC);
 
 		if (parameterContext.getParameter().getType().isAssignableFrom(Connection.class)) {
-			return getConnection(store);
+			return getConnection(extensionContext, store);
 		}
 
 		if (parameterContext.getParameter().getType().isAssignableFrom(ConnectionFactory.class)) {
-			return getConnectionFactory(store);
+			return getConnectionFactory(extensionContext, store);
 		}
 
 		throw new ParameterResolutionException("¯\\_(ツ)_/¯");
 	}
 
-	private Connection getConnection(ExtensionContext.Store store) {
+	private Connection getConnection(ExtensionContext context, ExtensionContext.Store store) {
 
 		Connection connection = store.get(Connection.class, Connection.class);
 		if (connection == null) {
 
-			ConnectionFactory connectionFactory = getConnectionFactory(store);
+			ConnectionFactory connectionFactory = getConnectionFactory(context, store);
 			connection = Mono.from(connectionFactory.create()).block();
 			store.put(Connection.class, connection);
 		}
@@ -89,5 +97,5 @@ public abstract class AbstractR2dbcConnectionExtension implements AfterEachCallb
 		return connection;
 	}
 
-	abstract ConnectionFactory getConnectionFactory(ExtensionContext.Store store);
+	abstract ConnectionFactory getConnectionFactory(ExtensionContext context, ExtensionContext.Store store);
 }
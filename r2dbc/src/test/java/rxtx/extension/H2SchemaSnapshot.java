@@ -0,0 +1,120 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rxtx.extension;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.h2.store.fs.FileUtils;
+import org.h2.tools.DeleteDbFiles;
+import org.h2.util.IOUtils;
+import org.junit.jupiter.api.extension.ExtensionContext;
+
+/**
+ * Schema and seed data of an H2 database, built once from SQL scripts in H2's in-memory file system. Each test gets a
+ * copy of the database file instead of running the scripts again. Dropped when the owning store is closed.
+ */
+final class H2SchemaSnapshot implements ExtensionContext.Store.CloseableResource {
+
+	private static final AtomicInteger counter = new AtomicInteger();
+
+	private final String name;
+
+	private H2SchemaSnapshot(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Run {@code scripts} in a new database and take a snapshot of it.
+	 *
+	 * @param scripts locations readable by {@code RUNSCRIPT}, names without a prefix are classpath resources.
+	 */
+	static H2SchemaSnapshot create(String... scripts) throws SQLException {
+
+		String name = "H2SchemaSnapshot-" + counter.incrementAndGet();
+
+		try (Connection connection = DriverManager.getConnection("jdbc:h2:memFS:" + name, "sa", "sa");
+				Statement statement = connection.createStatement()) {
+
+			for (String script : scripts) {
+				String location = script.contains(":") ? script : "classpath:/" + script;
+				statement.execute("RUNSCRIPT FROM '" + location + "'");
+			}
+
+			statement.execute("SHUTDOWN COMPACT");
+		}
+
+		return new H2SchemaSnapshot(name);
+	}
+
+	/**
+	 * Copy the snapshot into a new database.
+	 *
+	 * @return the restored database, to be dropped by closing it.
+	 */
+	Database restore() throws IOException {
+
+		String name = this.name + "-" + counter.incrementAndGet();
+
+		try (InputStream in = FileUtils.newInputStream("memFS:" + this.name + ".mv.db");
+				OutputStream out = FileUtils.newOutputStream("memFS:" + name + ".mv.db", false)) {
+			IOUtils.copy(in, out);
+		}
+
+		return new Database(name);
+	}
+
+	@Override
+	public void close() {
+		DeleteDbFiles.execute("memFS:", name, true);
+	}
+
+	/**
+	 * A database restored from a snapshot, dropped when the owning store is closed.
+	 */
+	static class Database implements ExtensionContext.Store.CloseableResource {
+
+		/**
+		 * H2 URL without the {@code jdbc:h2:} prefix. Compacting on close would rewrite the copy we are about to
+		 * delete.
+		 */
+		final String url;
+
+		private final String name;
+
+		Database(String name) {
+			this.url = "memFS:" + name + ";DB_CLOSE_DELAY=-1;MAX_COMPACT_TIME=0";
+			this.name = name;
+		}
+
+		@Override
+		public void close() throws SQLException {
+
+			try (Connection connection = DriverManager.getConnection("jdbc:h2:" + url, "sa", "sa");
+					Statement statement = connection.createStatement()) {
+				statement.execute("SHUTDOWN");
+			}
+
+			DeleteDbFiles.execute("memFS:", name, true);
+		}
+	}
+}
@@ -16,17 +16,33 @@
 package rxtx.extension;
 
 import io.r2dbc.h2.CloseableConnectionFactory;
+import io.r2dbc.h2.H2ConnectionConfiguration;
 import io.r2dbc.h2.H2ConnectionFactory;
 import io.r2dbc.spi.Connection;
+import io.r2dbc.spi.ConnectionFactory;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.Optional;
 
 import org.junit.jupiter.api.extension.ExtensionContext;
+import org.junit.jupiter.api.extension.ParameterResolutionException;
+import org.junit.platform.commons.support.AnnotationSupport;
 
 /**
- * Extension providing a R2DBC {@link Connection} to a H2 in-memory database.
+ * Extension providing a R2DBC {@link Connection} to a H2 in-memory database. Test classes annotated with
+ * {@link H2Schema @H2Schema} get a new database per test restored from a snapshot of their schema.
  */
 public class R2dbcH2ConnectionExtension extends AbstractR2dbcConnectionExtension {
 
-	CloseableConnectionFactory getConnectionFactory(ExtensionContext.Store store) {
+	private static final ExtensionContext.Namespace H2 = ExtensionContext.Namespace.create("H2");
+
+	ConnectionFactory getConnectionFactory(ExtensionContext context, ExtensionContext.Store store) {
+
+		Optional<H2Schema> schema = findSchema(context);
+		if (schema.isPresent()) {
+			return getSnapshotConnectionFactory(context, store, schema.get());
+		}
 
 		CloseableConnectionFactory connectionFactory = store.get(CloseableConnectionFactory.class,
 				CloseableConnectionFactory.class);
@@ -37,4 +53,62 @@ public class R2dbcH2ConnectionExtension extends AbstractR2dbcConnectionExtension
 
 		return connectionFactory;
 	}
+
+	/**
+	 * Restore a snapshot of {@code schema}, taken once per test run, into a database dropped with {@code store}.
+	 */
+	private static H2ConnectionFactory getSnapshotConnectionFactory(ExtensionContext context,
+			ExtensionContext.Store store, H2Schema schema) {
+
+		H2ConnectionFactory connectionFactory = store.get(H2ConnectionFactory.class, H2ConnectionFactory.class);
+		if (connectionFactory == null) {
+
+			String key = String.join(",", schema.value());
+			H2SchemaSnapshot snapshot = context.getRoot().getStore(H2).getOrComputeIfAbsent(key,
+					it -> createSnapshot(schema), H2SchemaSnapshot.class);
+
+			H2SchemaSnapshot.Database database;
+			try {
+				database = snapshot.restore();
+			} catch (IOException e) {
+				throw new ParameterResolutionException("Cannot restore schema " + key, e);
+			}
+
+			store.put(H2SchemaSnapshot.Database.class, database);
+
+			connectionFactory = new H2ConnectionFactory(H2ConnectionConfiguration.builder() //
+					.url(database.url) //
+					.username("sa") //
+					.password("sa") //
+					.build());
+			store.put(H2ConnectionFactory.class, connectionFactory);
+		}
+
+		return connectionFactory;
+	}
+
+	private static H2SchemaSnapshot createSnapshot(H2Schema schema) {
+
+		try {
+			return H2SchemaSnapshot.create(schema.value());
+		} catch (SQLException e) {
+			throw new ParameterResolutionException("Cannot create schema snapshot", e);
+		}
+	}
+
+	/**
+	 * Find {@link H2Schema} on the test class or, for nested tests, its enclosing classes.
+	 */
+	private static Optional<H2Schema> findSchema(ExtensionContext context) {
+
+		for (Class<?> type = context.getRequiredTestClass(); type != null; type = type.getEnclosingClass()) {
+
+			Optional<H2Schema> schema = AnnotationSupport.findAnnotation(type, H2Schema.class);
+			if (schema.isPresent()) {
+				return schema;
+			}
+		}
+
+		return Optional.empty();
+	}
 }
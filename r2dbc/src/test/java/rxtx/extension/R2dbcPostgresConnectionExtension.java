@@ -26,7 +26,7 @@ import org.junit.jupiter.api.extension.ExtensionContext;
  */
 public class R2dbcPostgresConnectionExtension extends AbstractR2dbcConnectionExtension {
 
-	ConnectionFactory getConnectionFactory(ExtensionContext.Store store) {
+	ConnectionFactory getConnectionFactory(ExtensionContext context, ExtensionContext.Store store) {
 
 		ConnectionFactory connectionFactory = store.get(ConnectionFactory.class, ConnectionFactory.class);
 		if (connectionFactory == null) {
@@ -21,9 +21,9 @@ import io.r2dbc.spi.Result;
 import reactor.core.publisher.Flux;
 import reactor.test.StepVerifier;
 import rxtx.RowPrinter;
+import rxtx.extension.H2Schema;
 import rxtx.extension.R2dbcH2ConnectionExtension;
 
-import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 
@@ -31,24 +31,9 @@ import org.junit.jupiter.api.extension.ExtendWith;
  * Tests explaining R2DBC transactions using R2DBC API.
  */
 @ExtendWith(R2dbcH2ConnectionExtension.class)
+@H2Schema("person.sql")
 final class R2dbcTransactionTests {
 
-	@BeforeEach
-	void setUp(Connection connection) {
-
-		Flux<Integer> dropPerson = executeUpdate(connection, "DROP TABLE IF EXISTS person");
-		Flux<Integer> dropPersonEvent = executeUpdate(connection, "DROP TABLE IF EXISTS person_event");
-
-		dropPerson.thenMany(dropPersonEvent).then().as(StepVerifier::create).verifyComplete();
-
-		Flux<Integer> createPerson = executeUpdate(connection,
-				"CREATE TABLE person " + "(id INT PRIMARY KEY, first_name VARCHAR(255), last_name VARCHAR(255))");
-		Flux<Integer> createPersonEvent = executeUpdate(connection, "CREATE TABLE person_event "
-				+ "(id INT PRIMARY KEY, first_name VARCHAR(255), last_name VARCHAR(255), action VARCHAR(255))");
-
-		createPerson.thenMany(createPersonEvent).then().as(StepVerifier::create).verifyComplete();
-	}
-
 	@Test
 	void autoCommit(Connection connection) {
 
@@ -0,0 +1,34 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rxtx.proxy;
+
+import org.reactivestreams.Publisher;
+
+/**
+ * Callback to decorate round trips issued through a {@link ProxyConnectionFactory}. Interceptors must not subscribe to
+ * {@code execution} themselves but return a {@link Publisher} that subscribes to it once it gets subscribed.
+ */
+public interface Interceptor {
+
+	/**
+	 * Decorate {@code execution}.
+	 *
+	 * @param invocation the round trip.
+	 * @param execution the actual round trip, not yet subscribed.
+	 * @return the decorated publisher.
+	 */
+	<T> Publisher<T> intercept(Invocation invocation, Publisher<T> execution);
+}
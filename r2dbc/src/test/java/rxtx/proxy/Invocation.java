@@ -0,0 +1,72 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rxtx.proxy;
+
+import io.r2dbc.spi.Connection;
+
+/**
+ * Describes a single round trip issued through a {@link ProxyConnectionFactory}.
+ */
+public final class Invocation {
+
+	private final Kind kind;
+	private final Connection connection;
+	private final String sql;
+
+	Invocation(Kind kind, Connection connection, String sql) {
+		this.kind = kind;
+		this.connection = connection;
+		this.sql = sql;
+	}
+
+	/**
+	 * @return the kind of round trip.
+	 */
+	public Kind getKind() {
+		return this.kind;
+	}
+
+	/**
+	 * @return the proxied {@link Connection} or {@literal null} for {@link Kind#CONNECT}.
+	 */
+	public Connection getConnection() {
+		return this.connection;
+	}
+
+	/**
+	 * @return the SQL for {@link Kind#EXECUTE}, otherwise {@literal null}. Batches report their statements separated by
+	 *         {@code ;}.
+	 */
+	public String getSql() {
+		return this.sql;
+	}
+
+	@Override
+	public String toString() {
+		return sql == null ? kind.toString() : kind + " " + sql;
+	}
+
+	public enum Kind {
+		CONNECT, EXECUTE, BEGIN, COMMIT, ROLLBACK, SAVEPOINT, CLOSE, OTHER;
+
+		/**
+		 * @return {@literal true} if this round trip terminates a transaction.
+		 */
+		public boolean isCompletion() {
+			return this == COMMIT || this == ROLLBACK;
+		}
+	}
+}
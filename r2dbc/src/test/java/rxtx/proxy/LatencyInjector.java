@@ -0,0 +1,103 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rxtx.proxy;
+
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+import rxtx.proxy.Invocation.Kind;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.reactivestreams.Publisher;
+
+/**
+ * {@link Interceptor} delaying each round trip to simulate network latency of a remote database while running against
+ * an in-memory one. Delays are scheduled on a timer {@link Scheduler} so no thread is blocked while waiting. The actual
+ * round trip resumes on {@link Schedulers#elastic()} because embedded drivers such as H2 execute statements on the
+ * subscribing thread. {@link Kind#CLOSE} is not delayed as drivers typically do not await a response when closing a
+ * connection.
+ */
+public final class LatencyInjector implements Interceptor {
+
+	private final Duration min;
+	private final Duration max;
+	private final Scheduler timer;
+	private final Scheduler resumeOn;
+
+	private LatencyInjector(Duration min, Duration max, Scheduler timer, Scheduler resumeOn) {
+		this.min = min;
+		this.max = max;
+		this.timer = timer;
+		this.resumeOn = resumeOn;
+	}
+
+	/**
+	 * Create a {@link LatencyInjector} adding a fixed {@code latency} to each round trip.
+	 */
+	public static LatencyInjector fixed(Duration latency) {
+		return new LatencyInjector(latency, latency, Schedulers.parallel(), Schedulers.elastic());
+	}
+
+	/**
+	 * Create a {@link LatencyInjector} adding a uniformly distributed latency between {@code min} and {@code max} to each
+	 * round trip.
+	 */
+	public static LatencyInjector jittered(Duration min, Duration max) {
+
+		if (max.compareTo(min) < 0) {
+			throw new IllegalArgumentException("Max latency must be greater or equal to min latency");
+		}
+
+		return new LatencyInjector(min, max, Schedulers.parallel(), Schedulers.elastic());
+	}
+
+	/**
+	 * Create a new {@link LatencyInjector} scheduling delays on the given {@link Scheduler}, e.g. a virtual time
+	 * scheduler.
+	 */
+	public LatencyInjector withTimer(Scheduler timer) {
+		return new LatencyInjector(min, max, timer, resumeOn);
+	}
+
+	/**
+	 * Create a new {@link LatencyInjector} that resumes round trips on the given {@link Scheduler}. Drivers that do not
+	 * block may use {@link Schedulers#immediate()} to continue on the timer thread.
+	 */
+	public LatencyInjector resumeOn(Scheduler resumeOn) {
+		return new LatencyInjector(min, max, timer, resumeOn);
+	}
+
+	@Override
+	public <T> Publisher<T> intercept(Invocation invocation, Publisher<T> execution) {
+
+		if (invocation.getKind() == Kind.CLOSE) {
+			return execution;
+		}
+
+		return Mono.defer(() -> Mono.delay(nextLatency(), timer)).publishOn(resumeOn).thenMany(execution);
+	}
+
+	Duration nextLatency() {
+
+		if (min.equals(max)) {
+			return min;
+		}
+
+		return Duration.ofNanos(ThreadLocalRandom.current().nextLong(min.toNanos(), max.toNanos() + 1));
+	}
+}
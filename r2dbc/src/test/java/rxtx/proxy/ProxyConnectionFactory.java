@@ -0,0 +1,270 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rxtx.proxy;
+
+import io.r2dbc.spi.Batch;
+import io.r2dbc.spi.Closeable;
+import io.r2dbc.spi.Connection;
+import io.r2dbc.spi.ConnectionFactory;
+import io.r2dbc.spi.ConnectionFactoryMetadata;
+import io.r2dbc.spi.ConnectionMetadata;
+import io.r2dbc.spi.IsolationLevel;
+import io.r2dbc.spi.Result;
+import io.r2dbc.spi.Statement;
+import io.r2dbc.spi.ValidationDepth;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import rxtx.proxy.Invocation.Kind;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.StringJoiner;
+
+import org.reactivestreams.Publisher;
+
+/**
+ * {@link ConnectionFactory} wrapping another {@link ConnectionFactory} to apply {@link Interceptor}s to each round trip
+ * (connect, statement execution, transaction control, close). Interceptors are applied in the given order so later
+ * interceptors observe the effects of earlier ones. The wrapper is {@link Closeable} and closes the delegate if it is
+ * closeable, too.
+ */
+public final class ProxyConnectionFactory implements ConnectionFactory, Closeable {
+
+	private final ConnectionFactory delegate;
+	private final List<Interceptor> interceptors;
+
+	private ProxyConnectionFactory(ConnectionFactory delegate, List<Interceptor> interceptors) {
+		this.delegate = delegate;
+		this.interceptors = interceptors;
+	}
+
+	/**
+	 * Create a new {@link ProxyConnectionFactory}.
+	 *
+	 * @param delegate the actual {@link ConnectionFactory}.
+	 * @param interceptors the interceptors to apply.
+	 * @return the proxy.
+	 */
+	public static ProxyConnectionFactory create(ConnectionFactory delegate, Interceptor... interceptors) {
+		return new ProxyConnectionFactory(delegate, Arrays.asList(interceptors));
+	}
+
+	public ConnectionFactory getDelegate() {
+		return this.delegate;
+	}
+
+	@Override
+	public Publisher<? extends Connection> create() {
+		return intercept(new Invocation(Kind.CONNECT, null, null), Mono.from(delegate.create()))
+				.map(ProxyConnection::new);
+	}
+
+	@Override
+	public ConnectionFactoryMetadata getMetadata() {
+		return delegate.getMetadata();
+	}
+
+	@Override
+	public Publisher<Void> close() {
+
+		if (delegate instanceof Closeable) {
+			return ((Closeable) delegate).close();
+		}
+
+		return Mono.empty();
+	}
+
+	private <T> Mono<T> intercept(Invocation invocation, Publisher<T> execution) {
+		return Mono.from(interceptMany(invocation, execution));
+	}
+
+	private <T> Flux<T> interceptMany(Invocation invocation, Publisher<T> execution) {
+
+		Publisher<T> publisher = execution;
+		for (Interceptor interceptor : interceptors) {
+			publisher = interceptor.intercept(invocation, publisher);
+		}
+
+		return Flux.from(publisher);
+	}
+
+	class ProxyConnection implements Connection {
+
+		private final Connection delegate;
+
+		ProxyConnection(Connection delegate) {
+			this.delegate = delegate;
+		}
+
+		@Override
+		public Publisher<Void> beginTransaction() {
+			return intercept(new Invocation(Kind.BEGIN, this, null), delegate.beginTransaction());
+		}
+
+		@Override
+		public Publisher<Void> close() {
+			return intercept(new Invocation(Kind.CLOSE, this, null), delegate.close());
+		}
+
+		@Override
+		public Publisher<Void> commitTransaction() {
+			return intercept(new Invocation(Kind.COMMIT, this, null), delegate.commitTransaction());
+		}
+
+		@Override
+		public Batch createBatch() {
+			return new ProxyBatch(this, delegate.createBatch());
+		}
+
+		@Override
+		public Publisher<Void> createSavepoint(String name) {
+			return intercept(new Invocation(Kind.SAVEPOINT, this, null), delegate.createSavepoint(name));
+		}
+
+		@Override
+		public Statement createStatement(String sql) {
+			return new ProxyStatement(this, sql, delegate.createStatement(sql));
+		}
+
+		@Override
+		public boolean isAutoCommit() {
+			return delegate.isAutoCommit();
+		}
+
+		@Override
+		public ConnectionMetadata getMetadata() {
+			return delegate.getMetadata();
+		}
+
+		@Override
+		public IsolationLevel getTransactionIsolationLevel() {
+			return delegate.getTransactionIsolationLevel();
+		}
+
+		@Override
+		public Publisher<Void> releaseSavepoint(String name) {
+			return intercept(new Invocation(Kind.SAVEPOINT, this, null), delegate.releaseSavepoint(name));
+		}
+
+		@Override
+		public Publisher<Void> rollbackTransaction() {
+			return intercept(new Invocation(Kind.ROLLBACK, this, null), delegate.rollbackTransaction());
+		}
+
+		@Override
+		public Publisher<Void> rollbackTransactionToSavepoint(String name) {
+			return intercept(new Invocation(Kind.SAVEPOINT, this, null), delegate.rollbackTransactionToSavepoint(name));
+		}
+
+		@Override
+		public Publisher<Void> setAutoCommit(boolean autoCommit) {
+			return intercept(new Invocation(Kind.OTHER, this, null), delegate.setAutoCommit(autoCommit));
+		}
+
+		@Override
+		public Publisher<Void> setTransactionIsolationLevel(IsolationLevel isolationLevel) {
+			return intercept(new Invocation(Kind.OTHER, this, null), delegate.setTransactionIsolationLevel(isolationLevel));
+		}
+
+		@Override
+		public Publisher<Boolean> validate(ValidationDepth depth) {
+			return delegate.validate(depth);
+		}
+
+		@Override
+		public String toString() {
+			return "Proxy[" + delegate + "]";
+		}
+	}
+
+	class ProxyStatement implements Statement {
+
+		private final ProxyConnection connection;
+		private final String sql;
+		private final Statement delegate;
+
+		ProxyStatement(ProxyConnection connection, String sql, Statement delegate) {
+			this.connection = connection;
+			this.sql = sql;
+			this.delegate = delegate;
+		}
+
+		@Override
+		public Statement add() {
+			delegate.add();
+			return this;
+		}
+
+		@Override
+		public Statement bind(int index, Object value) {
+			delegate.bind(index, value);
+			return this;
+		}
+
+		@Override
+		public Statement bind(String name, Object value) {
+			delegate.bind(name, value);
+			return this;
+		}
+
+		@Override
+		public Statement bindNull(int index, Class<?> type) {
+			delegate.bindNull(index, type);
+			return this;
+		}
+
+		@Override
+		public Statement bindNull(String name, Class<?> type) {
+			delegate.bindNull(name, type);
+			return this;
+		}
+
+		@Override
+		public Statement returnGeneratedValues(String... columns) {
+			delegate.returnGeneratedValues(columns);
+			return this;
+		}
+
+		@Override
+		public Publisher<? extends Result> execute() {
+			return interceptMany(new Invocation(Kind.EXECUTE, connection, sql), delegate.execute());
+		}
+	}
+
+	class ProxyBatch implements Batch {
+
+		private final ProxyConnection connection;
+		private final StringJoiner sql = new StringJoiner("; ");
+		private final Batch delegate;
+
+		ProxyBatch(ProxyConnection connection, Batch delegate) {
+			this.connection = connection;
+			this.delegate = delegate;
+		}
+
+		@Override
+		public Batch add(String sql) {
+			this.sql.add(sql);
+			delegate.add(sql);
+			return this;
+		}
+
+		@Override
+		public Publisher<? extends Result> execute() {
+			return interceptMany(new Invocation(Kind.EXECUTE, connection, sql.toString()), delegate.execute());
+		}
+	}
+}
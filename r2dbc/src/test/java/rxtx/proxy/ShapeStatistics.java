@@ -0,0 +1,85 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rxtx.proxy;
+
+import rxtx.support.LatencyHistogram;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Execution statistics for a single statement shape.
+ *
+ * @see rxtx.support.SqlShapes
+ */
+public final class ShapeStatistics {
+
+	private final String shape;
+	private final LongAdder count = new LongAdder();
+	private final LongAdder totalNanos = new LongAdder();
+	private final AtomicLong maxNanos = new AtomicLong();
+	private final LatencyHistogram histogram = new LatencyHistogram();
+
+	ShapeStatistics(String shape) {
+		this.shape = shape;
+	}
+
+	void record(long nanos) {
+
+		count.increment();
+		totalNanos.add(nanos);
+		maxNanos.accumulateAndGet(nanos, Math::max);
+		histogram.record(nanos);
+	}
+
+	public String getShape() {
+		return this.shape;
+	}
+
+	public long getCount() {
+		return count.sum();
+	}
+
+	public Duration getTotalTime() {
+		return Duration.ofNanos(totalNanos.sum());
+	}
+
+	public Duration getMaxTime() {
+		return Duration.ofNanos(maxNanos.get());
+	}
+
+	public Duration getMeanTime() {
+
+		long count = getCount();
+		return count == 0 ? Duration.ZERO : Duration.ofNanos(totalNanos.sum() / count);
+	}
+
+	/**
+	 * @return the estimated 99th percentile.
+	 * @see LatencyHistogram
+	 */
+	public Duration getP99() {
+		return histogram.getPercentile(99);
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%6d x %8.3f ms total, %8.3f ms max, %8.3f ms p99: %s", getCount(),
+				getTotalTime().toNanos() / 1_000_000d, getMaxTime().toNanos() / 1_000_000d, getP99().toNanos() / 1_000_000d,
+				shape);
+	}
+}
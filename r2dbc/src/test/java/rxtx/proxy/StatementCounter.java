@@ -0,0 +1,151 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rxtx.proxy;
+
+import io.r2dbc.spi.Connection;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import rxtx.proxy.Invocation.Kind;
+import rxtx.support.NPlusOneDetector;
+import rxtx.support.UnitOfWork;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+
+import org.reactivestreams.Publisher;
+
+/**
+ * {@link Interceptor} counting statements per {@link UnitOfWork} to detect N+1 queries. Two kinds of units are tracked:
+ * <ul>
+ * <li>Transactions: statements executed on a connection between {@code BEGIN} and {@code COMMIT}/{@code ROLLBACK}.
+ * Completed transactions are available through {@link #getTransactions()}. Transactions of connections closed before
+ * completion are discarded.</li>
+ * <li>Scopes: statements executed by a {@link Publisher} that was decorated with {@link #scope(UnitOfWork, Publisher)}.
+ * The unit travels with the subscriber context so it also covers work outside of transactions, e.g. a WebFilter can
+ * open a scope per HTTP request.</li>
+ * </ul>
+ * A warning is logged as soon as a statement shape is executed more often than the configured threshold within a single
+ * unit of work, see {@link NPlusOneDetector}.
+ */
+public class StatementCounter implements Interceptor {
+
+	private static final int RETAINED_TRANSACTIONS = 100;
+
+	private final NPlusOneDetector detector;
+	private final Map<Connection, UnitOfWork> transactions = new ConcurrentHashMap<>();
+	private final Deque<UnitOfWork> completed = new ConcurrentLinkedDeque<>();
+
+	/**
+	 * Create a {@link StatementCounter} flagging statement shapes executed more than 10 times within a unit of work.
+	 */
+	public StatementCounter() {
+		this(10);
+	}
+
+	public StatementCounter(int threshold) {
+		this.detector = new NPlusOneDetector(threshold, RETAINED_TRANSACTIONS);
+	}
+
+	/**
+	 * Count statements issued by {@code publisher} into {@code unitOfWork}.
+	 */
+	public static <T> Flux<T> scope(UnitOfWork unitOfWork, Publisher<T> publisher) {
+		return Flux.from(publisher).subscriberContext(context -> context.put(UnitOfWork.class, unitOfWork));
+	}
+
+	@Override
+	public <T> Publisher<T> intercept(Invocation invocation, Publisher<T> execution) {
+
+		Connection connection = invocation.getConnection();
+
+		switch (invocation.getKind()) {
+
+			case BEGIN:
+				return Flux.from(execution).doOnComplete(
+						() -> transactions.put(connection, new UnitOfWork("Transaction on " + connection)));
+
+			case COMMIT:
+			case ROLLBACK:
+				return Flux.from(execution).doFinally(signal -> complete(transactions.remove(connection)));
+
+			case CLOSE:
+				// a connection closed within a transaction never completes it, discard the transaction
+				return Flux.from(execution).doFinally(signal -> transactions.remove(connection));
+
+			case EXECUTE:
+				return Mono.subscriberContext().flatMapMany(context -> {
+
+					UnitOfWork transaction = transactions.get(connection);
+					if (transaction != null) {
+						detector.record(transaction, invocation.getSql());
+					}
+
+					context.<UnitOfWork> getOrEmpty(UnitOfWork.class)
+							.ifPresent(it -> detector.record(it, invocation.getSql()));
+
+					return execution;
+				});
+
+			default:
+				return execution;
+		}
+	}
+
+	private void complete(UnitOfWork transaction) {
+
+		if (transaction == null) {
+			return;
+		}
+
+		completed.addLast(transaction);
+		while (completed.size() > RETAINED_TRANSACTIONS) {
+			completed.pollFirst();
+		}
+	}
+
+	/**
+	 * @return the most recently completed transactions, oldest first.
+	 */
+	public List<UnitOfWork> getTransactions() {
+		return Collections.unmodifiableList(new ArrayList<>(completed));
+	}
+
+	/**
+	 * @return the most recently completed transaction.
+	 * @throws IllegalStateException if no transaction was completed.
+	 */
+	public UnitOfWork getLastTransaction() {
+
+		UnitOfWork last = completed.peekLast();
+		if (last == null) {
+			throw new IllegalStateException("No transaction completed");
+		}
+
+		return last;
+	}
+
+	/**
+	 * Discard completed transactions.
+	 */
+	public void reset() {
+		completed.clear();
+	}
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rxtx.proxy;
+
+import reactor.core.publisher.Flux;
+import rxtx.proxy.Invocation.Kind;
+import rxtx.support.SqlShapes;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.reactivestreams.Publisher;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link Interceptor} recording count, total time, max time and a p99 estimate per statement shape. Statements taking
+ * longer than the configured threshold are logged with their actual SQL.
+ * <p>
+ * Time is measured from subscription to the statement until its {@link io.r2dbc.spi.Result results} have been emitted.
+ * Drivers that stream rows lazily (such as Postgres) may still be decoding rows after that point.
+ *
+ * @see SqlShapes
+ */
+public class StatementStatistics implements Interceptor {
+
+	private static final Logger logger = LoggerFactory.getLogger(StatementStatistics.class);
+
+	private final Map<String, ShapeStatistics> shapes = new ConcurrentHashMap<>();
+	private final Duration slowThreshold;
+
+	/**
+	 * Create {@link StatementStatistics} that logs statements taking longer than 100ms.
+	 */
+	public StatementStatistics() {
+		this(Duration.ofMillis(100));
+	}
+
+	public StatementStatistics(Duration slowThreshold) {
+		this.slowThreshold = slowThreshold;
+	}
+
+	@Override
+	public <T> Publisher<T> intercept(Invocation invocation, Publisher<T> execution) {
+
+		if (invocation.getKind() != Kind.EXECUTE) {
+			return execution;
+		}
+
+		return Flux.defer(() -> {
+
+			long start = System.nanoTime();
+			return Flux.from(execution).doFinally(signal -> record(invocation.getSql(), System.nanoTime() - start));
+		});
+	}
+
+	void record(String sql, long nanos) {
+
+		shapes.computeIfAbsent(SqlShapes.normalize(sql), ShapeStatistics::new).record(nanos);
+
+		if (nanos > slowThreshold.toNanos()) {
+			logger.warn(String.format("Slow statement (%.3f ms): %s", nanos / 1_000_000d, sql));
+		}
+	}
+
+	/**
+	 * Lookup statistics for the shape of {@code sql}.
+	 *
+	 * @param sql the SQL statement, literals and bind markers are normalized.
+	 * @return the statistics or {@literal null} if the statement was not executed.
+	 */
+	public ShapeStatistics get(String sql) {
+		return shapes.get(SqlShapes.normalize(sql));
+	}
+
+	/**
+	 * @return statistics for all shapes, ordered by descending total time.
+	 */
+	public List<ShapeStatistics> getShapes() {
+
+		List<ShapeStatistics> result = new ArrayList<>(shapes.values());
+		result.sort(Comparator.comparing(ShapeStatistics::getTotalTime).reversed());
+
+		return Collections.unmodifiableList(result);
+	}
+
+	/**
+	 * @return the total number of executed statements.
+	 */
+	public long getStatementCount() {
+		return shapes.values().stream().mapToLong(ShapeStatistics::getCount).sum();
+	}
+
+	/**
+	 * Discard all recorded statistics.
+	 */
+	public void reset() {
+		shapes.clear();
+	}
+
+	/**
+	 * Print statistics to {@link System#out}.
+	 */
+	public void print() {
+
+		System.out.println("Statement statistics");
+		getShapes().forEach(System.out::println);
+		System.out.println();
+	}
+}
@@ -15,6 +15,7 @@
  */
 package rxtx.special.attention;
 
+import static org.assertj.core.api.Assertions.*;
 import static org.springframework.data.r2dbc.query.Criteria.*;
 
 import io.r2dbc.pool.ConnectionPool;
@@ -25,16 +26,26 @@ import io.r2dbc.spi.Result;
 import reactor.core.publisher.Flux;
 import reactor.test.StepVerifier;
 import rxtx.extension.R2dbcH2ConnectionExtension;
+import rxtx.proxy.LatencyInjector;
+import rxtx.proxy.ProxyConnectionFactory;
+import rxtx.proxy.StatementCounter;
+import rxtx.proxy.StatementStatistics;
+import rxtx.support.SqlShapes;
+import rxtx.support.UnitOfWork;
 
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.time.Duration;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
 
 import org.springframework.core.io.ClassPathResource;
 import org.springframework.data.annotation.Transient;
@@ -92,9 +103,18 @@ final class TransactionalTests {
 		client.execute("SELECT COUNT(*) FROM starbucks").fetch().all().doOnNext(System.out::println).then().block();
 	}
 
-	// Note: Switch to R2dbcPostgresConnectionExtension, Enable pooling, run in tx
-	@Test
-	void nPlusOne(ConnectionFactory connectionFactory) {
+	// Note: Switch to R2dbcPostgresConnectionExtension, Enable pooling, run in tx. A latency of 1ms per round trip
+	// simulates a remote database, compare the time taken and the per-shape statistics of both runs.
+	@ParameterizedTest(name = "{0} ms per round trip")
+	@ValueSource(ints = { 0, 1 })
+	void nPlusOne(int latencyMillis, ConnectionFactory database) {
+
+		// up to 256 queries queue on the connection at once, queueing rather than latency makes each of them slow, so
+		// disable the slow statement warning and read the per-shape statistics instead
+		StatementStatistics statistics = new StatementStatistics(Duration.ofMinutes(1));
+		ConnectionFactory connectionFactory = latencyMillis == 0 ? ProxyConnectionFactory.create(database, statistics)
+				: ProxyConnectionFactory.create(database, LatencyInjector.fixed(Duration.ofMillis(latencyMillis)),
+						statistics);
 
 		ConnectionPool pool = new ConnectionPool(ConnectionPoolConfiguration.builder(connectionFactory).build());
 
@@ -118,6 +138,8 @@ final class TransactionalTests {
 
 		}).then().as(StepVerifier::create).verifyComplete();
 
+		long start = System.nanoTime();
+
 		client.select().from(Starbucks.class).fetch().all().flatMap(it -> {
 
 			return client.select().from(Starbucks.class)
@@ -131,6 +153,78 @@ final class TransactionalTests {
 
 		}).filter(it -> !it.shopsInTheSameCity.isEmpty()).doOnNext(System.out::println).as(StepVerifier::create)
 				.expectNextCount(924).verifyComplete();
+
+		System.out.printf("N+1 query with %d ms per round trip took %d ms%n", latencyMillis,
+				Duration.ofNanos(System.nanoTime() - start).toMillis());
+		statistics.print();
+	}
+
+	@Test
+	void detectNPlusOne(ConnectionFactory connectionFactory) {
+
+		StatementCounter counter = new StatementCounter(10);
+		ConnectionFactory proxy = ProxyConnectionFactory.create(connectionFactory, counter);
+
+		R2dbcTransactionManager transactionManager = new R2dbcTransactionManager(proxy);
+		DatabaseClient client = DatabaseClient.create(proxy);
+		TransactionalOperator rxtx = TransactionalOperator.create(transactionManager);
+
+		String insert = "INSERT INTO starbucks (store_number, name, address, city) VALUES ($1, $2, $3, $4)";
+		String selectSameCity = "SELECT starbucks.store_number, starbucks.name, starbucks.address, starbucks.city "
+				+ "FROM starbucks WHERE starbucks.city = $1 AND starbucks.store_number != $2";
+
+		starbucksRecords().take(100).concatMap(it -> {
+
+			return client.insert().into("starbucks") //
+					.value("store_number", it[2]) //
+					.value("name", it[0]) //
+					.value("address", it[5]) //
+					.value("city", it[9]) //
+					.then();
+
+		}).as(rxtx::transactional).as(StepVerifier::create).verifyComplete();
+
+		// one insert per row within a single transaction
+		UnitOfWork inserts = counter.getLastTransaction();
+		assertThat(inserts.getRepeatedShapes(10)).containsOnlyKeys(SqlShapes.normalize(insert));
+		assertThat(inserts.getCount(insert)).isEqualTo(100);
+
+		AtomicInteger nPlusOnePairs = new AtomicInteger();
+		UnitOfWork nPlusOneUnit = new UnitOfWork("nPlusOne");
+		Flux<Starbucks> nPlusOne = client.select().from(Starbucks.class).fetch().all().flatMap(it -> {
+
+			return client.select().from(Starbucks.class)
+					.matching(where("city").is(it.getCity()).and("store_number").not(it.getStoreNumber())).fetch().all()
+					.collectList().map(shopsInTheSameCity -> {
+
+						it.setShopsInTheSameCity(shopsInTheSameCity);
+						return it;
+					});
+		}).doOnNext(it -> nPlusOnePairs.addAndGet(it.getShopsInTheSameCity().size()));
+
+		StatementCounter.scope(nPlusOneUnit, nPlusOne).as(StepVerifier::create).expectNextCount(100).verifyComplete();
+
+		// one query per store flagged, the query for all stores is not
+		assertThat(nPlusOneUnit.getRepeatedShapes(10)).containsOnlyKeys(SqlShapes.normalize(selectSameCity));
+		assertThat(nPlusOneUnit.getCount(selectSameCity)).isEqualTo(100);
+		assertThatThrownBy(() -> nPlusOneUnit.assertMaxExecutionsPerShape(10)).isInstanceOf(AssertionError.class)
+				.hasMessageContaining(SqlShapes.normalize(selectSameCity));
+
+		// same result through a single join stays well below the threshold
+		AtomicInteger joinedPairs = new AtomicInteger();
+		UnitOfWork joinedUnit = new UnitOfWork("join");
+		Flux<Map<String, Object>> joined = client
+				.execute("SELECT a.store_number, b.store_number AS same_city FROM starbucks a "
+						+ "JOIN starbucks b ON a.city = b.city AND a.store_number != b.store_number") //
+				.fetch().all() //
+				.doOnNext(it -> joinedPairs.incrementAndGet());
+
+		StatementCounter.scope(joinedUnit, joined).then().as(StepVerifier::create).verifyComplete();
+
+		assertThat(joinedPairs).hasValue(nPlusOnePairs.get()).hasPositiveValue();
+		assertThat(joinedUnit.getStatementCount()).isEqualTo(1);
+		assertThat(joinedUnit.getRepeatedShapes(1)).isEmpty();
+		joinedUnit.assertMaxExecutionsPerShape(1);
 	}
 
 	private Flux<Integer> executeUpdate(Connection connection, String sql) {
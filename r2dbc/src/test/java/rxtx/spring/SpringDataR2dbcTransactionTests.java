@@ -15,7 +15,8 @@
  */
 package rxtx.spring;
 
-import io.r2dbc.h2.CloseableConnectionFactory;
+import static org.assertj.core.api.Assertions.*;
+
 import io.r2dbc.h2.H2ConnectionFactory;
 import io.r2dbc.spi.Connection;
 import io.r2dbc.spi.ConnectionFactory;
@@ -25,6 +26,8 @@ import reactor.core.publisher.Mono;
 import reactor.test.StepVerifier;
 import rxtx.RowPrinter;
 import rxtx.extension.R2dbcH2ConnectionExtension;
+import rxtx.proxy.ProxyConnectionFactory;
+import rxtx.proxy.StatementStatistics;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -140,6 +143,22 @@ final class SpringDataR2dbcTransactionTests {
 		person_event.flatMap(new RowPrinter()).as(StepVerifier::create).verifyComplete();
 	}
 
+	@Test
+	void statementStatistics(@Autowired TransactionalService transactionalService,
+			@Autowired StatementStatistics statistics) {
+
+		statistics.reset();
+
+		transactionalService.insert().as(StepVerifier::create).verifyComplete();
+
+		statistics.print();
+
+		assertThat(statistics.getStatementCount()).isEqualTo(2);
+		assertThat(statistics.get("INSERT INTO person VALUES(2, 'Walter', 'White')").getCount()).isEqualTo(1);
+		assertThat(statistics.get("INSERT INTO person_event VALUES(2, 'Walter', 'White', 'CREATED')").getCount())
+				.isEqualTo(1);
+	}
+
 	private Flux<Integer> executeUpdate(Connection connection, String sql) {
 		return Flux.from(connection.createStatement(sql).execute()).flatMap(Result::getRowsUpdated);
 	}
@@ -152,8 +171,14 @@ final class SpringDataR2dbcTransactionTests {
 	static class TestConfiguration {
 
 		@Bean
-		CloseableConnectionFactory connectionFactory() {
-			return H2ConnectionFactory.inMemory("R2dbcConnectionExtension");
+		StatementStatistics statementStatistics() {
+			return new StatementStatistics();
+		}
+
+		@Bean
+		ProxyConnectionFactory connectionFactory(StatementStatistics statementStatistics) {
+			return ProxyConnectionFactory.create(H2ConnectionFactory.inMemory("R2dbcConnectionExtension"),
+					statementStatistics);
 		}
 
 		@Bean
@@ -0,0 +1,2 @@
+CREATE TABLE person (id INT PRIMARY KEY, first_name VARCHAR(255), last_name VARCHAR(255));
+CREATE TABLE person_event (id INT PRIMARY KEY, first_name VARCHAR(255), last_name VARCHAR(255), action VARCHAR(255));
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rxtx.support;
+
+import reactor.blockhound.BlockHound;
+import reactor.blockhound.integration.BlockHoundIntegration;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Installs <a href="https://github.com/reactor/BlockHound">BlockHound</a> to detect blocking calls on non-blocking
+ * Reactor and Netty threads. Detection is opt-in, run the build with {@code -Pblockhound} or start the application
+ * with {@code -Drxtx.blockhound=true} to enable it (on JDK 13+ also with
+ * {@code -XX:+AllowRedefinitionToAddDeleteMethods}).
+ * <ul>
+ * <li>{@code rxtx.blockhound.mode=report} prints blocking calls instead of failing with an error.</li>
+ * <li>{@code rxtx.blockhound.allow=com.example.Type#method,…} allows blocking calls inside the given methods.</li>
+ * </ul>
+ */
+public final class BlockingDetection {
+
+	private static final AtomicBoolean installed = new AtomicBoolean();
+
+	private BlockingDetection() {}
+
+	/**
+	 * Install BlockHound once per JVM if enabled through {@code rxtx.blockhound}.
+	 */
+	public static void installIfEnabled() {
+
+		if (!Boolean.getBoolean("rxtx.blockhound") || !installed.compareAndSet(false, true)) {
+			return;
+		}
+
+		BlockHound.install(new BlockHoundIntegration() {
+
+			@Override
+			public void applyTo(BlockHound.Builder builder) {
+
+				// Reactor Netty event loops
+				builder.nonBlockingThreadPredicate(current -> current.or(thread -> thread.getName().startsWith("reactor-http-")
+						|| thread.getName().startsWith("reactor-tcp-")));
+
+				for (String allowed : System.getProperty("rxtx.blockhound.allow", "").split(",")) {
+
+					if (allowed.trim().isEmpty()) {
+						continue;
+					}
+
+					String[] typeAndMethod = allowed.trim().split("#");
+					if (typeAndMethod.length != 2) {
+						throw new IllegalArgumentException(
+								String.format("Cannot parse allow-list entry '%s', expected Type#method", allowed));
+					}
+
+					builder.allowBlockingCallsInside(typeAndMethod[0], typeAndMethod[1]);
+				}
+
+				if ("report".equals(System.getProperty("rxtx.blockhound.mode"))) {
+					builder.blockingMethodCallback(method -> {
+						new Exception(String.format("Blocking call %s in thread %s", method, Thread.currentThread().getName()))
+								.printStackTrace(System.out);
+					});
+				}
+			}
+		});
+	}
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rxtx.support;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Hold times of connection leases, from acquiring a connection until returning it to the pool, attributed to the
+ * request and the transactional method that acquired it. Keeps a histogram of all leases, one per holder and the
+ * {@code longest} leases seen so far. The number of distinct holders is bounded, further holders are counted as
+ * {@link #OTHER}.
+ */
+public final class ConnectionHoldTimes {
+
+	public static final String UNKNOWN = "-";
+	public static final String OTHER = "(other)";
+
+	static final int MAX_HOLDERS = 100;
+
+	private final int longest;
+
+	private final LatencyHistogram all = new LatencyHistogram();
+	private final ConcurrentMap<Holder, LatencyHistogram> byHolder = new ConcurrentHashMap<>();
+	private final PriorityQueue<Lease> longestLeases = new PriorityQueue<>(
+			Comparator.comparingLong(lease -> lease.nanos));
+
+	/**
+	 * @param longest number of longest leases to keep.
+	 */
+	public ConnectionHoldTimes(int longest) {
+		this.longest = longest;
+	}
+
+	/**
+	 * Record a returned connection.
+	 *
+	 * @param request the request that acquired the connection, e.g. {@code POST /}, or {@literal null} if unknown.
+	 * @param method the transactional method that acquired the connection or {@literal null} if unknown.
+	 * @param nanos time from acquiring until returning the connection.
+	 */
+	public void record(String request, String method, long nanos) {
+
+		Holder holder = new Holder(request != null ? request : UNKNOWN, method != null ? method : UNKNOWN);
+
+		all.record(nanos);
+		histogramOf(holder).record(nanos);
+
+		synchronized (longestLeases) {
+
+			if (longestLeases.size() < longest) {
+				longestLeases.add(new Lease(holder, nanos, Instant.now()));
+			} else if (longest > 0 && longestLeases.peek().nanos < nanos) {
+				longestLeases.poll();
+				longestLeases.add(new Lease(holder, nanos, Instant.now()));
+			}
+		}
+	}
+
+	/**
+	 * Discard all recorded leases.
+	 */
+	public void reset() {
+
+		all.reset();
+		byHolder.clear();
+
+		synchronized (longestLeases) {
+			longestLeases.clear();
+		}
+	}
+
+	/**
+	 * @return hold time percentiles over all leases.
+	 */
+	public Map<String, Object> getSummary() {
+
+		Map<String, Object> summary = new LinkedHashMap<>();
+		summary.put("released", all.getCount());
+		summary.put("holdP50Micros", all.getPercentile(50).toNanos() / 1000);
+		summary.put("holdP99Micros", all.getPercentile(99).toNanos() / 1000);
+		summary.put("holdMaxMicros", all.getPercentile(100).toNanos() / 1000);
+		return summary;
+	}
+
+	/**
+	 * @return hold time percentiles per holder, longest holders first, and the longest leases.
+	 */
+	public Map<String, Object> getMetrics() {
+
+		List<Map<String, Object>> holders = new ArrayList<>();
+		byHolder.forEach((holder, histogram) -> {
+
+			Map<String, Object> metrics = holder.toMap();
+			metrics.put("leases", histogram.getCount());
+			metrics.put("holdP50Micros", histogram.getPercentile(50).toNanos() / 1000);
+			metrics.put("holdP99Micros", histogram.getPercentile(99).toNanos() / 1000);
+			metrics.put("holdMaxMicros", histogram.getPercentile(100).toNanos() / 1000);
+			holders.add(metrics);
+		});
+		holders.sort(Comparator.comparingLong(metrics -> -(Long) metrics.get("holdMaxMicros")));
+
+		List<Lease> leases;
+		synchronized (longestLeases) {
+			leases = new ArrayList<>(longestLeases);
+		}
+		leases.sort(Comparator.comparingLong(lease -> -lease.nanos));
+
+		List<Map<String, Object>> longestLeases = new ArrayList<>();
+		for (Lease lease : leases) {
+
+			Map<String, Object> metrics = lease.holder.toMap();
+			metrics.put("holdMicros", lease.nanos / 1000);
+			metrics.put("releasedAt", lease.releasedAt.toString());
+			longestLeases.add(metrics);
+		}
+
+		Map<String, Object> metrics = getSummary();
+		metrics.put("holders", holders);
+		metrics.put("longest", longestLeases);
+		return metrics;
+	}
+
+	private LatencyHistogram histogramOf(Holder holder) {
+
+		LatencyHistogram histogram = byHolder.get(holder);
+		if (histogram != null) {
+			return histogram;
+		}
+
+		if (byHolder.size() >= MAX_HOLDERS) {
+			holder = new Holder(OTHER, OTHER);
+		}
+
+		return byHolder.computeIfAbsent(holder, it -> new LatencyHistogram());
+	}
+
+	private static class Holder {
+
+		final String request;
+		final String method;
+
+		Holder(String request, String method) {
+			this.request = request;
+			this.method = method;
+		}
+
+		Map<String, Object> toMap() {
+
+			Map<String, Object> map = new LinkedHashMap<>();
+			map.put("request", request);
+			map.put("method", method);
+			return map;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+
+			if (this == o) {
+				return true;
+			}
+
+			if (!(o instanceof Holder)) {
+				return false;
+			}
+
+			Holder that = (Holder) o;
+			return request.equals(that.request) && method.equals(that.method);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(request, method);
+		}
+	}
+
+	private static class Lease {
+
+		final Holder holder;
+		final long nanos;
+		final Instant releasedAt;
+
+		Lease(Holder holder, long nanos, Instant releasedAt) {
+			this.holder = holder;
+			this.nanos = nanos;
+			this.releasedAt = releasedAt;
+		}
+	}
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rxtx.support;
+
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Bookkeeping to deduplicate requests carrying the same {@code Idempotency-Key} within this instance: executions in
+ * flight per key, results of completed executions kept for {@code ttl} and metrics. How an execution runs and how a
+ * duplicate request attaches to an execution in flight is up to the caller.
+ * <p>
+ * The work is expected to record the key in its own transaction and to check it first. This keeps retries idempotent
+ * across restarts and instances, the in-memory state only avoids database round trips and duplicate executions.
+ *
+ * @param <R> result type.
+ * @param <E> execution type.
+ */
+public final class IdempotencyKeys<R, E> {
+
+	public static final int MAX_KEY_LENGTH = 255;
+
+	private final Duration ttl;
+	private final int maxSize;
+
+	private final Map<String, Completed<R>> completed = new LinkedHashMap<>();
+	private final ConcurrentMap<String, E> inFlight = new ConcurrentHashMap<>();
+
+	private final AtomicLong executed = new AtomicLong();
+	private final AtomicLong attached = new AtomicLong();
+	private final AtomicLong replayed = new AtomicLong();
+
+	/**
+	 * @param ttl time to keep results of completed executions.
+	 * @param maxSize maximum number of results to keep, the oldest are evicted first.
+	 */
+	public IdempotencyKeys(Duration ttl, int maxSize) {
+		this.ttl = ttl;
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * Reject keys that are empty or longer than {@link #MAX_KEY_LENGTH}.
+	 *
+	 * @throws IllegalArgumentException if {@code key} is invalid.
+	 */
+	public static void validate(String key) {
+
+		if (key.isEmpty() || key.length() > MAX_KEY_LENGTH) {
+			throw new IllegalArgumentException(
+					String.format("Idempotency-Key must have 1 to %d characters", MAX_KEY_LENGTH));
+		}
+	}
+
+	/**
+	 * Look up the result of a completed execution, counted as replay.
+	 *
+	 * @return the result or {@literal null} if there is none or it expired.
+	 */
+	public R getCompleted(String key) {
+
+		Completed<R> entry;
+		synchronized (completed) {
+			evictExpired();
+			entry = completed.get(key);
+		}
+
+		if (entry == null) {
+			return null;
+		}
+
+		replayed.incrementAndGet();
+		return entry.result;
+	}
+
+	/**
+	 * Register the execution created by {@code execution} for {@code key} unless one is in flight already. Every
+	 * execution must be {@link #finished(String) finished} once it terminated.
+	 *
+	 * @return the execution in flight, identical to the created one if the caller is expected to run it.
+	 */
+	public E join(String key, Supplier<E> execution) {
+
+		AtomicBoolean created = new AtomicBoolean();
+		E joined = inFlight.computeIfAbsent(key, it -> {
+			created.set(true);
+			return execution.get();
+		});
+
+		(created.get() ? executed : attached).incrementAndGet();
+		return joined;
+	}
+
+	/**
+	 * Keep the final {@code result} of an execution for {@code key}.
+	 */
+	public void complete(String key, R result) {
+
+		synchronized (completed) {
+
+			completed.remove(key);
+			completed.put(key, new Completed<>(result, System.nanoTime() + ttl.toNanos()));
+
+			if (completed.size() > maxSize) {
+				Iterator<?> eldest = completed.values().iterator();
+				eldest.next();
+				eldest.remove();
+			}
+		}
+	}
+
+	/**
+	 * Remove the execution in flight for {@code key} so the next request either replays its result or starts a new
+	 * execution.
+	 */
+	public void finished(String key) {
+		inFlight.remove(key);
+	}
+
+	public Map<String, Object> getMetrics() {
+
+		int cached;
+		synchronized (completed) {
+			evictExpired();
+			cached = completed.size();
+		}
+
+		Map<String, Object> metrics = new LinkedHashMap<>();
+		metrics.put("cached", cached);
+		metrics.put("inFlight", inFlight.size());
+		metrics.put("executed", executed.get());
+		metrics.put("attached", attached.get());
+		metrics.put("replayed", replayed.get());
+		return metrics;
+	}
+
+	/**
+	 * Entries are ordered by insertion and share the same TTL, so expired entries are at the head.
+	 */
+	private void evictExpired() {
+
+		long now = System.nanoTime();
+		Iterator<Completed<R>> iterator = completed.values().iterator();
+
+		while (iterator.hasNext() && iterator.next().expiresAt - now <= 0) {
+			iterator.remove();
+		}
+	}
+
+	private static class Completed<R> {
+
+		final R result;
+		final long expiresAt;
+
+		Completed(R result, long expiresAt) {
+			this.result = result;
+			this.expiresAt = expiresAt;
+		}
+	}
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rxtx.support;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free latency sketch using logarithmic buckets with a relative error of about 5%. Values are recorded in
+ * microseconds so that a fixed number of buckets covers everything from sub-millisecond statements up to hours.
+ */
+public final class LatencyHistogram {
+
+	private static final double GROWTH = 1.05;
+	private static final double LOG_GROWTH = Math.log(GROWTH);
+	private static final int BUCKETS = 512;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+	/**
+	 * Record a single latency.
+	 *
+	 * @param nanos the latency in nanoseconds.
+	 */
+	public void record(long nanos) {
+		counts.incrementAndGet(indexOf(nanos / 1000));
+	}
+
+	/**
+	 * @return the number of recorded values.
+	 */
+	public long getCount() {
+
+		long count = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			count += counts.get(i);
+		}
+
+		return count;
+	}
+
+	/**
+	 * Estimate the latency at the given {@code percentile}.
+	 *
+	 * @param percentile the percentile between {@code 0} and {@code 100}, e.g. {@code 99}.
+	 * @return the upper bound of the bucket containing the percentile or {@link Duration#ZERO} if no values were
+	 *         recorded.
+	 */
+	public Duration getPercentile(double percentile) {
+
+		long count = getCount();
+		if (count == 0) {
+			return Duration.ZERO;
+		}
+
+		long rank = (long) Math.ceil(count * (percentile / 100d));
+		long seen = 0;
+
+		for (int i = 0; i < BUCKETS; i++) {
+
+			seen += counts.get(i);
+			if (seen >= Math.max(rank, 1)) {
+				return Duration.ofNanos(upperBoundOf(i) * 1000);
+			}
+		}
+
+		return Duration.ofNanos(upperBoundOf(BUCKETS - 1) * 1000);
+	}
+
+	/**
+	 * Discard all recorded values.
+	 */
+	public void reset() {
+		for (int i = 0; i < BUCKETS; i++) {
+			counts.set(i, 0);
+		}
+	}
+
+	private static int indexOf(long micros) {
+
+		if (micros < 1) {
+			return 0;
+		}
+
+		return Math.min(BUCKETS - 1, 1 + (int) (Math.log(micros) / LOG_GROWTH));
+	}
+
+	private static long upperBoundOf(int index) {
+		return index == 0 ? 1 : (long) Math.ceil(Math.pow(GROWTH, index));
+	}
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rxtx.support;
+
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Records statements into {@link UnitOfWork units of work} and flags statement shapes executed more often than a
+ * threshold within a single unit, which typically indicates an N+1 query. A warning is logged as soon as a shape
+ * crosses the threshold, flagged units are kept once {@link #complete(UnitOfWork) completed}.
+ */
+public final class NPlusOneDetector {
+
+	private static final Logger logger = LoggerFactory.getLogger(NPlusOneDetector.class);
+
+	private final int threshold;
+	private final int retained;
+	private final AtomicLong completed = new AtomicLong();
+	private final AtomicLong flagged = new AtomicLong();
+	private final Deque<UnitOfWork> recentlyFlagged = new ConcurrentLinkedDeque<>();
+
+	/**
+	 * @param threshold number of executions per statement shape and unit of work that are still fine.
+	 * @param retained number of most recently flagged units of work to keep.
+	 */
+	public NPlusOneDetector(int threshold, int retained) {
+		this.threshold = threshold;
+		this.retained = retained;
+	}
+
+	public int getThreshold() {
+		return this.threshold;
+	}
+
+	/**
+	 * Record execution of {@code sql} within {@code unitOfWork}.
+	 */
+	public void record(UnitOfWork unitOfWork, String sql) {
+
+		if (unitOfWork.record(sql) == threshold + 1) {
+			logger.warn(String.format("Possible N+1: statement executed more than %d times in %s: %s", threshold,
+					unitOfWork.getName(), SqlShapes.normalize(sql)));
+		}
+	}
+
+	/**
+	 * Complete {@code unitOfWork} and keep it if it executed a statement shape more than {@link #getThreshold()} times.
+	 *
+	 * @return {@literal true} if {@code unitOfWork} was flagged.
+	 */
+	public boolean complete(UnitOfWork unitOfWork) {
+
+		completed.incrementAndGet();
+
+		if (unitOfWork.getRepeatedShapes(threshold).isEmpty()) {
+			return false;
+		}
+
+		flagged.incrementAndGet();
+		recentlyFlagged.addLast(unitOfWork);
+		while (recentlyFlagged.size() > retained) {
+			recentlyFlagged.pollFirst();
+		}
+
+		return true;
+	}
+
+	/**
+	 * @return the most recently flagged units of work, oldest first.
+	 */
+	public List<UnitOfWork> getFlagged() {
+		return new ArrayList<>(recentlyFlagged);
+	}
+
+	/**
+	 * @return completed and flagged units of work and the repeated shapes of the most recently flagged ones.
+	 */
+	public Map<String, Object> getMetrics() {
+
+		List<Map<String, Object>> recent = new ArrayList<>();
+		for (UnitOfWork unitOfWork : recentlyFlagged) {
+
+			Map<String, Object> unit = new LinkedHashMap<>();
+			unit.put("name", unitOfWork.getName());
+			unit.put("statements", unitOfWork.getStatementCount());
+			unit.put("repeated", unitOfWork.getRepeatedShapes(threshold));
+			recent.add(unit);
+		}
+
+		Map<String, Object> metrics = new LinkedHashMap<>();
+		metrics.put("threshold", threshold);
+		metrics.put("completed", completed.get());
+		metrics.put("flagged", flagged.get());
+		metrics.put("recentlyFlagged", recent);
+		return metrics;
+	}
+
+	/**
+	 * Discard counters and flagged units of work.
+	 */
+	public void reset() {
+		completed.set(0);
+		flagged.set(0);
+		recentlyFlagged.clear();
+	}
+}
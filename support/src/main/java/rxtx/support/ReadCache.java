@@ -0,0 +1,195 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rxtx.support;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bounded LRU cache for read results that are invalidated as a whole through {@link #invalidate()}, typically after a
+ * transaction that changed the underlying table commits. Invalidation does not evict entries but bumps a generation so
+ * entries loaded before become stale. Stale entries are either reloaded or, with {@code staleWhileRefresh}, served
+ * while a refresh runs in the background. At most one refresh per entry runs at a time, a refresh that fails or is
+ * canceled must be reported through {@link #refreshAborted(Object, Throwable)} so the next stale hit retries it.
+ *
+ * @param <K> key type.
+ * @param <V> value type.
+ */
+public final class ReadCache<K, V> {
+
+	private static final Logger logger = LoggerFactory.getLogger(ReadCache.class);
+
+	private final int maxSize;
+	private final boolean staleWhileRefresh;
+	private final Map<K, Entry<V>> entries;
+
+	private final AtomicLong generation = new AtomicLong();
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong staleHits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong invalidations = new AtomicLong();
+	private final AtomicLong maxStaleAge = new AtomicLong();
+	private final AtomicLong refreshFailures = new AtomicLong();
+
+	public ReadCache(int maxSize, boolean staleWhileRefresh) {
+
+		this.maxSize = maxSize;
+		this.staleWhileRefresh = staleWhileRefresh;
+		this.entries = new LinkedHashMap<K, Entry<V>>(16, 0.75f, true) {
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+				return size() > ReadCache.this.maxSize;
+			}
+		};
+	}
+
+	/**
+	 * Look up a value. A stale value is returned only if {@code staleWhileRefresh} is enabled, in which case
+	 * {@code refresh} is invoked once to reload it. {@code refresh} is expected to start the reload in the background
+	 * and {@link #put(Object, Object, long)} its result.
+	 *
+	 * @return the value to serve or {@literal null} if the value must be loaded.
+	 */
+	public V get(K key, Runnable refresh) {
+
+		Entry<V> entry;
+		synchronized (entries) {
+			entry = entries.get(key);
+		}
+
+		if (entry == null) {
+			misses.incrementAndGet();
+			return null;
+		}
+
+		if (entry.generation == generation.get()) {
+			hits.incrementAndGet();
+			return entry.value;
+		}
+
+		if (!staleWhileRefresh) {
+			misses.incrementAndGet();
+			return null;
+		}
+
+		staleHits.incrementAndGet();
+		maxStaleAge.accumulateAndGet(System.currentTimeMillis() - entry.loadedAt, Math::max);
+
+		if (entry.refreshing.compareAndSet(false, true)) {
+
+			try {
+				refresh.run();
+			} catch (RuntimeException e) {
+				refreshAborted(key, e);
+			}
+		}
+
+		return entry.value;
+	}
+
+	/**
+	 * Allow the next stale hit for {@code key} to refresh it again after a refresh ended without a
+	 * {@link #put(Object, Object, long)}.
+	 *
+	 * @param error the failure, or {@literal null} if the refresh was canceled.
+	 */
+	public void refreshAborted(K key, Throwable error) {
+
+		if (error != null) {
+			refreshFailures.incrementAndGet();
+			logger.warn("Refresh of {} failed, serving the stale value until the next attempt", key, error);
+		}
+
+		Entry<V> entry;
+		synchronized (entries) {
+			entry = entries.get(key);
+		}
+
+		if (entry != null) {
+			entry.refreshing.set(false);
+		}
+	}
+
+	/**
+	 * @return the current generation, to be captured before loading a value and passed on to
+	 *         {@link #put(Object, Object, long)}.
+	 */
+	public long generation() {
+		return generation.get();
+	}
+
+	/**
+	 * Cache {@code value} loaded at {@code generation}. Values loaded before the latest invalidation are stored as
+	 * stale.
+	 */
+	public void put(K key, V value, long generation) {
+
+		synchronized (entries) {
+			entries.put(key, new Entry<>(value, generation));
+		}
+	}
+
+	/**
+	 * Mark all cached values as stale.
+	 */
+	public void invalidate() {
+		generation.incrementAndGet();
+		invalidations.incrementAndGet();
+	}
+
+	public Map<String, Object> getMetrics() {
+
+		long served = hits.get() + staleHits.get();
+		long total = served + misses.get();
+
+		int size;
+		synchronized (entries) {
+			size = entries.size();
+		}
+
+		Map<String, Object> metrics = new LinkedHashMap<>();
+		metrics.put("size", size);
+		metrics.put("maxSize", maxSize);
+		metrics.put("hits", hits.get());
+		metrics.put("staleHits", staleHits.get());
+		metrics.put("misses", misses.get());
+		metrics.put("hitRatio", total == 0 ? 0d : (double) served / total);
+		metrics.put("invalidations", invalidations.get());
+		metrics.put("maxStaleAgeMillis", maxStaleAge.get());
+		metrics.put("refreshFailures", refreshFailures.get());
+		metrics.put("staleWhileRefresh", staleWhileRefresh);
+		return metrics;
+	}
+
+	private static class Entry<V> {
+
+		final V value;
+		final long generation;
+		final long loadedAt = System.currentTimeMillis();
+		final AtomicBoolean refreshing = new AtomicBoolean();
+
+		Entry(V value, long generation) {
+			this.value = value;
+			this.generation = generation;
+		}
+	}
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rxtx.support;
+
+import java.util.regex.Pattern;
+
+/**
+ * Utility to normalize SQL into its shape so that statements that differ only in literals, bind markers or the length
+ * of {@code IN} and {@code VALUES} lists are counted as the same statement.
+ */
+public final class SqlShapes {
+
+	private static final Pattern STRING_LITERAL = Pattern.compile("'(?:[^']|'')*'");
+	private static final Pattern NUMERIC_LITERAL = Pattern.compile("(?<![\\w$.])-?\\d+(?:\\.\\d+)?\\b");
+	private static final Pattern BIND_MARKER = Pattern.compile("\\$\\d+|(?<!:):[A-Za-z_]\\w*");
+	private static final Pattern LIST = Pattern.compile("\\(\\s*\\?(?:\\s*,\\s*\\?)*\\s*\\)");
+	private static final Pattern ROWS = Pattern.compile("\\(\\?\\)(?:\\s*,\\s*\\(\\?\\))+");
+	private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+	private SqlShapes() {}
+
+	/**
+	 * Normalize {@code sql} into its shape.
+	 *
+	 * @param sql the SQL statement.
+	 * @return the normalized shape.
+	 */
+	public static String normalize(String sql) {
+
+		String shape = STRING_LITERAL.matcher(sql).replaceAll("?");
+		shape = NUMERIC_LITERAL.matcher(shape).replaceAll("?");
+		shape = BIND_MARKER.matcher(shape).replaceAll("?");
+		shape = LIST.matcher(shape).replaceAll("(?)");
+		shape = ROWS.matcher(shape).replaceAll("(?)");
+		shape = WHITESPACE.matcher(shape).replaceAll(" ").trim();
+
+		if (shape.endsWith(";")) {
+			shape = shape.substring(0, shape.length() - 1).trim();
+		}
+
+		return shape;
+	}
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rxtx.support;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * Statements executed within a single unit of work (a transaction, a request or an explicitly scoped publisher)
+ * grouped by their shape.
+ *
+ * @see NPlusOneDetector
+ * @see SqlShapes
+ */
+public final class UnitOfWork {
+
+	private final String name;
+	private final Map<String, AtomicInteger> shapes = new ConcurrentHashMap<>();
+
+	public UnitOfWork(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Record execution of {@code sql}.
+	 *
+	 * @return the number of executions of the statement shape within this unit of work.
+	 */
+	int record(String sql) {
+		return shapes.computeIfAbsent(SqlShapes.normalize(sql), it -> new AtomicInteger()).incrementAndGet();
+	}
+
+	public String getName() {
+		return this.name;
+	}
+
+	/**
+	 * @return the total number of executed statements.
+	 */
+	public int getStatementCount() {
+		return shapes.values().stream().mapToInt(AtomicInteger::get).sum();
+	}
+
+	/**
+	 * @param sql the SQL statement, literals and bind markers are normalized.
+	 * @return the number of executions of the statement shape.
+	 */
+	public int getCount(String sql) {
+
+		AtomicInteger count = shapes.get(SqlShapes.normalize(sql));
+		return count == null ? 0 : count.get();
+	}
+
+	/**
+	 * @return shapes that were executed more than {@code threshold} times.
+	 */
+	public Map<String, Integer> getRepeatedShapes(int threshold) {
+
+		return shapes.entrySet().stream().filter(it -> it.getValue().get() > threshold)
+				.collect(Collectors.toMap(Map.Entry::getKey, it -> it.getValue().get(), (a, b) -> a, LinkedHashMap::new));
+	}
+
+	/**
+	 * Assert that at most {@code max} statements were executed.
+	 *
+	 * @throws AssertionError if more statements were executed.
+	 */
+	public void assertMaxStatements(int max) {
+
+		int count = getStatementCount();
+		if (count > max) {
+			throw new AssertionError(String.format("Expected at most %d statements in %s but %d were executed: %s", max,
+					name, count, shapes));
+		}
+	}
+
+	/**
+	 * Assert that no statement shape was executed more than {@code max} times, which typically indicates an N+1 query.
+	 *
+	 * @throws AssertionError if a statement shape was executed more often.
+	 */
+	public void assertMaxExecutionsPerShape(int max) {
+
+		Map<String, Integer> repeated = getRepeatedShapes(max);
+		if (!repeated.isEmpty()) {
+			throw new AssertionError(
+					String.format("Expected at most %d executions per statement in %s but found %s", max, name, repeated));
+		}
+	}
+
+	@Override
+	public String toString() {
+		return name + " " + shapes;
+	}
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rxtx.support;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for {@link ConnectionHoldTimes}.
+ */
+final class ConnectionHoldTimesTests {
+
+	ConnectionHoldTimes holdTimes = new ConnectionHoldTimes(3);
+
+	@Test
+	void keepsLongestLeasesLongestFirst() {
+
+		holdTimes.record("GET /", "find", millis(1));
+		holdTimes.record("POST /", "save", millis(5));
+		holdTimes.record("GET /", "find", millis(2));
+		holdTimes.record("POST /events", "ingest", millis(50));
+		holdTimes.record(null, null, millis(10));
+
+		// the two shortest leases were evicted
+		assertThat(longest()).extracting(it -> it.get("holdMicros")).containsExactly(50_000L, 10_000L, 5_000L);
+		assertThat(longest()).extracting(it -> it.get("request")).containsExactly("POST /events",
+				ConnectionHoldTimes.UNKNOWN, "POST /");
+
+		assertThat(holders()).extracting(it -> it.get("method")).containsExactly("ingest", ConnectionHoldTimes.UNKNOWN,
+				"save", "find");
+		assertThat(holdTimes.getSummary()).containsEntry("released", 5L);
+	}
+
+	@Test
+	void countsHoldersBeyondLimitAsOther() {
+
+		for (int i = 0; i < ConnectionHoldTimes.MAX_HOLDERS; i++) {
+			holdTimes.record("GET /" + i, "find", millis(1));
+		}
+
+		holdTimes.record("GET /overflow", "find", millis(1));
+		holdTimes.record("POST /overflow", "save", millis(1));
+		holdTimes.record("GET /0", "find", millis(1));
+
+		assertThat(holders()).hasSize(ConnectionHoldTimes.MAX_HOLDERS + 1);
+		assertThat(holder(ConnectionHoldTimes.OTHER)).containsEntry("method", ConnectionHoldTimes.OTHER)
+				.containsEntry("leases", 2L);
+
+		// holders recorded before the limit was reached are still counted on their own
+		assertThat(holder("GET /0")).containsEntry("leases", 2L);
+	}
+
+	@SuppressWarnings("unchecked")
+	private List<Map<String, Object>> longest() {
+		return (List<Map<String, Object>>) holdTimes.getMetrics().get("longest");
+	}
+
+	@SuppressWarnings("unchecked")
+	private List<Map<String, Object>> holders() {
+		return (List<Map<String, Object>>) holdTimes.getMetrics().get("holders");
+	}
+
+	private Map<String, Object> holder(String request) {
+
+		List<Map<String, Object>> holders = holders().stream().filter(it -> it.get("request").equals(request))
+				.collect(Collectors.toList());
+
+		assertThat(holders).hasSize(1);
+		return holders.get(0);
+	}
+
+	private static long millis(long millis) {
+		return TimeUnit.MILLISECONDS.toNanos(millis);
+	}
+}
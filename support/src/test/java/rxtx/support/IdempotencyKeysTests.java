@@ -0,0 +1,106 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rxtx.support;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.time.Duration;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for {@link IdempotencyKeys}.
+ */
+final class IdempotencyKeysTests {
+
+	@Test
+	void replaysCompletedResults() {
+
+		IdempotencyKeys<String, Object> keys = new IdempotencyKeys<>(Duration.ofHours(1), 10);
+
+		assertThat(keys.getCompleted("a")).isNull();
+
+		keys.complete("a", "result");
+
+		assertThat(keys.getCompleted("a")).isEqualTo("result");
+		assertThat(keys.getMetrics()).containsEntry("cached", 1).containsEntry("replayed", 1L);
+	}
+
+	@Test
+	void attachesToExecutionInFlight() {
+
+		IdempotencyKeys<String, Object> keys = new IdempotencyKeys<>(Duration.ofHours(1), 10);
+		Object first = new Object();
+
+		assertThat(keys.join("a", () -> first)).isSameAs(first);
+		assertThat(keys.join("a", Object::new)).isSameAs(first);
+		assertThat(keys.getMetrics()).containsEntry("inFlight", 1).containsEntry("executed", 1L)
+				.containsEntry("attached", 1L);
+
+		keys.finished("a");
+
+		assertThat(keys.join("a", Object::new)).isNotSameAs(first);
+		assertThat(keys.getMetrics()).containsEntry("executed", 2L);
+	}
+
+	@Test
+	void evictsExpiredResults() throws InterruptedException {
+
+		IdempotencyKeys<String, Object> keys = new IdempotencyKeys<>(Duration.ofMillis(50), 10);
+
+		keys.complete("a", "result");
+		assertThat(keys.getCompleted("a")).isEqualTo("result");
+
+		Thread.sleep(100);
+
+		assertThat(keys.getCompleted("a")).isNull();
+		assertThat(keys.getMetrics()).containsEntry("cached", 0);
+	}
+
+	@Test
+	void evictsOldestResultsBeyondMaxSize() {
+
+		IdempotencyKeys<String, Object> keys = new IdempotencyKeys<>(Duration.ofHours(1), 2);
+
+		keys.complete("a", "1");
+		keys.complete("b", "2");
+		keys.complete("c", "3");
+
+		assertThat(keys.getCompleted("a")).isNull();
+		assertThat(keys.getCompleted("b")).isEqualTo("2");
+		assertThat(keys.getCompleted("c")).isEqualTo("3");
+	}
+
+	@Test
+	void rejectsEmptyAndOverlongKeys() {
+
+		IdempotencyKeys.validate("a");
+		IdempotencyKeys.validate(repeat('a', IdempotencyKeys.MAX_KEY_LENGTH));
+
+		assertThatIllegalArgumentException().isThrownBy(() -> IdempotencyKeys.validate(""));
+		assertThatIllegalArgumentException()
+				.isThrownBy(() -> IdempotencyKeys.validate(repeat('a', IdempotencyKeys.MAX_KEY_LENGTH + 1)));
+	}
+
+	private static String repeat(char c, int times) {
+
+		StringBuilder builder = new StringBuilder(times);
+		for (int i = 0; i < times; i++) {
+			builder.append(c);
+		}
+		return builder.toString();
+	}
+}
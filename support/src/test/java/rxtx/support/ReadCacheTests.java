@@ -0,0 +1,90 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rxtx.support;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for {@link ReadCache}.
+ */
+final class ReadCacheTests {
+
+	ReadCache<String, String> cache = new ReadCache<>(10, true);
+	AtomicInteger refreshes = new AtomicInteger();
+
+	@BeforeEach
+	void setUp() {
+
+		cache.put("page", "stale", cache.generation());
+		cache.invalidate();
+	}
+
+	@Test
+	void refreshesStaleValueOnce() {
+
+		assertThat(cache.get("page", refreshes::incrementAndGet)).isEqualTo("stale");
+		assertThat(cache.get("page", refreshes::incrementAndGet)).isEqualTo("stale");
+
+		assertThat(refreshes).hasValue(1);
+	}
+
+	@Test
+	void retriesRefreshThatFailedInBackground() {
+
+		// the loader fails once, e.g. the database is briefly unavailable, and then succeeds
+		Runnable failing = () -> {
+			refreshes.incrementAndGet();
+			cache.refreshAborted("page", new IllegalStateException("Connection refused"));
+		};
+		Runnable succeeding = () -> {
+			refreshes.incrementAndGet();
+			cache.put("page", "fresh", cache.generation());
+		};
+
+		assertThat(cache.get("page", failing)).isEqualTo("stale");
+		assertThat(cache.get("page", succeeding)).isEqualTo("stale");
+		assertThat(cache.get("page", succeeding)).isEqualTo("fresh");
+
+		assertThat(refreshes).hasValue(2);
+		assertThat(cache.getMetrics()).containsEntry("refreshFailures", 1L).containsEntry("hits", 1L);
+	}
+
+	@Test
+	void retriesRefreshThatFailedToStart() {
+
+		assertThat(cache.get("page", () -> {
+			throw new IllegalStateException("Executor rejected refresh");
+		})).isEqualTo("stale");
+
+		assertThat(cache.get("page", refreshes::incrementAndGet)).isEqualTo("stale");
+		assertThat(refreshes).hasValue(1);
+	}
+
+	@Test
+	void retriesCanceledRefresh() {
+
+		assertThat(cache.get("page", () -> cache.refreshAborted("page", null))).isEqualTo("stale");
+
+		assertThat(cache.get("page", refreshes::incrementAndGet)).isEqualTo("stale");
+		assertThat(refreshes).hasValue(1);
+		assertThat(cache.getMetrics()).containsEntry("refreshFailures", 0L);
+	}
+}
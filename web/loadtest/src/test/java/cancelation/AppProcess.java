@@ -0,0 +1,166 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cancelation;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Application started in a forked JVM on a free port. The servlet and WebFlux applications share the package
+ * {@code cancelation} and class names, so they cannot run side by side in the JVM of the load generator. Running each
+ * in its own JVM also keeps their thread and heap metrics free of load generator overhead.
+ * <p>
+ * The classpath is read from {@code target/classpath.txt} of the application module, written during
+ * {@code process-classes}.
+ */
+final class AppProcess implements AutoCloseable {
+
+	private final String name;
+	private final Process process;
+	private final int port;
+	private final Path log;
+
+	private AppProcess(String name, Process process, int port, Path log) {
+		this.name = name;
+		this.process = process;
+		this.port = port;
+		this.log = log;
+	}
+
+	/**
+	 * @return {@literal true} if {@code module} has been built including its classpath file.
+	 */
+	static boolean isBuilt(Path module) {
+		return Files.isDirectory(module.resolve("target/classes")) && Files.isRegularFile(classpathFile(module));
+	}
+
+	/**
+	 * Start {@code mainClass} of {@code module} and wait until it serves requests.
+	 *
+	 * @param jvmArgs arguments for the forked JVM, e.g. heap size.
+	 * @param args application arguments, {@code --server.port} is added.
+	 */
+	static AppProcess start(String name, Path module, String mainClass, List<String> jvmArgs, List<String> args,
+			Path logDirectory, Duration startupTimeout) throws IOException, InterruptedException {
+
+		String classpath = module.resolve("target/classes") + File.pathSeparator
+				+ new String(Files.readAllBytes(classpathFile(module)), StandardCharsets.UTF_8).trim();
+		int port = freePort();
+
+		List<String> command = new ArrayList<>();
+		command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+		command.addAll(jvmArgs);
+		command.add("-cp");
+		command.add(classpath);
+		command.add(mainClass);
+		command.add("--server.port=" + port);
+		command.addAll(args);
+
+		Files.createDirectories(logDirectory);
+		Path log = logDirectory.resolve(name + ".log");
+
+		Process process = new ProcessBuilder(command).redirectErrorStream(true).redirectOutput(log.toFile()).start();
+		AppProcess app = new AppProcess(name, process, port, log);
+
+		try {
+			app.awaitStartup(startupTimeout);
+		} catch (IOException | InterruptedException | RuntimeException e) {
+			app.close();
+			throw e;
+		}
+
+		return app;
+	}
+
+	String getName() {
+		return name;
+	}
+
+	String getBaseUrl() {
+		return "http://localhost:" + port;
+	}
+
+	private void awaitStartup(Duration timeout) throws IOException, InterruptedException {
+
+		long deadline = System.nanoTime() + timeout.toNanos();
+
+		while (System.nanoTime() < deadline) {
+
+			if (!process.isAlive()) {
+				throw new IllegalStateException(
+						String.format("%s exited with %d during startup, see %s", name, process.exitValue(), log));
+			}
+
+			if (isUp()) {
+				return;
+			}
+
+			TimeUnit.MILLISECONDS.sleep(200);
+		}
+
+		throw new IllegalStateException(String.format("%s did not start within %s, see %s", name, timeout, log));
+	}
+
+	private boolean isUp() {
+
+		try {
+
+			HttpURLConnection connection = (HttpURLConnection) new URL(getBaseUrl() + "/metrics/threads")
+					.openConnection();
+			connection.setConnectTimeout(1000);
+			connection.setReadTimeout(1000);
+
+			try {
+				return connection.getResponseCode() == 200;
+			} finally {
+				connection.disconnect();
+			}
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	@Override
+	public void close() throws InterruptedException {
+
+		process.destroy();
+
+		if (!process.waitFor(10, TimeUnit.SECONDS)) {
+			process.destroyForcibly().waitFor();
+		}
+	}
+
+	private static Path classpathFile(Path module) {
+		return module.resolve("target/classpath.txt");
+	}
+
+	private static int freePort() throws IOException {
+
+		try (ServerSocket socket = new ServerSocket(0)) {
+			return socket.getLocalPort();
+		}
+	}
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cancelation;
+
+import static org.junit.jupiter.api.Assumptions.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+
+import org.springframework.http.HttpMethod;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+/**
+ * Drives the servlet and the WebFlux application with the same fixed arrival rates against {@code POST /} and
+ * {@code GET /} and compares throughput, latency percentiles, threads, heap and connection pool wait and hold times.
+ * Each application runs in a forked JVM on a random port with its embedded H2 database, see {@link AppProcess}. Rounds
+ * of {@code POST /} are not delayed unless configured, so the comparison measures transactions rather than sleeping.
+ * <p>
+ * {@code servlet-virtual} runs the servlet application on virtual threads, to be compared against {@code servlet} on
+ * platform threads. It requires running the benchmark on JDK 21+ and is most telling with delayed rounds that keep
+ * many requests blocked at a time, e.g. {@code -Dloadtest.apps=servlet,servlet-virtual -Dloadtest.round-delay=1s}.
+ * <p>
+ * Not part of the regular build. Build the applications first, then run:
+ *
+ * <pre class="code">
+ * mvn -pl web/servlet,web/webflux process-classes
+ * mvn -pl web/loadtest test -Dtest=LoadComparisonBenchmark
+ * </pre>
+ *
+ * Tune with:
+ * <ul>
+ * <li>{@code loadtest.apps}: comma-separated applications, {@code servlet}, {@code servlet-virtual} and
+ * {@code webflux}.</li>
+ * <li>{@code loadtest.rates}: comma-separated arrival rates in requests per second.</li>
+ * <li>{@code loadtest.duration}: seconds per run, preceded by a warm-up run of {@code loadtest.warmup}.</li>
+ * <li>{@code loadtest.round-delay}: delay between rounds of {@code POST /}.</li>
+ * <li>{@code loadtest.jvm-args}, {@code loadtest.app-args}: space-separated arguments for the forked JVMs.</li>
+ * <li>{@code loadtest.report}: path of the JSON report.</li>
+ * </ul>
+ */
+final class LoadComparisonBenchmark {
+
+	private static final String SERVLET_VIRTUAL = "servlet-virtual";
+
+	private final List<String> apps = list(System.getProperty("loadtest.apps", "servlet,webflux"), ",");
+	private final List<Integer> rates = list(System.getProperty("loadtest.rates", "10,50,100"), ",").stream()
+			.map(Integer::valueOf).collect(Collectors.toList());
+	private final Duration duration = Duration.ofSeconds(Long.getLong("loadtest.duration", 10));
+	private final Duration warmup = Duration.ofSeconds(Long.getLong("loadtest.warmup", 5));
+	private final String roundDelay = System.getProperty("loadtest.round-delay", "0s");
+	private final List<String> jvmArgs = list(System.getProperty("loadtest.jvm-args", "-Xmx512m"), " ");
+	private final List<String> appArgs = list(System.getProperty("loadtest.app-args", ""), " ");
+	private final Path report = Paths.get(System.getProperty("loadtest.report", "target/loadtest/report.json"));
+
+	@Test
+	void compareServletWithWebflux() throws Exception {
+
+		Map<String, String> mainClasses = new LinkedHashMap<>();
+		mainClasses.put("servlet", "cancelation.ServletApplication");
+		mainClasses.put("webflux", "cancelation.WebfluxApplication");
+
+		for (String app : apps) {
+			assumeTrue(AppProcess.isBuilt(module(app)), () -> String.format(
+					"Build %s first: mvn -pl web/%s process-classes", moduleName(app), moduleName(app)));
+		}
+
+		// the application would fall back to platform threads and compare platform threads with themselves
+		assumeTrue(!apps.contains(SERVLET_VIRTUAL) || isVirtualThreadsSupported(),
+				() -> String.format("%s requires JDK 21+, running on %s", SERVLET_VIRTUAL,
+						System.getProperty("java.version")));
+
+		LoadGenerator generator = new LoadGenerator(Duration.ofSeconds(60), Duration.ofMillis(500));
+		List<Map<String, Object>> runs = new ArrayList<>();
+
+		List<String> args = new ArrayList<>(appArgs);
+		args.add("--events.round-delay=" + roundDelay);
+
+		for (String app : apps) {
+
+			List<String> processArgs = new ArrayList<>(args);
+			if (app.equals(SERVLET_VIRTUAL)) {
+				processArgs.add("--events.virtual-threads=true");
+			}
+
+			try (AppProcess process = AppProcess.start(app, module(app), mainClasses.get(moduleName(app)), jvmArgs,
+					processArgs, report.getParent(), Duration.ofSeconds(60))) {
+
+				for (HttpMethod method : Arrays.asList(HttpMethod.POST, HttpMethod.GET)) {
+
+					generator.run(process, method, "/", rates.get(0), warmup);
+
+					for (int rate : rates) {
+
+						Map<String, Object> run = generator.run(process, method, "/", rate, duration);
+						runs.add(run);
+						System.out.println(run);
+					}
+				}
+			}
+		}
+
+		Map<String, Object> result = new LinkedHashMap<>();
+		result.put("durationSeconds", duration.getSeconds());
+		result.put("roundDelay", roundDelay);
+		result.put("jvmArgs", jvmArgs);
+		result.put("appArgs", appArgs);
+		result.put("runs", runs);
+
+		write(result);
+		print(runs);
+	}
+
+	private void write(Map<String, Object> result) throws IOException {
+
+		Files.createDirectories(report.getParent());
+		new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT).writeValue(report.toFile(), result);
+
+		System.out.printf("Report written to %s%n", report.toAbsolutePath());
+	}
+
+	private static void print(List<Map<String, Object>> runs) {
+
+		String format = "%-8s|%-9s|%-6s|%-11s|%-9s|%-9s|%-9s|%-8s|%-10s|%-12s%n";
+		System.out.printf(format, "app", "endpoint", "rate", "throughput", "p50 (ms)", "p99 (ms)", "rejected", "threads",
+				"heap (MB)", "pool p99 (us)");
+
+		for (Map<String, Object> run : runs) {
+			System.out.printf(format, run.get("app"), run.get("endpoint"), run.get("rate"), run.get("throughput"),
+					run.get("latencyP50Millis"), run.get("latencyP99Millis"), run.get("rejected"),
+					run.get("maxPlatformThreads"), ((Number) run.get("maxHeapUsedBytes")).longValue() / (1024 * 1024),
+					run.get("poolWaitP99Micros"));
+		}
+	}
+
+	private static Path module(String app) {
+		return Paths.get(System.getProperty("loadtest." + moduleName(app) + ".home", "../" + moduleName(app)));
+	}
+
+	private static String moduleName(String app) {
+		return app.equals(SERVLET_VIRTUAL) ? "servlet" : app;
+	}
+
+	/**
+	 * The forked JVMs run on the same JDK as the benchmark.
+	 */
+	private static boolean isVirtualThreadsSupported() {
+
+		try {
+			Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return true;
+		} catch (NoSuchMethodException e) {
+			return false;
+		}
+	}
+
+	private static List<String> list(String value, String separator) {
+
+		if (value.trim().isEmpty()) {
+			return Collections.emptyList();
+		}
+
+		return Arrays.stream(value.trim().split(separator)).map(String::trim).collect(Collectors.toList());
+	}
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cancelation;
+
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.web.reactive.function.client.WebClient;
+
+/**
+ * Open-loop load generator sending requests at a fixed arrival rate regardless of how many are still outstanding, so
+ * a saturated application shows up as growing latency and rejections instead of silently lowering the offered load.
+ * Connections are not pooled with a limit for the same reason.
+ */
+final class LoadGenerator {
+
+	private static final ParameterizedTypeReference<Map<String, Object>> METRICS = //
+			new ParameterizedTypeReference<Map<String, Object>>() {};
+
+	private final WebClient client;
+	private final Duration requestTimeout;
+	private final Duration sampleInterval;
+
+	LoadGenerator(Duration requestTimeout, Duration sampleInterval) {
+
+		HttpClient httpClient = HttpClient.create(ConnectionProvider.elastic("loadtest"));
+
+		this.client = WebClient.builder().clientConnector(new ReactorClientHttpConnector(httpClient)).build();
+		this.requestTimeout = requestTimeout;
+		this.sampleInterval = sampleInterval;
+	}
+
+	/**
+	 * Send {@code rate} requests per second for {@code duration} and wait for all responses.
+	 *
+	 * @return throughput, latency percentiles and the thread, heap and connection pool wait and hold metrics of the
+	 *         application.
+	 */
+	Map<String, Object> run(AppProcess app, HttpMethod method, String path, int rate, Duration duration) {
+
+		String baseUrl = app.getBaseUrl();
+		int requests = (int) (rate * duration.getSeconds());
+
+		List<Long> latencies = Collections.synchronizedList(new ArrayList<>(requests));
+		AtomicLong succeeded = new AtomicLong();
+		AtomicLong rejected = new AtomicLong();
+		AtomicLong failed = new AtomicLong();
+
+		reset(baseUrl);
+
+		AtomicLong maxPlatformThreads = new AtomicLong();
+		AtomicLong maxHeapUsed = new AtomicLong();
+		Disposable sampler = Flux.interval(Duration.ZERO, sampleInterval) //
+				.concatMap(it -> metrics(baseUrl + "/metrics/threads").onErrorResume(e -> Mono.empty())) //
+				.subscribe(metrics -> {
+					maxPlatformThreads.accumulateAndGet(toLong(metrics.get("platformThreads")), Math::max);
+					maxHeapUsed.accumulateAndGet(toLong(metrics.get("heapUsedBytes")), Math::max);
+				});
+
+		long start = System.nanoTime();
+
+		try {
+
+			Flux.interval(Duration.ofNanos(1_000_000_000L / rate)) //
+					.take(requests) //
+					.flatMap(it -> request(method, baseUrl + path).doOnNext(result -> {
+
+						latencies.add(result.latencyNanos);
+
+						if (result.status != null && result.status.is2xxSuccessful()) {
+							succeeded.incrementAndGet();
+						} else if (result.status == HttpStatus.SERVICE_UNAVAILABLE) {
+							rejected.incrementAndGet();
+						} else {
+							failed.incrementAndGet();
+						}
+					}), Integer.MAX_VALUE) //
+					.blockLast();
+		} finally {
+			sampler.dispose();
+		}
+
+		double elapsedSeconds = (System.nanoTime() - start) / 1_000_000_000d;
+		Map<String, Object> pool = metrics(baseUrl + "/metrics/pool").block();
+
+		List<Long> sorted = new ArrayList<>(latencies);
+		Collections.sort(sorted);
+
+		Map<String, Object> result = new LinkedHashMap<>();
+		result.put("app", app.getName());
+		result.put("endpoint", method + " " + path);
+		result.put("rate", rate);
+		result.put("durationSeconds", duration.getSeconds());
+		result.put("requests", requests);
+		result.put("succeeded", succeeded.get());
+		result.put("rejected", rejected.get());
+		result.put("failed", failed.get());
+		result.put("throughput", Math.round(succeeded.get() / elapsedSeconds * 10) / 10d);
+		result.put("latencyP50Millis", percentileMillis(sorted, 50));
+		result.put("latencyP90Millis", percentileMillis(sorted, 90));
+		result.put("latencyP99Millis", percentileMillis(sorted, 99));
+		result.put("latencyMaxMillis", percentileMillis(sorted, 100));
+		result.put("maxPlatformThreads", maxPlatformThreads.get());
+		result.put("maxHeapUsedBytes", maxHeapUsed.get());
+		result.put("poolAcquired", pool.get("acquired"));
+		result.put("poolWaitP50Micros", pool.get("acquireP50Micros"));
+		result.put("poolWaitP99Micros", pool.get("acquireP99Micros"));
+		result.put("poolWaitMaxMicros", pool.get("acquireMaxMicros"));
+		result.put("poolHoldP50Micros", pool.get("holdP50Micros"));
+		result.put("poolHoldP99Micros", pool.get("holdP99Micros"));
+		result.put("poolHoldMaxMicros", pool.get("holdMaxMicros"));
+		return result;
+	}
+
+	private Mono<Result> request(HttpMethod method, String url) {
+
+		return Mono.defer(() -> {
+
+			long start = System.nanoTime();
+
+			return client.method(method).uri(url) //
+					.exchange() //
+					.flatMap(response -> response.toBodilessEntity()) //
+					.timeout(requestTimeout) //
+					.map(entity -> new Result(entity.getStatusCode(), System.nanoTime() - start)) //
+					.onErrorResume(e -> Mono.just(new Result(null, System.nanoTime() - start)));
+		});
+	}
+
+	private Mono<Map<String, Object>> metrics(String url) {
+		return client.get().uri(url).retrieve().bodyToMono(METRICS);
+	}
+
+	private void reset(String baseUrl) {
+		client.delete().uri(baseUrl + "/metrics/pool").retrieve().toBodilessEntity().block();
+	}
+
+	private static double percentileMillis(List<Long> sorted, double percentile) {
+
+		if (sorted.isEmpty()) {
+			return 0;
+		}
+
+		int index = (int) Math.ceil(sorted.size() * (percentile / 100d)) - 1;
+		long nanos = sorted.get(Math.max(0, Math.min(index, sorted.size() - 1)));
+		return Math.round(nanos / 100_000d) / 10d;
+	}
+
+	private static long toLong(Object value) {
+		return value instanceof Number ? ((Number) value).longValue() : 0;
+	}
+
+	static class Result {
+
+		final HttpStatus status;
+		final long latencyNanos;
+
+		Result(HttpStatus status, long latencyNanos) {
+			this.status = status;
+			this.latencyNanos = latencyNanos;
+		}
+	}
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cancelation;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Admission control limiting the number of concurrent units of work, typically to the capacity of the connection pool.
+ * Work exceeding the limit blocks the calling thread in a bounded queue for at most {@code maxWait}. Work that finds
+ * the queue full or times out is rejected with {@link RejectedException} instead of piling up behind the pool. A unit
+ * of work is meant to be a single transaction, waiting in between units should not hold a permit.
+ */
+final class AdmissionControl {
+
+	private final int maxConcurrent;
+	private final int maxQueue;
+	private final Duration maxWait;
+	private final Duration retryAfter;
+
+	private final Semaphore permits;
+	private final AtomicInteger waiting = new AtomicInteger();
+
+	private final AtomicLong admitted = new AtomicLong();
+	private final AtomicLong rejected = new AtomicLong();
+	private final AtomicLong queued = new AtomicLong();
+	private final AtomicLong totalQueueTime = new AtomicLong();
+	private final AtomicLong maxQueueTime = new AtomicLong();
+
+	AdmissionControl(int maxConcurrent, int maxQueue, Duration maxWait, Duration retryAfter) {
+		this.maxConcurrent = maxConcurrent;
+		this.maxQueue = maxQueue;
+		this.maxWait = maxWait;
+		this.retryAfter = retryAfter;
+		this.permits = new Semaphore(maxConcurrent, true);
+	}
+
+	/**
+	 * Run {@code work} once admitted.
+	 */
+	void admit(Runnable work) throws InterruptedException {
+
+		acquire();
+
+		try {
+			work.run();
+		} finally {
+			permits.release();
+		}
+	}
+
+	private void acquire() throws InterruptedException {
+
+		if (permits.tryAcquire()) {
+			admitted.incrementAndGet();
+			return;
+		}
+
+		if (waiting.incrementAndGet() > maxQueue) {
+			waiting.decrementAndGet();
+			rejected.incrementAndGet();
+			throw new RejectedException(retryAfter);
+		}
+
+		queued.incrementAndGet();
+		long enqueuedAt = System.nanoTime();
+
+		try {
+
+			if (!permits.tryAcquire(maxWait.toNanos(), TimeUnit.NANOSECONDS)) {
+				rejected.incrementAndGet();
+				throw new RejectedException(retryAfter);
+			}
+
+			admitted.incrementAndGet();
+		} finally {
+
+			waiting.decrementAndGet();
+
+			long queueTime = System.nanoTime() - enqueuedAt;
+			totalQueueTime.addAndGet(queueTime);
+			maxQueueTime.accumulateAndGet(queueTime, Math::max);
+		}
+	}
+
+	int getInFlight() {
+		return maxConcurrent - permits.availablePermits();
+	}
+
+	Map<String, Object> getMetrics() {
+
+		long queued = this.queued.get();
+
+		Map<String, Object> metrics = new LinkedHashMap<>();
+		metrics.put("maxConcurrent", maxConcurrent);
+		metrics.put("maxQueue", maxQueue);
+		metrics.put("inFlight", getInFlight());
+		metrics.put("waiting", waiting.get());
+		metrics.put("admitted", admitted.get());
+		metrics.put("queued", queued);
+		metrics.put("rejected", rejected.get());
+		metrics.put("meanQueueTimeMillis", queued == 0 ? 0 : totalQueueTime.get() / queued / 1_000_000);
+		metrics.put("maxQueueTimeMillis", maxQueueTime.get() / 1_000_000);
+		return metrics;
+	}
+
+	/**
+	 * Exception signalling that work was not admitted and should be retried after {@link #getRetryAfter()}.
+	 */
+	static class RejectedException extends RuntimeException {
+
+		private final Duration retryAfter;
+
+		RejectedException(Duration retryAfter) {
+			super("Capacity exceeded, retry after " + retryAfter);
+			this.retryAfter = retryAfter;
+		}
+
+		Duration getRetryAfter() {
+			return retryAfter;
+		}
+	}
+}
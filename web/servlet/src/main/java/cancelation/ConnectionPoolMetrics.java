@@ -0,0 +1,258 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cancelation;
+
+import rxtx.support.ConnectionHoldTimes;
+import rxtx.support.LatencyHistogram;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.lang.Nullable;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+import org.springframework.web.servlet.HandlerMapping;
+
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.metrics.IMetricsTracker;
+import com.zaxxer.hikari.metrics.PoolStats;
+
+/**
+ * Records how long requests wait for a connection from the Hikari pool and how long they hold it. A growing wait means
+ * the pool, not the database, limits throughput, long holds show who keeps connections from others. Registers itself as
+ * metrics tracker of each {@link HikariDataSource} before the pool starts.
+ * <p>
+ * Hikari reports acquisition and release on the thread using the connection. Leases are kept on a thread-local stack
+ * in between and attributed to the mapped request of that thread and to the transactional method beginning the
+ * transaction, tracked by decorating the {@link PlatformTransactionManager}. Work on other threads, e.g. asynchronous
+ * rounds, is attributed to its transactional method only.
+ */
+final class ConnectionPoolMetrics implements BeanPostProcessor {
+
+	/**
+	 * Bound for leases per thread in case a connection is returned on another thread than it was acquired on.
+	 */
+	private static final int MAX_LEASES_PER_THREAD = 16;
+
+	private final LatencyHistogram acquire = new LatencyHistogram();
+	private final AtomicLong timeouts = new AtomicLong();
+	private final ConnectionHoldTimes holds;
+
+	private final ThreadLocal<Deque<Lease>> leases = ThreadLocal.withInitial(ArrayDeque::new);
+	private final ThreadLocal<Deque<String>> transactions = ThreadLocal.withInitial(ArrayDeque::new);
+
+	private volatile @Nullable PoolStats poolStats;
+
+	/**
+	 * @param longestLeases number of longest connection leases to keep.
+	 */
+	ConnectionPoolMetrics(int longestLeases) {
+		this.holds = new ConnectionHoldTimes(longestLeases);
+	}
+
+	@Override
+	public Object postProcessBeforeInitialization(Object bean, String beanName) {
+
+		if (bean instanceof HikariDataSource) {
+			((HikariDataSource) bean).setMetricsTrackerFactory((poolName, poolStats) -> {
+
+				this.poolStats = poolStats;
+
+				return new IMetricsTracker() {
+
+					@Override
+					public void recordConnectionAcquiredNanos(long elapsedAcquiredNanos) {
+
+						acquire.record(elapsedAcquiredNanos);
+
+						Deque<Lease> leases = ConnectionPoolMetrics.this.leases.get();
+						if (leases.size() >= MAX_LEASES_PER_THREAD) {
+							leases.pollLast();
+						}
+
+						leases.push(new Lease(System.nanoTime(), currentRequest(), transactions.get().peek()));
+					}
+
+					@Override
+					public void recordConnectionUsageMillis(long elapsedBorrowedMillis) {
+
+						Lease lease = leases.get().poll();
+
+						if (lease != null) {
+							holds.record(lease.request, lease.method, System.nanoTime() - lease.acquiredAt);
+						} else {
+							holds.record(null, null, elapsedBorrowedMillis * 1_000_000);
+						}
+					}
+
+					@Override
+					public void recordConnectionTimeout() {
+						timeouts.incrementAndGet();
+					}
+				};
+			});
+		}
+
+		return bean;
+	}
+
+	@Override
+	public Object postProcessAfterInitialization(Object bean, String beanName) {
+
+		if (bean instanceof PlatformTransactionManager && !(bean instanceof TrackingTransactionManager)) {
+			return new TrackingTransactionManager((PlatformTransactionManager) bean);
+		}
+
+		return bean;
+	}
+
+	/**
+	 * Discard recorded wait and hold times, e.g. between load test runs.
+	 */
+	void reset() {
+		acquire.reset();
+		timeouts.set(0);
+		holds.reset();
+	}
+
+	Map<String, Object> getMetrics() {
+
+		Map<String, Object> metrics = new LinkedHashMap<>();
+
+		PoolStats poolStats = this.poolStats;
+		if (poolStats != null) {
+			metrics.put("total", poolStats.getTotalConnections());
+			metrics.put("active", poolStats.getActiveConnections());
+			metrics.put("idle", poolStats.getIdleConnections());
+			metrics.put("pending", poolStats.getPendingThreads());
+		}
+
+		metrics.put("acquired", acquire.getCount());
+		metrics.put("timeouts", timeouts.get());
+		metrics.put("acquireP50Micros", acquire.getPercentile(50).toNanos() / 1000);
+		metrics.put("acquireP99Micros", acquire.getPercentile(99).toNanos() / 1000);
+		metrics.put("acquireMaxMicros", acquire.getPercentile(100).toNanos() / 1000);
+		metrics.putAll(holds.getSummary());
+		return metrics;
+	}
+
+	/**
+	 * @return hold times per request and transactional method and the longest leases.
+	 */
+	Map<String, Object> getHoldMetrics() {
+		return holds.getMetrics();
+	}
+
+	/**
+	 * @return the HTTP method and the matched pattern of the request served by this thread.
+	 */
+	@Nullable
+	private static String currentRequest() {
+
+		RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+		if (!(attributes instanceof ServletRequestAttributes)) {
+			return null;
+		}
+
+		HttpServletRequest request = ((ServletRequestAttributes) attributes).getRequest();
+		Object pattern = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+
+		return request.getMethod() + " " + (pattern != null ? pattern : ConnectionHoldTimes.UNKNOWN);
+	}
+
+	/**
+	 * @return the transactional method without package, e.g. {@code ServletApplication.TransactionalService.save}.
+	 */
+	private static String nameOf(@Nullable TransactionDefinition definition) {
+
+		String name = definition != null ? definition.getName() : null;
+		if (name == null) {
+			return ConnectionHoldTimes.UNKNOWN;
+		}
+
+		int type = name.lastIndexOf('.', name.lastIndexOf('.') - 1);
+		return name.substring(type + 1).replace('$', '.');
+	}
+
+	/**
+	 * Tracks the transactional methods running on each thread. Connections are acquired while beginning a transaction,
+	 * before the transaction name is bound to the thread.
+	 */
+	class TrackingTransactionManager implements PlatformTransactionManager {
+
+		private final PlatformTransactionManager delegate;
+
+		TrackingTransactionManager(PlatformTransactionManager delegate) {
+			this.delegate = delegate;
+		}
+
+		@Override
+		public TransactionStatus getTransaction(@Nullable TransactionDefinition definition) {
+
+			transactions.get().push(nameOf(definition));
+
+			try {
+				return delegate.getTransaction(definition);
+			} catch (RuntimeException | Error e) {
+				transactions.get().pop();
+				throw e;
+			}
+		}
+
+		@Override
+		public void commit(TransactionStatus status) {
+
+			try {
+				delegate.commit(status);
+			} finally {
+				transactions.get().pop();
+			}
+		}
+
+		@Override
+		public void rollback(TransactionStatus status) {
+
+			try {
+				delegate.rollback(status);
+			} finally {
+				transactions.get().pop();
+			}
+		}
+	}
+
+	static class Lease {
+
+		final long acquiredAt;
+		final @Nullable String request;
+		final @Nullable String method;
+
+		Lease(long acquiredAt, @Nullable String request, @Nullable String method) {
+			this.acquiredAt = acquiredAt;
+			this.request = request;
+			this.method = method;
+		}
+	}
+}
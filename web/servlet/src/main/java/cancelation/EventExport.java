@@ -0,0 +1,142 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cancelation;
+
+import cancelation.ServletApplication.Event;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SequenceWriter;
+
+/**
+ * Export of all events, streamed while rows are read instead of loading the whole table.
+ */
+final class EventExport {
+
+	private EventExport() {}
+
+	@RestController
+	static class EventExportController {
+
+		final EventExporter eventExporter;
+
+		EventExportController(EventExporter eventExporter) {
+			this.eventExporter = eventExporter;
+		}
+
+		/**
+		 * Stream all events as one JSON array. The response is written while rows are read, see {@link EventExporter}.
+		 */
+		@GetMapping(path = "/export", produces = MediaType.APPLICATION_JSON_VALUE)
+		ResponseEntity<StreamingResponseBody> export() {
+			return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON) //
+					.body(out -> eventExporter.export(out, false));
+		}
+
+		/**
+		 * Stream all events as one JSON document per line.
+		 */
+		@GetMapping(path = "/export", produces = "application/x-ndjson")
+		ResponseEntity<StreamingResponseBody> exportNdjson() {
+			return ResponseEntity.ok().contentType(ServletApplication.APPLICATION_NDJSON) //
+					.body(out -> eventExporter.export(out, true));
+		}
+	}
+
+	/**
+	 * Streams all events from a forward-only, read-only cursor into an {@link OutputStream}, serializing each row as
+	 * it is read. The driver holds at most {@code events.export.fetch-size} rows, so heap usage does not depend on the
+	 * size of the table. Runs in a read-only transaction as some drivers, e.g. PostgreSQL, fetch in chunks only with
+	 * auto-commit disabled. H2 buffers results exceeding {@code MAX_MEMORY_ROWS} on disk.
+	 */
+	@Component
+	static class EventExporter {
+
+		private final JdbcTemplate jdbcTemplate;
+		private final ObjectMapper objectMapper;
+		private final int fetchSize;
+
+		EventExporter(JdbcTemplate jdbcTemplate, ObjectMapper objectMapper,
+				@Value("${events.export.fetch-size:1000}") int fetchSize) {
+			this.jdbcTemplate = jdbcTemplate;
+			this.objectMapper = objectMapper;
+			this.fetchSize = fetchSize;
+		}
+
+		/**
+		 * Write all events ordered by id, as one JSON array or, if {@code ndjson}, as one JSON document per line, each
+		 * terminated by a newline. {@code out} is left open.
+		 */
+		@Transactional(readOnly = true)
+		public void export(OutputStream out, boolean ndjson) throws IOException {
+
+			ObjectWriter writer = objectMapper.writer().without(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+			AtomicLong exported = new AtomicLong();
+
+			try (SequenceWriter sequence = ndjson ? writer.withRootValueSeparator("\n").writeValues(out)
+					: writer.writeValuesAsArray(out)) {
+
+				PreparedStatementCreator select = connection -> {
+
+					PreparedStatement statement = connection.prepareStatement(
+							"SELECT id, counter FROM event ORDER BY id", ResultSet.TYPE_FORWARD_ONLY,
+							ResultSet.CONCUR_READ_ONLY);
+					statement.setFetchSize(fetchSize);
+					return statement;
+				};
+
+				jdbcTemplate.query(select, (ResultSet row) -> {
+
+					Event event = new Event(row.getInt("counter"));
+					event.setId(row.getInt("id"));
+
+					try {
+						sequence.write(event);
+						exported.incrementAndGet();
+					} catch (IOException e) {
+						throw new UncheckedIOException(e);
+					}
+				});
+			} catch (UncheckedIOException e) {
+				throw e.getCause();
+			}
+
+			// terminate the last line, an empty table exports an empty body rather than a blank line
+			if (ndjson && exported.get() > 0) {
+				out.write('\n');
+			}
+		}
+	}
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cancelation;
+
+import rxtx.support.IdempotencyKeys;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.function.Predicate;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+/**
+ * Runs work at most once per {@code Idempotency-Key} at a time, on the calling thread. A request arriving while an
+ * execution for its key is in flight waits for that execution instead of starting a second one. Complete results are
+ * kept for {@code ttl} and returned without running the work again. Incomplete results, e.g. of an execution stopped
+ * because its client disconnected, are not cached, so a waiting duplicate runs the work itself.
+ *
+ * @see IdempotencyKeys
+ */
+final class IdempotentExecutions<T> {
+
+	private final IdempotencyKeys<T, FutureTask<T>> keys;
+	private final Predicate<T> isComplete;
+
+	/**
+	 * @param ttl time to keep complete results.
+	 * @param maxSize maximum number of complete results to keep, the oldest are evicted first.
+	 * @param isComplete whether a result is final and may be returned for subsequent requests.
+	 */
+	IdempotentExecutions(Duration ttl, int maxSize, Predicate<T> isComplete) {
+		this.keys = new IdempotencyKeys<>(ttl, maxSize);
+		this.isComplete = isComplete;
+	}
+
+	/**
+	 * @throws ResponseStatusException with {@code 400 Bad Request} if {@code key} is invalid.
+	 * @see IdempotencyKeys#validate(String)
+	 */
+	static void validate(String key) {
+
+		try {
+			IdempotencyKeys.validate(key);
+		} catch (IllegalArgumentException e) {
+			throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+		}
+	}
+
+	/**
+	 * Run {@code work} unless a complete result for {@code key} is cached or an execution is in flight.
+	 */
+	T execute(String key, Callable<T> work) throws Exception {
+
+		while (true) {
+
+			T cached = keys.getCompleted(key);
+			if (cached != null) {
+				return cached;
+			}
+
+			FutureTask<T> task = new FutureTask<>(work);
+			FutureTask<T> execution = keys.join(key, () -> task);
+
+			if (execution == task) {
+
+				try {
+					task.run();
+					T result = getResult(task);
+
+					if (isComplete.test(result)) {
+						keys.complete(key, result);
+					}
+
+					return result;
+				} finally {
+					keys.finished(key);
+				}
+			}
+
+			try {
+
+				T result = execution.get();
+				if (isComplete.test(result)) {
+					return result;
+				}
+			} catch (ExecutionException e) {
+				// failed for the other request, try on our own
+			}
+		}
+	}
+
+	Map<String, Object> getMetrics() {
+		return keys.getMetrics();
+	}
+
+	private static <T> T getResult(FutureTask<T> task) throws Exception {
+
+		try {
+			return task.get();
+		} catch (ExecutionException e) {
+
+			if (e.getCause() instanceof Exception) {
+				throw (Exception) e.getCause();
+			}
+
+			throw (Error) e.getCause();
+		}
+	}
+}
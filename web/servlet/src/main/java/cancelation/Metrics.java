@@ -0,0 +1,137 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cancelation;
+
+import cancelation.EventPages.EventPage;
+import cancelation.ServletApplication.AsyncRoundExecutor;
+import cancelation.ServletApplication.WebController;
+import rxtx.support.ReadCache;
+
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * Connection pool, statement, cache, admission and thread metrics exposed below {@code /metrics}.
+ */
+@Configuration
+class Metrics {
+
+	/**
+	 * Connection pool wait and hold times. Static as it post-processes the {@code DataSource} and the transaction
+	 * manager.
+	 */
+	@Bean
+	static ConnectionPoolMetrics connectionPoolMetrics(
+			@Value("${events.pool.longest-leases:10}") int longestLeases) {
+		return new ConnectionPoolMetrics(longestLeases);
+	}
+
+	/**
+	 * Statements per request, flagging statements executed more than {@code events.statements.threshold} times by a
+	 * single request as possible N+1 queries. Static as it post-processes the {@code DataSource}.
+	 */
+	@Bean
+	static RequestStatements requestStatements(@Value("${events.statements.threshold:10}") int threshold,
+			@Value("${events.statements.retained:10}") int retained) {
+		return new RequestStatements(threshold, retained);
+	}
+
+	@RestController
+	static class MetricsController {
+
+		final WebController webController;
+		final ReadCache<String, EventPage> pageCache;
+		final AdmissionControl admissionControl;
+		final IdempotentExecutions<Integer> idempotentExecutions;
+		final AsyncRoundExecutor asyncRoundExecutor;
+		final ConnectionPoolMetrics poolMetrics;
+		final RequestStatements requestStatements;
+		final boolean virtualThreads;
+
+		MetricsController(WebController webController, ReadCache<String, EventPage> pageCache,
+				AdmissionControl admissionControl, IdempotentExecutions<Integer> idempotentExecutions,
+				AsyncRoundExecutor asyncRoundExecutor, ConnectionPoolMetrics poolMetrics,
+				RequestStatements requestStatements, @Value("${events.virtual-threads:false}") boolean virtualThreads) {
+			this.webController = webController;
+			this.pageCache = pageCache;
+			this.admissionControl = admissionControl;
+			this.idempotentExecutions = idempotentExecutions;
+			this.asyncRoundExecutor = asyncRoundExecutor;
+			this.poolMetrics = poolMetrics;
+			this.requestStatements = requestStatements;
+			this.virtualThreads = VirtualThreads.isEnabled(virtualThreads);
+		}
+
+		@GetMapping("/metrics/cache")
+		Map<String, Object> cacheMetrics() {
+			return pageCache.getMetrics();
+		}
+
+		@GetMapping("/metrics/admission")
+		Map<String, Object> admissionMetrics() {
+			return admissionControl.getMetrics();
+		}
+
+		@GetMapping("/metrics/idempotency")
+		Map<String, Object> idempotencyMetrics() {
+			return idempotentExecutions.getMetrics();
+		}
+
+		@GetMapping("/metrics/async")
+		Map<String, Object> asyncMetrics() {
+			return asyncRoundExecutor.getMetrics();
+		}
+
+		@GetMapping("/metrics/threads")
+		Map<String, Object> threadMetrics() {
+			return VirtualThreads.getMetrics(virtualThreads, webController.getInFlight());
+		}
+
+		@GetMapping("/metrics/pool")
+		Map<String, Object> poolMetrics() {
+			return poolMetrics.getMetrics();
+		}
+
+		@GetMapping("/metrics/pool/holds")
+		Map<String, Object> poolHoldMetrics() {
+			return poolMetrics.getHoldMetrics();
+		}
+
+		@DeleteMapping("/metrics/pool")
+		void resetPoolMetrics() {
+			poolMetrics.reset();
+		}
+
+		/**
+		 * Requests that executed a statement more often than the threshold, typically an N+1 query.
+		 */
+		@GetMapping("/metrics/statements")
+		Map<String, Object> statementMetrics() {
+			return requestStatements.getMetrics();
+		}
+
+		@DeleteMapping("/metrics/statements")
+		void resetStatementMetrics() {
+			requestStatements.reset();
+		}
+	}
+}
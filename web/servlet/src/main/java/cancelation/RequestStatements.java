@@ -0,0 +1,167 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cancelation;
+
+import rxtx.support.NPlusOneDetector;
+import rxtx.support.UnitOfWork;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.Map;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.sql.DataSource;
+
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.lang.Nullable;
+import org.springframework.util.ClassUtils;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+/**
+ * Counts the statements executed on behalf of each HTTP request in a {@link UnitOfWork} to detect N+1 queries, see
+ * {@link NPlusOneDetector}. The unit of work is a request attribute and statements are recorded by decorating each
+ * {@link DataSource} bean. Each execution counts once, a JDBC batch included as it takes a single round trip. Work
+ * handed over to other threads, such as asynchronous rounds or page cache refreshes, is not counted.
+ */
+final class RequestStatements extends OncePerRequestFilter implements BeanPostProcessor {
+
+	private static final String UNIT_OF_WORK_ATTRIBUTE = RequestStatements.class.getName() + ".UNIT_OF_WORK";
+
+	private final NPlusOneDetector detector;
+
+	/**
+	 * @param threshold number of executions per statement shape and request that are still fine.
+	 * @param retained number of most recently flagged requests to keep.
+	 */
+	RequestStatements(int threshold, int retained) {
+		this.detector = new NPlusOneDetector(threshold, retained);
+	}
+
+	@Override
+	protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+			throws ServletException, IOException {
+
+		UnitOfWork unitOfWork = new UnitOfWork(request.getMethod() + " " + request.getRequestURI());
+		request.setAttribute(UNIT_OF_WORK_ATTRIBUTE, unitOfWork);
+
+		try {
+			filterChain.doFilter(request, response);
+		} finally {
+			detector.complete(unitOfWork);
+		}
+	}
+
+	@Override
+	public Object postProcessAfterInitialization(Object bean, String beanName) {
+
+		if (bean instanceof DataSource && !Proxy.isProxyClass(bean.getClass())) {
+
+			return proxy(bean, (proxy, method, args) -> {
+
+				Object result = invoke(bean, method, args);
+				return result instanceof Connection ? countingConnection((Connection) result) : result;
+			});
+		}
+
+		return bean;
+	}
+
+	/**
+	 * @return completed and flagged requests and the repeated statements of the most recently flagged ones.
+	 */
+	Map<String, Object> getMetrics() {
+		return detector.getMetrics();
+	}
+
+	void reset() {
+		detector.reset();
+	}
+
+	/**
+	 * Decorate statements created by {@code connection}. The SQL of prepared statements is known up front, that of
+	 * plain statements once executed.
+	 */
+	private Connection countingConnection(Connection connection) {
+
+		return (Connection) proxy(connection, (proxy, method, args) -> {
+
+			Object result = invoke(connection, method, args);
+
+			if (!(result instanceof Statement)) {
+				return result;
+			}
+
+			String sql = args != null && args.length > 0 && args[0] instanceof String ? (String) args[0] : null;
+			return countingStatement((Statement) result, sql);
+		});
+	}
+
+	private Statement countingStatement(Statement statement, @Nullable String preparedSql) {
+
+		return (Statement) proxy(statement, (proxy, method, args) -> {
+
+			if (method.getName().startsWith("execute")) {
+
+				String sql = args != null && args.length > 0 && args[0] instanceof String ? (String) args[0]
+						: preparedSql;
+				if (sql != null) {
+					record(sql);
+				}
+			}
+
+			return invoke(statement, method, args);
+		});
+	}
+
+	private void record(String sql) {
+
+		RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+		Object unitOfWork = attributes != null
+				? attributes.getAttribute(UNIT_OF_WORK_ATTRIBUTE, RequestAttributes.SCOPE_REQUEST)
+				: null;
+
+		if (unitOfWork instanceof UnitOfWork) {
+			detector.record((UnitOfWork) unitOfWork, sql);
+		}
+	}
+
+	private static Object proxy(Object target, InvocationHandler handler) {
+
+		ClassLoader classLoader = target.getClass().getClassLoader();
+		return Proxy.newProxyInstance(classLoader, ClassUtils.getAllInterfacesForClass(target.getClass(), classLoader),
+				handler);
+	}
+
+	@Nullable
+	private static Object invoke(Object target, Method method, @Nullable Object[] args) throws Throwable {
+
+		try {
+			return method.invoke(target, args);
+		} catch (InvocationTargetException e) {
+			throw e.getTargetException();
+		}
+	}
+}
@@ -15,21 +15,72 @@
  */
 package cancelation;
 
+import cancelation.EventPages.EventPage;
+import rxtx.support.ReadCache;
+
+import java.io.IOException;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.time.Duration;
+import java.util.IntSummaryStatistics;
 import java.util.List;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.coyote.ProtocolHandler;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Conditional;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.core.task.support.TaskExecutorAdapter;
+import org.springframework.dao.DataRetrievalFailureException;
+import org.springframework.dao.OptimisticLockingFailureException;
 import org.springframework.data.annotation.Id;
 import org.springframework.data.jdbc.repository.config.EnableJdbcRepositories;
+import org.springframework.data.jdbc.repository.query.Modifying;
+import org.springframework.data.jdbc.repository.query.Query;
+import org.springframework.data.relational.core.mapping.Table;
 import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.lang.Nullable;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import org.springframework.stereotype.Component;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
 
 /**
  * @author Mark Paluch
@@ -38,43 +89,484 @@ import org.springframework.web.bind.annotation.RestController;
 @EnableJdbcRepositories(considerNestedRepositories = true)
 public class ServletApplication {
 
+	static final MediaType APPLICATION_NDJSON = MediaType.parseMediaType("application/x-ndjson");
+
 	public static void main(String[] args) {
 		SpringApplication.run(ServletApplication.class, args);
 	}
 
+	/**
+	 * Admission control for write transactions. Defaults to the connection pool size so excess transactions queue here,
+	 * bounded, instead of waiting for a connection. With virtual threads, a waiting request is cheap and transactions are
+	 * not limited unless configured, leaving the connection pool as the only limit for concurrent transactions.
+	 */
+	@Bean
+	AdmissionControl admissionControl(@Value("${events.admission.max-concurrent:0}") int maxConcurrent,
+			@Value("${spring.datasource.hikari.maximum-pool-size:10}") int poolSize,
+			@Value("${events.virtual-threads:false}") boolean virtualThreads,
+			@Value("${events.admission.max-queue:10}") int maxQueue,
+			@Value("${events.admission.max-wait:5s}") Duration maxWait,
+			@Value("${events.admission.retry-after:10s}") Duration retryAfter) {
+
+		if (maxConcurrent <= 0) {
+			maxConcurrent = VirtualThreads.isEnabled(virtualThreads) ? Integer.MAX_VALUE : poolSize;
+		}
+
+		return new AdmissionControl(maxConcurrent, maxQueue, maxWait, retryAfter);
+	}
+
+	/**
+	 * Deduplication of {@code POST /} requests by {@code Idempotency-Key}. Results are the number of committed rounds
+	 * and final once all rounds are committed.
+	 */
+	@Bean
+	IdempotentExecutions<Integer> idempotentExecutions(@Value("${events.idempotency.ttl:1h}") Duration ttl,
+			@Value("${events.idempotency.cache-size:1000}") int cacheSize) {
+		return new IdempotentExecutions<>(ttl, cacheSize, rounds -> rounds >= AsyncRoundExecutor.ROUNDS);
+	}
+
+	/**
+	 * Serve requests on virtual threads instead of the Tomcat worker pool if {@code events.virtual-threads=true}.
+	 * Requires JDK 21+, older JVMs keep the worker pool.
+	 */
+	@Bean
+	@Conditional(VirtualThreads.EnabledCondition.class)
+	TomcatProtocolHandlerCustomizer<ProtocolHandler> virtualThreadsCustomizer() {
+
+		ExecutorService executor = VirtualThreads.newExecutor();
+		return protocolHandler -> protocolHandler.setExecutor(executor);
+	}
+
+	/**
+	 * Run asynchronous work, such as page cache refreshes, on virtual threads as well.
+	 */
+	@Bean
+	@Conditional(VirtualThreads.EnabledCondition.class)
+	TaskExecutor applicationTaskExecutor() {
+		return new TaskExecutorAdapter(VirtualThreads.newExecutor());
+	}
+
 	@RestController
 	static class WebController {
 
 		final TransactionalService transactionalService;
+		final AdmissionControl admissionControl;
+		final IdempotentExecutions<Integer> idempotentExecutions;
+		final AsyncRoundExecutor asyncRoundExecutor;
+		final Duration roundDelay;
+		final Duration probeInterval;
+		final AtomicInteger inFlight = new AtomicInteger();
 
-		WebController(TransactionalService transactionalService) {
+		WebController(TransactionalService transactionalService, AdmissionControl admissionControl,
+				IdempotentExecutions<Integer> idempotentExecutions, AsyncRoundExecutor asyncRoundExecutor,
+				@Value("${events.round-delay:10s}") Duration roundDelay,
+				@Value("${events.disconnect-probe-interval:1s}") Duration probeInterval) {
 			this.transactionalService = transactionalService;
+			this.admissionControl = admissionControl;
+			this.idempotentExecutions = idempotentExecutions;
+			this.asyncRoundExecutor = asyncRoundExecutor;
+			this.roundDelay = roundDelay;
+			this.probeInterval = probeInterval;
 		}
 
+		/**
+		 * Save six rounds of events, each in its own transaction, waiting {@code events.round-delay} in between. A
+		 * blocked servlet thread does not notice a client disconnect by itself, so the wait writes a blank line every
+		 * {@code events.disconnect-probe-interval}. A failed write stops further rounds. As the first probe commits the
+		 * response, a round failing later aborts the response instead of returning an error status.
+		 * <p>
+		 * Each round is admitted through {@link AdmissionControl} on its own so waiting between rounds holds neither a
+		 * connection nor a permit. Only the first round can be rejected with {@code 503 Service Unavailable}, a later
+		 * rejection aborts the response like a failed round.
+		 * <p>
+		 * With an {@code Idempotency-Key} header, each round records the key in its transaction. A retry skips committed
+		 * rounds and resumes with the next one, a request for a key in flight waits for that execution, see
+		 * {@link IdempotentExecutions}.
+		 */
 		@PostMapping
-		void longRunningSave() throws InterruptedException {
+		void longRunningSave(@RequestHeader(name = "Idempotency-Key", required = false) String idempotencyKey,
+				HttpServletResponse response) throws Exception {
+
+			inFlight.incrementAndGet();
+
+			try {
+
+				if (idempotencyKey == null) {
+					saveRounds(response, null);
+					return;
+				}
+
+				IdempotentExecutions.validate(idempotencyKey);
+				idempotentExecutions.execute(idempotencyKey, () -> saveRounds(response, idempotencyKey));
+			} finally {
+				inFlight.decrementAndGet();
+			}
+		}
+
+		/**
+		 * Same rounds as {@link #longRunningSave(String, HttpServletResponse)} without holding a container thread in
+		 * between. Progress is streamed as one JSON document per committed round.
+		 */
+		@PostMapping(params = "mode=async", produces = "application/x-ndjson")
+		ResponseEntity<ResponseBodyEmitter> longRunningSaveAsync() {
+			return ResponseEntity.ok().contentType(APPLICATION_NDJSON).body(asyncRoundExecutor.saveRounds());
+		}
 
-			for (int i = 0; i < 6; i++) {
+		/**
+		 * @return the number of committed rounds.
+		 */
+		private int saveRounds(HttpServletResponse response, @Nullable String idempotencyKey)
+				throws InterruptedException {
+
+			int committed = idempotencyKey != null ? transactionalService.getCompletedRounds(idempotencyKey) : 0;
+
+			for (int i = committed; i < AsyncRoundExecutor.ROUNDS; i++) {
 
 				int from = 10 * i;
 				int to = from + 10;
 				System.out.printf("Round %d, from %d to %d%n", i, from, to);
 
 				List<Integer> items = IntStream.range(from, to).boxed().collect(Collectors.toList());
-				transactionalService.save(items);
+				int round = i;
+				admissionControl.admit(() -> {
+
+					if (idempotencyKey != null) {
+						transactionalService.save(items, idempotencyKey, round);
+					} else {
+						transactionalService.save(items);
+					}
+				});
+				committed++;
+
+				if (i == AsyncRoundExecutor.ROUNDS - 1) {
+					break;
+				}
 
 				try {
-					TimeUnit.SECONDS.sleep(10);
+					if (!awaitNextRound(response)) {
+						System.out.println("Canceled!");
+						break;
+					}
 				} catch (InterruptedException e) {
 					e.printStackTrace();
 					throw e;
 				}
 			}
+
+			return committed;
+		}
+
+		/**
+		 * Wait for {@code events.round-delay} while probing the connection.
+		 *
+		 * @return {@literal false} if the client disconnected.
+		 */
+		private boolean awaitNextRound(HttpServletResponse response) throws InterruptedException {
+
+			long deadline = System.nanoTime() + roundDelay.toNanos();
+
+			while (isConnected(response)) {
+
+				long remaining = deadline - System.nanoTime();
+				if (remaining <= 0) {
+					return true;
+				}
+
+				TimeUnit.NANOSECONDS.sleep(Math.min(remaining, probeInterval.toNanos()));
+			}
+
+			return false;
+		}
+
+		/**
+		 * Write and flush a blank line. Writing to a connection closed by the client usually succeeds once as the peer
+		 * answers with a reset only then, so a disconnect is detected by the second probe at the latest.
+		 */
+		private static boolean isConnected(HttpServletResponse response) {
+
+			try {
+
+				if (!response.isCommitted()) {
+					response.setContentType(MediaType.TEXT_PLAIN_VALUE);
+				}
+
+				response.getOutputStream().write('\n');
+				response.flushBuffer();
+				return true;
+			} catch (IOException e) {
+				return false;
+			}
+		}
+
+		/**
+		 * Count, min, max and sum of all event counters, read from a summary maintained by each writing transaction.
+		 */
+		@GetMapping("/statistics")
+		EventStatistics statistics() {
+			return transactionalService.getStatistics();
 		}
 
-		@GetMapping
-		List<Event> findAll() {
-			return transactionalService.findAll();
+		/**
+		 * Recompute the summary from the {@code event} table to recover from drift.
+		 */
+		@PostMapping("/statistics/rebuild")
+		EventStatistics rebuildStatistics() {
+			return transactionalService.rebuildStatistics();
+		}
+
+		/**
+		 * @return the number of {@code POST /} requests in progress.
+		 */
+		int getInFlight() {
+			return inFlight.get();
+		}
+
+		/**
+		 * Shed load that exceeds {@link AdmissionControl} capacity.
+		 */
+		@ExceptionHandler
+		ResponseEntity<Void> rejected(AdmissionControl.RejectedException e) {
+
+			return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE) //
+					.header(HttpHeaders.RETRY_AFTER, Long.toString(e.getRetryAfter().getSeconds())) //
+					.build();
+		}
+	}
+
+	/**
+	 * Runs the rounds of {@link WebController#longRunningSaveAsync()}. A timer schedules each round and hands it over to
+	 * a bounded executor running its transaction. Neither waiting for the next round nor a slow client ties up a
+	 * container thread. Rounds that find the executor saturated fail the request.
+	 */
+	@Component
+	static class AsyncRoundExecutor implements DisposableBean {
+
+		static final int ROUNDS = 6;
+
+		private final TransactionalService transactionalService;
+		private final Duration roundDelay;
+		private final Duration timeout;
+		private final ScheduledExecutorService timer = Executors
+				.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("round-timer-"));
+		private final ThreadPoolExecutor executor;
+
+		private final AtomicInteger inProgress = new AtomicInteger();
+		private final AtomicLong rejected = new AtomicLong();
+
+		AsyncRoundExecutor(TransactionalService transactionalService,
+				@Value("${events.async.threads:${spring.datasource.hikari.maximum-pool-size:10}}") int threads,
+				@Value("${events.async.queue-capacity:100}") int queueCapacity,
+				@Value("${events.round-delay:10s}") Duration roundDelay,
+				@Value("${events.async.timeout:2m}") Duration timeout) {
+
+			this.transactionalService = transactionalService;
+			this.roundDelay = roundDelay;
+			this.timeout = timeout;
+			this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+					new ArrayBlockingQueue<>(queueCapacity), new CustomizableThreadFactory("round-save-"));
+		}
+
+		ResponseBodyEmitter saveRounds() {
+
+			ResponseBodyEmitter emitter = new ResponseBodyEmitter(timeout.toMillis());
+			new Rounds(emitter).schedule(0, Duration.ZERO);
+
+			return emitter;
+		}
+
+		Map<String, Object> getMetrics() {
+
+			Map<String, Object> metrics = new LinkedHashMap<>();
+			metrics.put("inProgress", inProgress.get());
+			metrics.put("activeRounds", executor.getActiveCount());
+			metrics.put("queuedRounds", executor.getQueue().size());
+			metrics.put("threads", executor.getMaximumPoolSize());
+			metrics.put("rejected", rejected.get());
+			return metrics;
+		}
+
+		@Override
+		public void destroy() {
+			timer.shutdownNow();
+			executor.shutdown();
+		}
+
+		/**
+		 * State of a single request. Rounds stop being scheduled once the request completes, times out or the client
+		 * disconnects.
+		 */
+		class Rounds {
+
+			final ResponseBodyEmitter emitter;
+			final AtomicBoolean done = new AtomicBoolean();
+			final AtomicBoolean finished = new AtomicBoolean();
+			volatile Future<?> pending;
+
+			Rounds(ResponseBodyEmitter emitter) {
+
+				this.emitter = emitter;
+
+				inProgress.incrementAndGet();
+				emitter.onTimeout(this::cancel);
+				emitter.onError(e -> cancel());
+				emitter.onCompletion(this::cancel);
+			}
+
+			void schedule(int round, Duration delay) {
+
+				if (!done.get()) {
+					pending = timer.schedule(() -> submit(round), delay.toMillis(), TimeUnit.MILLISECONDS);
+				}
+			}
+
+			void submit(int round) {
+
+				try {
+					pending = executor.submit(() -> run(round));
+				} catch (RejectedExecutionException e) {
+					rejected.incrementAndGet();
+					fail(e);
+				}
+			}
+
+			void run(int round) {
+
+				if (done.get()) {
+					return;
+				}
+
+				try {
+
+					int from = 10 * round;
+					int to = from + 10;
+					System.out.printf("Round %d, from %d to %d%n", round, from, to);
+
+					transactionalService.save(IntStream.range(from, to).boxed().collect(Collectors.toList()));
+
+					emitter.send(new SavedRound(round, from, to), MediaType.APPLICATION_JSON);
+					emitter.send("\n", MediaType.TEXT_PLAIN);
+
+					if (round < ROUNDS - 1) {
+						schedule(round + 1, roundDelay);
+					} else if (done.compareAndSet(false, true)) {
+						emitter.complete();
+					}
+				} catch (IOException e) {
+					// client gone, the container completes the request
+					cancel();
+				} catch (Exception e) {
+					fail(e);
+				}
+			}
+
+			void fail(Exception e) {
+
+				if (done.compareAndSet(false, true)) {
+					emitter.completeWithError(e);
+				}
+			}
+
+			void cancel() {
+
+				done.set(true);
+
+				Future<?> pending = this.pending;
+				if (pending != null) {
+					pending.cancel(false);
+				}
+
+				if (finished.compareAndSet(false, true)) {
+					inProgress.decrementAndGet();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Inserts events through JDBC batches instead of one statement and key retrieval per event.
+	 */
+	@Component
+	static class EventBatchWriter {
+
+		private final JdbcTemplate jdbcTemplate;
+		private final int batchSize;
+
+		EventBatchWriter(JdbcTemplate jdbcTemplate, @Value("${events.batch-size:1000}") int batchSize) {
+			this.jdbcTemplate = jdbcTemplate;
+			this.batchSize = batchSize;
+		}
+
+		/**
+		 * Insert {@code events} in batches of {@code events.batch-size} and assign their generated ids.
+		 *
+		 * @return {@code events}.
+		 */
+		List<Event> insertAll(List<Event> events) {
+
+			if (events.isEmpty()) {
+				return events;
+			}
+
+			PreparedStatementCreator insert = connection -> connection
+					.prepareStatement("INSERT INTO event (counter) VALUES (?)", new String[] { "id" });
+
+			return jdbcTemplate.execute(insert, (PreparedStatement statement) -> {
+
+				for (int from = 0; from < events.size(); from += batchSize) {
+
+					List<Event> batch = events.subList(from, Math.min(events.size(), from + batchSize));
+
+					for (Event event : batch) {
+						statement.setInt(1, event.getCounter());
+						statement.addBatch();
+					}
+
+					statement.executeBatch();
+
+					try (ResultSet keys = statement.getGeneratedKeys()) {
+
+						for (Event event : batch) {
+
+							if (!keys.next()) {
+								throw new DataRetrievalFailureException(
+										String.format("Expected %d generated keys", batch.size()));
+							}
+
+							event.setId(keys.getInt(1));
+						}
+					}
+				}
+
+				return events;
+			});
+		}
+	}
+
+	/**
+	 * Range of counters saved by a round.
+	 */
+	static class SavedRound {
+
+		private final int round;
+		private final int from;
+		private final int to;
+
+		SavedRound(int round, int from, int to) {
+			this.round = round;
+			this.from = from;
+			this.to = to;
+		}
+
+		public int getRound() {
+			return this.round;
+		}
+
+		public int getFrom() {
+			return this.from;
+		}
+
+		public int getTo() {
+			return this.to;
 		}
 	}
 
@@ -82,22 +574,113 @@ public class ServletApplication {
 	public static class TransactionalService {
 
 		private final EventRepository eventRepository;
+		private final EventStatisticsRepository statisticsRepository;
+		private final IdempotencyKeyRepository idempotencyKeyRepository;
+		private final EventBatchWriter batchWriter;
+		private final ReadCache<String, EventPage> pageCache;
+		private final TransactionSynchronization invalidation;
+
+		public TransactionalService(EventRepository eventRepository, EventStatisticsRepository statisticsRepository,
+				IdempotencyKeyRepository idempotencyKeyRepository, EventBatchWriter batchWriter,
+				ReadCache<String, EventPage> pageCache) {
 
-		public TransactionalService(EventRepository eventRepository) {
 			this.eventRepository = eventRepository;
+			this.statisticsRepository = statisticsRepository;
+			this.idempotencyKeyRepository = idempotencyKeyRepository;
+			this.batchWriter = batchWriter;
+			this.pageCache = pageCache;
+			this.invalidation = new TransactionSynchronizationAdapter() {
+
+				@Override
+				public void afterCommit() {
+					pageCache.invalidate();
+				}
+			};
 		}
 
+		/**
+		 * Save {@code items} in JDBC batches and add their delta to the statistics summary within the same transaction.
+		 */
 		@Transactional
 		public void save(List<Integer> items) {
-			items.forEach(item -> eventRepository.save(new Event(item)));
+
+			batchWriter.insertAll(items.stream().map(Event::new).collect(Collectors.toList()));
+
+			if (!items.isEmpty()) {
+				IntSummaryStatistics delta = items.stream().mapToInt(Integer::intValue).summaryStatistics();
+				statisticsRepository.add(delta.getCount(), delta.getSum(), delta.getMin(), delta.getMax());
+			}
+
+			invalidateAfterCommit();
+		}
+
+		/**
+		 * Save {@code round} of a request identified by {@code idempotencyKey} and record it in the same transaction.
+		 * Fails and rolls back if the round was already saved, e.g. by a concurrent retry on another instance.
+		 */
+		@Transactional
+		public void save(List<Integer> items, String idempotencyKey, int round) {
+
+			save(items);
+
+			boolean recorded = round == 0 ? idempotencyKeyRepository.insert(idempotencyKey, 1)
+					: idempotencyKeyRepository.advance(idempotencyKey, round, round + 1);
+
+			if (!recorded) {
+				throw new OptimisticLockingFailureException(
+						String.format("Round %d of %s already saved", round, idempotencyKey));
+			}
+		}
+
+		/**
+		 * @return the number of rounds committed for {@code idempotencyKey}, {@literal 0} if unknown.
+		 */
+		public int getCompletedRounds(String idempotencyKey) {
+			return idempotencyKeyRepository.findById(idempotencyKey).map(IdempotencyKey::getCompletedRounds).orElse(0);
+		}
+
+		/**
+		 * @return statistics over all committed events. Reads a single summary row regardless of the number of events.
+		 */
+		public EventStatistics getStatistics() {
+			return statisticsRepository.find();
+		}
+
+		/**
+		 * Recompute statistics from the {@code event} table. The summary row is locked first so transactions committing
+		 * concurrently apply their delta after the rebuild, on top of the recomputed values.
+		 */
+		@Transactional
+		public EventStatistics rebuildStatistics() {
+
+			statisticsRepository.findForUpdate();
+			statisticsRepository.rebuild();
+
+			return statisticsRepository.find();
 		}
 
 		public List<Event> findAll() {
 			return eventRepository.findAll();
 		}
 
+		@Transactional
 		public void deleteAll() {
 			eventRepository.deleteAll();
+			statisticsRepository.reset();
+			invalidateAfterCommit();
+		}
+
+		/**
+		 * Invalidate the page cache once the current transaction commits, or right away if there is no transaction.
+		 * Rollbacks leave the cache untouched.
+		 */
+		private void invalidateAfterCommit() {
+
+			if (TransactionSynchronizationManager.isSynchronizationActive()) {
+				TransactionSynchronizationManager.registerSynchronization(invalidation);
+			} else {
+				pageCache.invalidate();
+			}
 		}
 	}
 
@@ -105,6 +688,126 @@ public class ServletApplication {
 
 		@Override
 		List<Event> findAll();
+
+		@Query("SELECT * FROM event WHERE id > :after ORDER BY id LIMIT :limit")
+		List<Event> findPage(@Param("after") int after, @Param("limit") int limit);
+	}
+
+	interface EventStatisticsRepository extends CrudRepository<EventStatistics, Integer> {
+
+		@Query("SELECT * FROM event_stats WHERE id = 1")
+		EventStatistics find();
+
+		@Query("SELECT * FROM event_stats WHERE id = 1 FOR UPDATE")
+		EventStatistics findForUpdate();
+
+		@Modifying
+		@Query("UPDATE event_stats SET event_count = event_count + :count, sum_counter = sum_counter + :sum, "
+				+ "min_counter = LEAST(COALESCE(min_counter, :min), :min), "
+				+ "max_counter = GREATEST(COALESCE(max_counter, :max), :max) WHERE id = 1")
+		boolean add(@Param("count") long count, @Param("sum") long sum, @Param("min") int min, @Param("max") int max);
+
+		@Modifying
+		@Query("UPDATE event_stats SET event_count = (SELECT COUNT(*) FROM event), "
+				+ "min_counter = (SELECT MIN(counter) FROM event), max_counter = (SELECT MAX(counter) FROM event), "
+				+ "sum_counter = (SELECT COALESCE(SUM(counter), 0) FROM event) WHERE id = 1")
+		boolean rebuild();
+
+		@Modifying
+		@Query("UPDATE event_stats SET event_count = 0, min_counter = NULL, max_counter = NULL, sum_counter = 0 "
+				+ "WHERE id = 1")
+		boolean reset();
+	}
+
+	interface IdempotencyKeyRepository extends CrudRepository<IdempotencyKey, String> {
+
+		@Modifying
+		@Query("INSERT INTO idempotency_key (idem_key, completed_rounds, created_at) "
+				+ "VALUES (:key, :rounds, CURRENT_TIMESTAMP)")
+		boolean insert(@Param("key") String key, @Param("rounds") int rounds);
+
+		@Modifying
+		@Query("UPDATE idempotency_key SET completed_rounds = :rounds WHERE idem_key = :key "
+				+ "AND completed_rounds = :expected")
+		boolean advance(@Param("key") String key, @Param("expected") int expected, @Param("rounds") int rounds);
+	}
+
+	/**
+	 * Progress of a request identified by its {@code Idempotency-Key}.
+	 */
+	@Table("idempotency_key")
+	static class IdempotencyKey {
+
+		@Id String idemKey;
+
+		int completedRounds;
+
+		public String getIdemKey() {
+			return idemKey;
+		}
+
+		public void setIdemKey(String idemKey) {
+			this.idemKey = idemKey;
+		}
+
+		public int getCompletedRounds() {
+			return completedRounds;
+		}
+
+		public void setCompletedRounds(int completedRounds) {
+			this.completedRounds = completedRounds;
+		}
+	}
+
+	/**
+	 * Count, min, max and sum of event counters, stored in a single row. Min and max are {@literal null} without events.
+	 */
+	@Table("event_stats")
+	static class EventStatistics {
+
+		@Id Integer id;
+
+		long eventCount;
+
+		@Nullable Integer minCounter;
+
+		@Nullable Integer maxCounter;
+
+		long sumCounter;
+
+		public long getEventCount() {
+			return eventCount;
+		}
+
+		public void setEventCount(long eventCount) {
+			this.eventCount = eventCount;
+		}
+
+		@Nullable
+		public Integer getMinCounter() {
+			return minCounter;
+		}
+
+		public void setMinCounter(@Nullable Integer minCounter) {
+			this.minCounter = minCounter;
+		}
+
+		@Nullable
+		public Integer getMaxCounter() {
+			return maxCounter;
+		}
+
+		public void setMaxCounter(@Nullable Integer maxCounter) {
+			this.maxCounter = maxCounter;
+		}
+
+		public long getSumCounter() {
+			return sumCounter;
+		}
+
+		public void setSumCounter(long sumCounter) {
+			this.sumCounter = sumCounter;
+		}
 	}
 
 	static class Event {
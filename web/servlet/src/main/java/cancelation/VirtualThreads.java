@@ -0,0 +1,128 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cancelation;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.InvocationTargetException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.springframework.context.annotation.Condition;
+import org.springframework.context.annotation.ConditionContext;
+import org.springframework.core.type.AnnotatedTypeMetadata;
+
+/**
+ * Access to virtual threads (JDK 21+) while the application is compiled for Java 8. Blocking calls such as
+ * {@code Thread.sleep} or socket reads unmount a virtual thread from its carrier, so a blocked request costs a small
+ * heap-allocated stack instead of a platform thread. Calls blocking inside {@code synchronized} blocks, as some JDBC
+ * drivers do, pin the carrier thread.
+ * <p>
+ * On older JVMs, {@code events.virtual-threads=true} falls back to platform threads with a warning.
+ */
+final class VirtualThreads {
+
+	private static final Logger logger = LoggerFactory.getLogger(VirtualThreads.class);
+	private static final AtomicBoolean fallbackLogged = new AtomicBoolean();
+
+	private VirtualThreads() {}
+
+	/**
+	 * @return {@literal true} if the JVM supports virtual threads.
+	 */
+	static boolean isSupported() {
+
+		try {
+			Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return true;
+		} catch (NoSuchMethodException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * @param requested value of {@code events.virtual-threads}.
+	 * @return {@literal true} if requests are served on virtual threads, {@literal false} if not requested or not
+	 *         supported by the JVM.
+	 */
+	static boolean isEnabled(boolean requested) {
+
+		if (!requested || isSupported()) {
+			return requested;
+		}
+
+		if (fallbackLogged.compareAndSet(false, true)) {
+			logger.warn("Virtual threads require JDK 21 or newer, running on {}. Falling back to platform threads.",
+					System.getProperty("java.version"));
+		}
+
+		return false;
+	}
+
+	/**
+	 * @return an executor starting a new virtual thread per task.
+	 * @throws IllegalStateException if the JVM does not support virtual threads.
+	 */
+	static ExecutorService newExecutor() {
+
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (NoSuchMethodException | IllegalAccessException | InvocationTargetException e) {
+			throw new IllegalStateException(
+					String.format("Virtual threads require JDK 21 or newer, running on %s", System.getProperty("java.version")),
+					e);
+		}
+	}
+
+	/**
+	 * Thread and heap usage to compare virtual against platform threads, relative to {@code inFlight} requests.
+	 * {@code platformThreads} does not include virtual threads.
+	 */
+	static Map<String, Object> getMetrics(boolean virtualThreads, int inFlight) {
+
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+
+		long heapUsed = memory.getHeapMemoryUsage().getUsed();
+
+		Map<String, Object> metrics = new LinkedHashMap<>();
+		metrics.put("virtualThreads", virtualThreads);
+		metrics.put("inFlight", inFlight);
+		metrics.put("platformThreads", threads.getThreadCount());
+		metrics.put("peakPlatformThreads", threads.getPeakThreadCount());
+		metrics.put("heapUsedBytes", heapUsed);
+		metrics.put("heapUsedPerInFlightBytes", inFlight == 0 ? 0 : heapUsed / inFlight);
+		return metrics;
+	}
+
+	/**
+	 * Matches if virtual threads are {@link #isEnabled(boolean) enabled}.
+	 */
+	static class EnabledCondition implements Condition {
+
+		@Override
+		public boolean matches(ConditionContext context, AnnotatedTypeMetadata metadata) {
+			return isEnabled(context.getEnvironment().getProperty("events.virtual-threads", Boolean.class, false));
+		}
+	}
+}
@@ -3,3 +3,21 @@ CREATE TABLE event
     id      SERIAL PRIMARY KEY,
     counter INT
 );
+
+CREATE TABLE event_stats
+(
+    id          INT PRIMARY KEY,
+    event_count BIGINT NOT NULL,
+    min_counter INT,
+    max_counter INT,
+    sum_counter BIGINT NOT NULL
+);
+
+INSERT INTO event_stats VALUES (1, 0, NULL, NULL, 0);
+
+CREATE TABLE idempotency_key
+(
+    idem_key         VARCHAR(255) PRIMARY KEY,
+    completed_rounds INT       NOT NULL,
+    created_at       TIMESTAMP NOT NULL
+);
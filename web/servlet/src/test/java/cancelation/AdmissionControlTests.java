@@ -0,0 +1,127 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cancelation;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+/**
+ * Tests for {@link AdmissionControl} and rejections answered with {@code 503 Service Unavailable}.
+ */
+@SpringBootTest(webEnvironment = WebEnvironment.RANDOM_PORT,
+		properties = { "events.round-delay=0s", "events.admission.max-concurrent=1", "events.admission.max-queue=1",
+				"events.admission.max-wait=200ms", "events.admission.retry-after=7s" })
+final class AdmissionControlTests {
+
+	@Autowired TestRestTemplate client;
+	@Autowired AdmissionControl admissionControl;
+
+	@Test
+	void rejectsWithRetryAfterWhenQueueIsFull() throws Exception {
+
+		CompletableFuture<Void> release = new CompletableFuture<>();
+		Thread running = admitInBackground(release);
+		awaitMetric("inFlight", 1);
+		Thread queued = admitInBackground(release);
+		awaitMetric("waiting", 1);
+
+		ResponseEntity<String> response = client.postForEntity("/", null, String.class);
+
+		release.complete(null);
+		running.join(5000);
+		queued.join(5000);
+
+		assertThat(response.getStatusCode()).isEqualTo(HttpStatus.SERVICE_UNAVAILABLE);
+		assertThat(response.getHeaders().getFirst(HttpHeaders.RETRY_AFTER)).isEqualTo("7");
+		assertThat(admissionControl.getMetrics()).containsEntry("inFlight", 0).containsEntry("waiting", 0);
+	}
+
+	@Test
+	void rejectsWithRetryAfterAfterMaxWait() throws Exception {
+
+		CompletableFuture<Void> release = new CompletableFuture<>();
+		Thread running = admitInBackground(release);
+		awaitMetric("inFlight", 1);
+		long rejected = (long) admissionControl.getMetrics().get("rejected");
+
+		ResponseEntity<String> response = client.postForEntity("/", null, String.class);
+
+		release.complete(null);
+		running.join(5000);
+
+		assertThat(response.getStatusCode()).isEqualTo(HttpStatus.SERVICE_UNAVAILABLE);
+		assertThat(response.getHeaders().getFirst(HttpHeaders.RETRY_AFTER)).isEqualTo("7");
+		assertThat(admissionControl.getMetrics()).containsEntry("rejected", rejected + 1)
+				.containsEntry("inFlight", 0).containsEntry("waiting", 0);
+	}
+
+	@Test
+	void interruptedWaiterDoesNotLeakPermit() throws Exception {
+
+		CompletableFuture<Void> release = new CompletableFuture<>();
+		Thread running = admitInBackground(release);
+		awaitMetric("inFlight", 1);
+		Thread queued = admitInBackground(release);
+		awaitMetric("waiting", 1);
+
+		queued.interrupt();
+		queued.join(5000);
+		awaitMetric("waiting", 0);
+
+		release.complete(null);
+		running.join(5000);
+
+		assertThat(admissionControl.getMetrics()).containsEntry("inFlight", 0);
+		assertThat(client.postForEntity("/", null, String.class).getStatusCode()).isEqualTo(HttpStatus.OK);
+	}
+
+	private Thread admitInBackground(CompletableFuture<Void> release) {
+
+		Thread thread = new Thread(() -> {
+			try {
+				admissionControl.admit(release::join);
+			} catch (InterruptedException e) {
+				// left the queue
+			}
+		});
+
+		thread.start();
+		return thread;
+	}
+
+	private void awaitMetric(String name, Object value) throws InterruptedException {
+
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+
+		while (!value.equals(admissionControl.getMetrics().get(name))) {
+
+			assertThat(System.nanoTime() - deadline).as("Waiting for %s to become %s", name, value).isNegative();
+			Thread.sleep(1);
+		}
+	}
+}
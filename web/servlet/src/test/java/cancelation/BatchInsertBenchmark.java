@@ -0,0 +1,91 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cancelation;
+
+import static org.assertj.core.api.Assertions.*;
+
+import cancelation.ServletApplication.Event;
+import cancelation.ServletApplication.EventBatchWriter;
+import cancelation.ServletApplication.EventRepository;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.Test;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Compares rows per second of {@link EventBatchWriter} against saving events one by one through
+ * {@link EventRepository}, each in a single transaction.
+ * <p>
+ * Not part of the regular build, run with {@code -Dtest=BatchInsertBenchmark}. Tune with:
+ * <ul>
+ * <li>{@code events.benchmark.sizes}: comma-separated number of events per transaction.</li>
+ * <li>{@code events.batch-size}: JDBC batch size.</li>
+ * </ul>
+ */
+@SpringBootTest
+final class BatchInsertBenchmark {
+
+	private final List<Integer> sizes = Arrays
+			.stream(System.getProperty("events.benchmark.sizes", "10,1000,100000").split(","))
+			.map(String::trim).map(Integer::valueOf).collect(Collectors.toList());
+
+	@Autowired EventRepository eventRepository;
+	@Autowired EventBatchWriter batchWriter;
+	@Autowired TransactionTemplate transactionTemplate;
+
+	@Test
+	void compareBatchWithLoop() {
+
+		// warm up
+		measure(events -> events.forEach(eventRepository::save), 1000);
+		measure(batchWriter::insertAll, 1000);
+
+		System.out.printf("%-10s|%-14s|%-14s%n", "events", "loop (rows/s)", "batch (rows/s)");
+
+		for (int size : sizes) {
+
+			double loop = measure(events -> events.forEach(eventRepository::save), size);
+			double batch = measure(batchWriter::insertAll, size);
+
+			System.out.printf("%-10d|%-14.0f|%-14.0f%n", size, loop, batch);
+		}
+	}
+
+	private double measure(Consumer<List<Event>> save, int size) {
+
+		List<Event> events = IntStream.range(0, size).mapToObj(Event::new).collect(Collectors.toList());
+
+		long start = System.nanoTime();
+		transactionTemplate.execute(status -> {
+			save.accept(events);
+			return null;
+		});
+		long elapsed = System.nanoTime() - start;
+
+		assertThat(events).extracting(Event::getId).doesNotContainNull().doesNotHaveDuplicates();
+
+		eventRepository.deleteAll();
+		return size * 1_000_000_000d / elapsed;
+	}
+}
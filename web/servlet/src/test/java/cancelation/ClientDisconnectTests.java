@@ -0,0 +1,92 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cancelation;
+
+import static org.assertj.core.api.Assertions.*;
+
+import cancelation.ServletApplication.WebController;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
+import org.springframework.boot.web.server.LocalServerPort;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+/**
+ * Tests for {@code POST /} noticing a client that disconnects between rounds.
+ */
+@SpringBootTest(webEnvironment = WebEnvironment.RANDOM_PORT,
+		properties = { "events.round-delay=2s", "events.disconnect-probe-interval=50ms" })
+final class ClientDisconnectTests {
+
+	static final String REQUEST = "POST / HTTP/1.1\r\nHost: localhost\r\nContent-Length: 0\r\n\r\n";
+
+	@LocalServerPort int port;
+	@Autowired WebController webController;
+	@Autowired JdbcTemplate jdbcTemplate;
+
+	@BeforeEach
+	void setUp() {
+		jdbcTemplate.execute("DELETE FROM event");
+	}
+
+	@Test
+	void stopsRoundsOnceClientDisconnected() throws Exception {
+
+		try (Socket socket = new Socket("localhost", port)) {
+
+			OutputStream out = socket.getOutputStream();
+			out.write(REQUEST.getBytes(StandardCharsets.US_ASCII));
+			out.flush();
+
+			// the first probe commits the response once the first round committed
+			String head = readHead(socket.getInputStream());
+			assertThat(head).startsWith("HTTP/1.1 200").containsIgnoringCase("Content-Type: text/plain");
+		}
+
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (webController.inFlight.get() != 0) {
+
+			assertThat(System.nanoTime() - deadline).as("Waiting for the request to stop").isNegative();
+			Thread.sleep(10);
+		}
+
+		assertThat(jdbcTemplate.queryForObject("SELECT COUNT(*) FROM event", Integer.class)).isEqualTo(10);
+	}
+
+	private static String readHead(InputStream in) throws Exception {
+
+		StringBuilder head = new StringBuilder();
+
+		while (head.indexOf("\r\n\r\n") == -1) {
+
+			int next = in.read();
+			assertThat(next).as("Response ended before headers were complete").isNotEqualTo(-1);
+			head.append((char) next);
+		}
+
+		return head.toString();
+	}
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cancelation;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.HttpStatus;
+
+/**
+ * Tests for connection hold times reported by {@link ConnectionPoolMetrics}.
+ */
+@SpringBootTest(webEnvironment = WebEnvironment.RANDOM_PORT, properties = "events.round-delay=0s")
+final class ConnectionPoolMetricsTests {
+
+	@Autowired TestRestTemplate client;
+
+	@Test
+	@SuppressWarnings("unchecked")
+	void attributesHoldTimesToRequestAndTransactionalMethod() {
+
+		client.delete("/metrics/pool");
+
+		assertThat(client.postForEntity("/", null, String.class).getStatusCode()).isEqualTo(HttpStatus.OK);
+
+		Map<String, Object> holds = client.getForObject("/metrics/pool/holds", Map.class);
+		List<Map<String, Object>> holders = (List<Map<String, Object>>) holds.get("holders");
+
+		assertThat(holders).anySatisfy(holder -> {
+
+			assertThat(holder).containsEntry("request", "POST /");
+			assertThat(holder.get("method")).asString().endsWith("TransactionalService.save");
+			assertThat(holder.get("leases")).isEqualTo(6);
+		});
+	}
+}
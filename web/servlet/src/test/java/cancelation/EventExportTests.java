@@ -0,0 +1,134 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cancelation;
+
+import static org.assertj.core.api.Assertions.*;
+
+import cancelation.ServletApplication.Event;
+import cancelation.ServletApplication.EventBatchWriter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Tests for streaming all events through {@link EventExport}.
+ */
+@SpringBootTest(webEnvironment = WebEnvironment.RANDOM_PORT,
+		properties = { "events.round-delay=0s", "events.export.fetch-size=2" })
+final class EventExportTests {
+
+	@Autowired TestRestTemplate client;
+	@Autowired EventBatchWriter batchWriter;
+	@Autowired JdbcTemplate jdbcTemplate;
+	@Autowired ObjectMapper objectMapper;
+
+	@BeforeEach
+	void setUp() {
+		jdbcTemplate.execute("DELETE FROM event");
+	}
+
+	@Test
+	void exportsAllEventsAsJsonArray() throws IOException {
+
+		seed(5);
+
+		ResponseEntity<String> export = export(MediaType.APPLICATION_JSON);
+
+		assertThat(export.getHeaders().getContentType().isCompatibleWith(MediaType.APPLICATION_JSON)).isTrue();
+
+		List<Map<String, Object>> events = objectMapper.readValue(export.getBody(),
+				new TypeReference<List<Map<String, Object>>>() {});
+
+		assertThat(events).extracting(event -> event.get("id")).containsExactlyElementsOf(getIds());
+		assertThat(events).extracting(event -> event.get("counter")).containsExactly(0, 1, 2, 3, 4);
+	}
+
+	@Test
+	void exportsEmptyTableAsEmptyJsonArray() {
+		assertThat(export(MediaType.APPLICATION_JSON).getBody()).isEqualTo("[]");
+	}
+
+	@Test
+	void exportsOneEventPerNewlineTerminatedLine() throws IOException {
+
+		seed(5);
+
+		ResponseEntity<String> export = export(ServletApplication.APPLICATION_NDJSON);
+
+		assertThat(export.getHeaders().getContentType().isCompatibleWith(ServletApplication.APPLICATION_NDJSON))
+				.isTrue();
+		assertThat(export.getBody()).endsWith("}\n");
+
+		String[] lines = export.getBody().substring(0, export.getBody().length() - 1).split("\n", -1);
+		assertThat(lines).hasSize(5);
+
+		List<Map<String, Object>> events = new ArrayList<>();
+		for (String line : lines) {
+			events.add(objectMapper.readValue(line, new TypeReference<Map<String, Object>>() {}));
+		}
+
+		assertThat(events).extracting(event -> event.get("id")).containsExactlyElementsOf(getIds());
+		assertThat(events).extracting(event -> event.get("counter")).containsExactly(0, 1, 2, 3, 4);
+	}
+
+	@Test
+	void exportsEmptyTableAsEmptyNdjsonBody() {
+		assertThat(export(ServletApplication.APPLICATION_NDJSON).getBody()).isNull();
+	}
+
+	private ResponseEntity<String> export(MediaType mediaType) {
+
+		HttpHeaders headers = new HttpHeaders();
+		headers.setAccept(Collections.singletonList(mediaType));
+
+		ResponseEntity<String> export = client.exchange("/export", HttpMethod.GET, new HttpEntity<>(headers),
+				String.class);
+
+		assertThat(export.getStatusCode()).isEqualTo(HttpStatus.OK);
+		return export;
+	}
+
+	private List<Object> getIds() {
+		return new ArrayList<>(jdbcTemplate.queryForList("SELECT id FROM event ORDER BY id", Integer.class));
+	}
+
+	private void seed(int count) {
+		batchWriter.insertAll(IntStream.range(0, count).mapToObj(Event::new).collect(Collectors.toList()));
+	}
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cancelation;
+
+import static org.assertj.core.api.Assertions.*;
+
+import cancelation.EventPages.EventPage;
+import cancelation.ServletApplication.Event;
+import cancelation.ServletApplication.EventBatchWriter;
+import cancelation.ServletApplication.TransactionalService;
+import rxtx.support.ReadCache;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Tests for invalidating cached {@link EventPage event pages} once a write committed.
+ */
+@SpringBootTest(webEnvironment = WebEnvironment.RANDOM_PORT, properties = "events.round-delay=0s")
+final class EventPageCacheTests {
+
+	@Autowired TestRestTemplate client;
+	@Autowired EventBatchWriter batchWriter;
+	@Autowired TransactionalService transactionalService;
+	@Autowired PlatformTransactionManager transactionManager;
+	@Autowired JdbcTemplate jdbcTemplate;
+	@Autowired ReadCache<String, EventPage> pageCache;
+
+	@BeforeEach
+	void setUp() {
+
+		jdbcTemplate.execute("DELETE FROM event");
+		batchWriter.insertAll(IntStream.range(0, 3).mapToObj(Event::new).collect(Collectors.toList()));
+		pageCache.invalidate();
+	}
+
+	@Test
+	void keepsServingCachedPageAfterRollback() {
+
+		assertThat(getCounters()).containsExactly(0, 1, 2);
+		Map<String, Object> before = getCacheMetrics();
+
+		// the key has no completed round to advance from, so the transaction rolls back after inserting
+		assertThatExceptionOfType(OptimisticLockingFailureException.class)
+				.isThrownBy(() -> transactionalService.save(Arrays.asList(3, 4), "unknown", 1));
+
+		assertThat(getCounters()).containsExactly(0, 1, 2);
+
+		Map<String, Object> after = getCacheMetrics();
+		assertThat(delta(before, after, "invalidations")).isZero();
+		assertThat(delta(before, after, "hits")).isOne();
+		assertThat(delta(before, after, "misses")).isZero();
+	}
+
+	@Test
+	void invalidatesCachedPageOnlyOnceWriteCommitted() {
+
+		assertThat(getCounters()).containsExactly(0, 1, 2);
+		Map<String, Object> before = getCacheMetrics();
+
+		new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+
+			transactionalService.save(Arrays.asList(3, 4));
+
+			// an open transaction leaves the cached page in place
+			assertThat(getCounters()).containsExactly(0, 1, 2);
+			assertThat(delta(before, getCacheMetrics(), "invalidations")).isZero();
+		});
+
+		assertThat(getCounters()).containsExactly(0, 1, 2, 3, 4);
+
+		Map<String, Object> after = getCacheMetrics();
+		assertThat(delta(before, after, "invalidations")).isOne();
+		assertThat(delta(before, after, "hits")).isOne();
+		assertThat(delta(before, after, "misses")).isOne();
+	}
+
+	private List<Integer> getCounters() {
+
+		ResponseEntity<List<Map<String, Object>>> page = client.exchange("/?size=10", HttpMethod.GET, null,
+				new ParameterizedTypeReference<List<Map<String, Object>>>() {});
+
+		assertThat(page.getStatusCode()).isEqualTo(HttpStatus.OK);
+		return page.getBody().stream().map(event -> (Integer) event.get("counter")).collect(Collectors.toList());
+	}
+
+	private Map<String, Object> getCacheMetrics() {
+
+		ResponseEntity<Map<String, Object>> metrics = client.exchange("/metrics/cache", HttpMethod.GET, null,
+				new ParameterizedTypeReference<Map<String, Object>>() {});
+
+		assertThat(metrics.getStatusCode()).isEqualTo(HttpStatus.OK);
+		return metrics.getBody();
+	}
+
+	private static long delta(Map<String, Object> before, Map<String, Object> after, String metric) {
+		return ((Number) after.get(metric)).longValue() - ((Number) before.get(metric)).longValue();
+	}
+}
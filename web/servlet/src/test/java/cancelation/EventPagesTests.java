@@ -0,0 +1,159 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cancelation;
+
+import static org.assertj.core.api.Assertions.*;
+
+import cancelation.EventPages.Cursors;
+import cancelation.EventPages.EventPage;
+import cancelation.ServletApplication.Event;
+import cancelation.ServletApplication.EventBatchWriter;
+import rxtx.support.ReadCache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.web.server.ResponseStatusException;
+
+/**
+ * Tests for keyset pagination through {@link EventPages}.
+ */
+@SpringBootTest(webEnvironment = WebEnvironment.RANDOM_PORT, properties = "events.round-delay=0s")
+final class EventPagesTests {
+
+	static final Pattern NEXT = Pattern.compile("<([^>]+)>; rel=\"next\"");
+
+	@Autowired TestRestTemplate client;
+	@Autowired EventBatchWriter batchWriter;
+	@Autowired JdbcTemplate jdbcTemplate;
+	@Autowired ReadCache<String, EventPage> pageCache;
+
+	@BeforeEach
+	void setUp() {
+
+		jdbcTemplate.execute("DELETE FROM event");
+		pageCache.invalidate();
+	}
+
+	@Test
+	void pagesThroughAllEventsWithoutGapsOrDuplicates() {
+
+		seed(250);
+
+		List<Integer> ids = new ArrayList<>();
+		int pages = 0;
+
+		for (String uri = "/?size=100"; uri != null; pages++) {
+
+			ResponseEntity<List<Map<String, Object>>> page = get(uri);
+			page.getBody().forEach(event -> ids.add((Integer) event.get("id")));
+			uri = nextLink(page);
+		}
+
+		List<Integer> all = jdbcTemplate.queryForList("SELECT id FROM event ORDER BY id", Integer.class);
+
+		assertThat(pages).isEqualTo(3);
+		assertThat(ids).hasSize(250).containsExactlyElementsOf(all);
+	}
+
+	@Test
+	void omitsNextLinkOnLastPage() {
+
+		seed(3);
+
+		ResponseEntity<List<Map<String, Object>>> page = get("/?size=3");
+
+		assertThat(page.getBody()).hasSize(3);
+		assertThat(page.getHeaders().getFirst(HttpHeaders.LINK)).isNull();
+	}
+
+	@Test
+	void clampsPageSize() {
+
+		seed(EventPages.MAX_PAGE_SIZE + 1);
+
+		ResponseEntity<List<Map<String, Object>>> largest = get("/?size=" + (EventPages.MAX_PAGE_SIZE + 500));
+		assertThat(largest.getBody()).hasSize(EventPages.MAX_PAGE_SIZE);
+		assertThat(nextLink(largest)).endsWith("&size=" + EventPages.MAX_PAGE_SIZE);
+
+		ResponseEntity<List<Map<String, Object>>> smallest = get("/?size=0");
+		assertThat(smallest.getBody()).hasSize(1);
+		assertThat(nextLink(smallest)).endsWith("&size=1");
+	}
+
+	@Test
+	void rejectsInvalidCursor() {
+
+		assertThat(client.getForEntity("/?cursor={cursor}", String.class, "not-a-cursor").getStatusCode())
+				.isEqualTo(HttpStatus.BAD_REQUEST);
+	}
+
+	@Test
+	void encodesAndDecodesCursors() {
+
+		assertThat(Cursors.decode(Cursors.encode(42))).isEqualTo(42);
+		assertThat(Cursors.decode(null)).isZero();
+		assertThat(Cursors.decode("")).isZero();
+		assertThat(Cursors.nextLink(42, 10)).isEqualTo("</?cursor=" + Cursors.encode(42) + "&size=10>; rel=\"next\"");
+
+		assertThatExceptionOfType(ResponseStatusException.class).isThrownBy(() -> Cursors.decode("%%%"));
+		assertThatExceptionOfType(ResponseStatusException.class)
+				.isThrownBy(() -> Cursors.decode(Cursors.encode(42).substring(1)));
+	}
+
+	private void seed(int count) {
+		batchWriter.insertAll(IntStream.range(0, count).mapToObj(Event::new).collect(Collectors.toList()));
+	}
+
+	private ResponseEntity<List<Map<String, Object>>> get(String uri) {
+
+		ResponseEntity<List<Map<String, Object>>> page = client.exchange(uri, HttpMethod.GET, null,
+				new ParameterizedTypeReference<List<Map<String, Object>>>() {});
+
+		assertThat(page.getStatusCode()).isEqualTo(HttpStatus.OK);
+		return page;
+	}
+
+	private static String nextLink(ResponseEntity<?> page) {
+
+		String link = page.getHeaders().getFirst(HttpHeaders.LINK);
+		if (link == null) {
+			return null;
+		}
+
+		Matcher matcher = NEXT.matcher(link);
+		assertThat(matcher.matches()).as("Link header %s", link).isTrue();
+		return matcher.group(1);
+	}
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cancelation;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.time.Duration;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for {@link IdempotentExecutions}.
+ */
+final class IdempotentExecutionsTests {
+
+	static final int COMPLETE = 6;
+
+	IdempotentExecutions<Integer> executions = new IdempotentExecutions<>(Duration.ofHours(1), 10,
+			rounds -> rounds >= COMPLETE);
+
+	@Test
+	void replaysCompleteResults() throws Exception {
+
+		AtomicInteger runs = new AtomicInteger();
+
+		assertThat(executions.execute("key", () -> runs.incrementAndGet() + COMPLETE - 1)).isEqualTo(COMPLETE);
+		assertThat(executions.execute("key", () -> runs.incrementAndGet() + COMPLETE - 1)).isEqualTo(COMPLETE);
+
+		assertThat(runs).hasValue(1);
+		assertThat(executions.getMetrics()).containsEntry("executed", 1L).containsEntry("replayed", 1L);
+	}
+
+	@Test
+	void duplicateWaitsForCompleteResultOfExecutionInFlight() throws Exception {
+
+		CountDownLatch release = new CountDownLatch(1);
+		AtomicInteger runs = new AtomicInteger();
+
+		CompletableFuture<Integer> first = runAsync(() -> {
+			runs.incrementAndGet();
+			release.await();
+			return COMPLETE;
+		});
+		awaitMetric("inFlight", 1);
+
+		CompletableFuture<Integer> duplicate = runAsync(() -> runs.incrementAndGet() + COMPLETE);
+		awaitMetric("attached", 1L);
+		release.countDown();
+
+		assertThat(first.get(10, TimeUnit.SECONDS)).isEqualTo(COMPLETE);
+		assertThat(duplicate.get(10, TimeUnit.SECONDS)).isEqualTo(COMPLETE);
+		assertThat(runs).hasValue(1);
+		assertThat(executions.getMetrics()).containsEntry("inFlight", 0).containsEntry("executed", 1L);
+	}
+
+	@Test
+	void duplicateRunsWorkItselfAfterIncompleteResult() throws Exception {
+
+		CountDownLatch release = new CountDownLatch(1);
+
+		// e.g. stopped after three rounds because its client disconnected
+		CompletableFuture<Integer> first = runAsync(() -> {
+			release.await();
+			return 3;
+		});
+		awaitMetric("inFlight", 1);
+
+		CompletableFuture<Integer> duplicate = runAsync(() -> COMPLETE);
+		awaitMetric("attached", 1L);
+		release.countDown();
+
+		assertThat(first.get(10, TimeUnit.SECONDS)).isEqualTo(3);
+		assertThat(duplicate.get(10, TimeUnit.SECONDS)).isEqualTo(COMPLETE);
+		assertThat(executions.getMetrics()).containsEntry("executed", 2L).containsEntry("cached", 1);
+	}
+
+	@Test
+	void duplicateRunsWorkItselfAfterFailure() throws Exception {
+
+		CountDownLatch release = new CountDownLatch(1);
+
+		CompletableFuture<Integer> first = runAsync(() -> {
+			release.await();
+			throw new IllegalStateException("Round failed");
+		});
+		awaitMetric("inFlight", 1);
+
+		CompletableFuture<Integer> duplicate = runAsync(() -> COMPLETE);
+		awaitMetric("attached", 1L);
+		release.countDown();
+
+		assertThatThrownBy(() -> first.get(10, TimeUnit.SECONDS)).hasCauseInstanceOf(IllegalStateException.class);
+		assertThat(duplicate.get(10, TimeUnit.SECONDS)).isEqualTo(COMPLETE);
+		assertThat(executions.getMetrics()).containsEntry("executed", 2L);
+	}
+
+	@Test
+	void rejectsInvalidKeys() {
+		assertThatThrownBy(() -> IdempotentExecutions.validate("")).hasMessageContaining("400 BAD_REQUEST");
+	}
+
+	private CompletableFuture<Integer> runAsync(Callable<Integer> work) {
+
+		CompletableFuture<Integer> result = new CompletableFuture<>();
+
+		new Thread(() -> {
+			try {
+				result.complete(executions.execute("key", work));
+			} catch (Exception e) {
+				result.completeExceptionally(e);
+			}
+		}).start();
+
+		return result;
+	}
+
+	private void awaitMetric(String name, Object value) throws InterruptedException {
+
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+
+		while (!value.equals(executions.getMetrics().get(name))) {
+
+			assertThat(System.nanoTime() - deadline).as("Waiting for %s to become %s", name, value).isNegative();
+			Thread.sleep(1);
+		}
+	}
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cancelation;
+
+import static org.assertj.core.api.Assertions.*;
+
+import cancelation.ServletApplication.TransactionalService;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+/**
+ * Tests for {@code POST /} requests carrying an {@code Idempotency-Key} header.
+ */
+@SpringBootTest(webEnvironment = WebEnvironment.RANDOM_PORT,
+		properties = { "events.round-delay=100ms", "events.idempotency.ttl=1s" })
+final class IdempotentSavesTests {
+
+	@Autowired TestRestTemplate client;
+	@Autowired TransactionalService transactionalService;
+	@Autowired JdbcTemplate jdbcTemplate;
+
+	@BeforeEach
+	void setUp() {
+		jdbcTemplate.execute("DELETE FROM event");
+		jdbcTemplate.execute("DELETE FROM idempotency_key");
+	}
+
+	@Test
+	void replaysCompletedKey() {
+
+		Map<String, Object> before = metrics();
+
+		assertThat(save("replay").getStatusCode()).isEqualTo(HttpStatus.OK);
+		assertThat(save("replay").getStatusCode()).isEqualTo(HttpStatus.OK);
+
+		assertThat(countEvents()).isEqualTo(60);
+		assertThat(delta(before, "executed")).isEqualTo(1);
+		assertThat(delta(before, "replayed")).isEqualTo(1);
+	}
+
+	@Test
+	void concurrentDuplicateAttachesToExecutionInFlight() throws Exception {
+
+		Map<String, Object> before = metrics();
+
+		CompletableFuture<ResponseEntity<String>> first = CompletableFuture.supplyAsync(() -> save("concurrent"));
+		awaitInFlight();
+		CompletableFuture<ResponseEntity<String>> duplicate = CompletableFuture.supplyAsync(() -> save("concurrent"));
+
+		assertThat(first.get(10, TimeUnit.SECONDS).getStatusCode()).isEqualTo(HttpStatus.OK);
+		assertThat(duplicate.get(10, TimeUnit.SECONDS).getStatusCode()).isEqualTo(HttpStatus.OK);
+
+		assertThat(countEvents()).isEqualTo(60);
+		assertThat(delta(before, "executed")).isEqualTo(1);
+		assertThat(delta(before, "attached")).isEqualTo(1);
+	}
+
+	@Test
+	void retryResumesAfterCommittedRounds() {
+
+		// rounds committed by an earlier request for the key, e.g. on another instance before its client disconnected
+		transactionalService.save(range(0, 10), "resume", 0);
+		transactionalService.save(range(10, 20), "resume", 1);
+
+		assertThat(save("resume").getStatusCode()).isEqualTo(HttpStatus.OK);
+
+		assertThat(jdbcTemplate.queryForList("SELECT counter FROM event ORDER BY counter", Integer.class))
+				.containsExactlyElementsOf(range(0, 60));
+		assertThat(transactionalService.getCompletedRounds("resume")).isEqualTo(6);
+	}
+
+	@Test
+	void expiredKeyIsCheckedAgainstDatabase() throws InterruptedException {
+
+		Map<String, Object> before = metrics();
+
+		assertThat(save("expire").getStatusCode()).isEqualTo(HttpStatus.OK);
+		Thread.sleep(1500);
+		assertThat(save("expire").getStatusCode()).isEqualTo(HttpStatus.OK);
+
+		// the second execution finds all rounds committed and saves nothing
+		assertThat(countEvents()).isEqualTo(60);
+		assertThat(delta(before, "executed")).isEqualTo(2);
+		assertThat(delta(before, "replayed")).isEqualTo(0);
+	}
+
+	@Test
+	void rejectsInvalidKey() {
+		assertThat(save("").getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST);
+	}
+
+	private ResponseEntity<String> save(String idempotencyKey) {
+
+		HttpHeaders headers = new HttpHeaders();
+		headers.set("Idempotency-Key", idempotencyKey);
+
+		return client.exchange("/", HttpMethod.POST, new HttpEntity<>(headers), String.class);
+	}
+
+	@SuppressWarnings("unchecked")
+	private Map<String, Object> metrics() {
+		return client.getForObject("/metrics/idempotency", Map.class);
+	}
+
+	private long delta(Map<String, Object> before, String metric) {
+		return ((Number) metrics().get(metric)).longValue() - ((Number) before.get(metric)).longValue();
+	}
+
+	private void awaitInFlight() throws InterruptedException {
+
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+
+		while (((Number) metrics().get("inFlight")).intValue() == 0) {
+
+			assertThat(System.nanoTime() - deadline).as("Waiting for an execution in flight").isNegative();
+			Thread.sleep(10);
+		}
+	}
+
+	private int countEvents() {
+		return jdbcTemplate.queryForObject("SELECT COUNT(*) FROM event", Integer.class);
+	}
+
+	private static List<Integer> range(int from, int to) {
+		return IntStream.range(from, to).boxed().collect(Collectors.toList());
+	}
+}
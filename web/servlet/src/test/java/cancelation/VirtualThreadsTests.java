@@ -0,0 +1,69 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cancelation;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.*;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.ApplicationContext;
+
+/**
+ * Tests for {@code events.virtual-threads=true}, on JVMs with and without virtual threads.
+ */
+@SpringBootTest(properties = "events.virtual-threads=true")
+final class VirtualThreadsTests {
+
+	@Autowired ApplicationContext context;
+	@Autowired AdmissionControl admissionControl;
+	@Autowired Metrics.MetricsController metricsController;
+
+	@Test
+	void fallsBackToPlatformThreadsBeforeJdk21() {
+
+		assumeFalse(VirtualThreads.isSupported(), "JVM supports virtual threads");
+
+		assertThat(context.getBeanNamesForType(TomcatProtocolHandlerCustomizer.class)).isEmpty();
+		assertThat(admissionControl.getMetrics()).containsEntry("maxConcurrent", 10);
+		assertThat(metricsController.threadMetrics()).containsEntry("virtualThreads", false);
+		assertThatIllegalStateException().isThrownBy(VirtualThreads::newExecutor).withMessageContaining("JDK 21");
+	}
+
+	@Test
+	void servesRequestsOnVirtualThreads() throws Exception {
+
+		assumeTrue(VirtualThreads.isSupported(), "JVM does not support virtual threads");
+
+		assertThat(context.getBeanNamesForType(TomcatProtocolHandlerCustomizer.class)).hasSize(1);
+		assertThat(admissionControl.getMetrics()).containsEntry("maxConcurrent", Integer.MAX_VALUE);
+		assertThat(metricsController.threadMetrics()).containsEntry("virtualThreads", true);
+
+		ExecutorService executor = VirtualThreads.newExecutor();
+		try {
+			assertThat(executor.submit(() -> Thread.class.getMethod("isVirtual").invoke(Thread.currentThread()))
+					.get(5, TimeUnit.SECONDS)).isEqualTo(true);
+		} finally {
+			executor.shutdown();
+		}
+	}
+}
@@ -0,0 +1,251 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cancelation;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Non-blocking admission control limiting the number of concurrent units of work, typically to the capacity of the
+ * connection pool. Work exceeding the limit waits in a bounded queue for at most {@code maxWait}. Work that finds the
+ * queue full or times out is rejected with {@link RejectedException} instead of piling up behind the pool.
+ */
+final class AdmissionControl {
+
+	private final int maxConcurrent;
+	private final int maxQueue;
+	private final Duration maxWait;
+	private final Duration retryAfter;
+
+	private final Deque<Waiter> waiters = new ArrayDeque<>();
+	private int inFlight;
+
+	private final AtomicLong admitted = new AtomicLong();
+	private final AtomicLong rejected = new AtomicLong();
+	private final AtomicLong queued = new AtomicLong();
+	private final AtomicLong totalQueueTime = new AtomicLong();
+	private final AtomicLong maxQueueTime = new AtomicLong();
+
+	AdmissionControl(int maxConcurrent, int maxQueue, Duration maxWait, Duration retryAfter) {
+		this.maxConcurrent = maxConcurrent;
+		this.maxQueue = maxQueue;
+		this.maxWait = maxWait;
+		this.retryAfter = retryAfter;
+	}
+
+	/**
+	 * Run {@code work} once admitted. The permit is returned when {@code work} terminates or is cancelled.
+	 */
+	<T> Flux<T> admit(Flux<T> work) {
+
+		return Flux.defer(() -> {
+
+			Waiter waiter = new Waiter();
+			return acquire(waiter).thenMany(work).doFinally(signal -> finish(waiter));
+		});
+	}
+
+	/**
+	 * Run {@code work} once admitted, see {@link #admit(Flux)}.
+	 */
+	<T> Mono<T> admit(Mono<T> work) {
+		return admit(work.flux()).singleOrEmpty();
+	}
+
+	private Mono<Void> acquire(Waiter waiter) {
+
+		Mono<Void> acquire = Mono.create(sink -> {
+
+			// leave the queue right when timing out instead of once the rejection was handled downstream
+			sink.onCancel(() -> finish(waiter));
+
+			boolean immediate;
+
+			synchronized (this) {
+
+				if (inFlight < maxConcurrent) {
+					inFlight++;
+					immediate = true;
+				} else if (waiters.size() < maxQueue) {
+					waiter.enqueue(sink);
+					waiters.addLast(waiter);
+					immediate = false;
+				} else {
+					rejected.incrementAndGet();
+					sink.error(new RejectedException(retryAfter));
+					return;
+				}
+			}
+
+			if (!immediate) {
+				queued.incrementAndGet();
+				return;
+			}
+
+			if (!waiter.admit()) {
+				// finished concurrently, pass the permit on
+				release();
+				return;
+			}
+
+			admitted.incrementAndGet();
+			sink.success();
+		});
+
+		return acquire.timeout(maxWait).onErrorMap(TimeoutException.class, e -> {
+			rejected.incrementAndGet();
+			return new RejectedException(retryAfter);
+		});
+	}
+
+	/**
+	 * Return the permit of {@code waiter} if it was admitted, otherwise leave the queue. Admission and finishing race
+	 * when a permit is handed over to a waiter that gets cancelled or times out, {@link Waiter} decides atomically
+	 * which side owns the permit. Calling it again for a finished waiter has no effect.
+	 */
+	private void finish(Waiter waiter) {
+
+		if (waiter.finish()) {
+			release();
+			return;
+		}
+
+		boolean removed;
+		synchronized (this) {
+			removed = waiters.remove(waiter);
+		}
+
+		if (removed) {
+			recordQueueTime(waiter);
+		}
+	}
+
+	private void release() {
+
+		while (true) {
+
+			Waiter next;
+			synchronized (this) {
+
+				next = waiters.pollFirst();
+				if (next == null) {
+					inFlight--;
+					return;
+				}
+			}
+
+			// hand the permit over unless the waiter finished concurrently
+			if (next.admit()) {
+
+				recordQueueTime(next);
+				admitted.incrementAndGet();
+				next.sink.success();
+				return;
+			}
+		}
+	}
+
+	private void recordQueueTime(Waiter waiter) {
+
+		long queueTime = System.nanoTime() - waiter.enqueuedAt;
+		totalQueueTime.addAndGet(queueTime);
+		maxQueueTime.accumulateAndGet(queueTime, Math::max);
+	}
+
+	Map<String, Object> getMetrics() {
+
+		int inFlight, waiting;
+		synchronized (this) {
+			inFlight = this.inFlight;
+			waiting = this.waiters.size();
+		}
+
+		long queued = this.queued.get();
+
+		Map<String, Object> metrics = new LinkedHashMap<>();
+		metrics.put("maxConcurrent", maxConcurrent);
+		metrics.put("maxQueue", maxQueue);
+		metrics.put("inFlight", inFlight);
+		metrics.put("waiting", waiting);
+		metrics.put("admitted", admitted.get());
+		metrics.put("queued", queued);
+		metrics.put("rejected", rejected.get());
+		metrics.put("meanQueueTimeMillis", queued == 0 ? 0 : totalQueueTime.get() / queued / 1_000_000);
+		metrics.put("maxQueueTimeMillis", maxQueueTime.get() / 1_000_000);
+		return metrics;
+	}
+
+	/**
+	 * Admission state of a unit of work. Both admission and finishing the work move the state at most once, so the
+	 * permit is returned exactly once no matter which of them wins.
+	 */
+	static class Waiter {
+
+		static final int WAITING = 0, ADMITTED = 1, FINISHED = 2;
+
+		final AtomicInteger state = new AtomicInteger(WAITING);
+
+		// guarded by AdmissionControl
+		MonoSink<Void> sink;
+		long enqueuedAt;
+
+		void enqueue(MonoSink<Void> sink) {
+			this.sink = sink;
+			this.enqueuedAt = System.nanoTime();
+		}
+
+		/**
+		 * @return {@literal true} if the waiter now holds the permit, {@literal false} if it finished already.
+		 */
+		boolean admit() {
+			return state.compareAndSet(WAITING, ADMITTED);
+		}
+
+		/**
+		 * @return {@literal true} if the waiter held a permit that must be returned.
+		 */
+		boolean finish() {
+			return state.getAndSet(FINISHED) == ADMITTED;
+		}
+	}
+
+	/**
+	 * Exception signalling that work was not admitted and should be retried after {@link #getRetryAfter()}.
+	 */
+	static class RejectedException extends RuntimeException {
+
+		private final Duration retryAfter;
+
+		RejectedException(Duration retryAfter) {
+			super("Capacity exceeded, retry after " + retryAfter);
+			this.retryAfter = retryAfter;
+		}
+
+		Duration getRetryAfter() {
+			return retryAfter;
+		}
+	}
+}
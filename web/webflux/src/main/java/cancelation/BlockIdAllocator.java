@@ -0,0 +1,122 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cancelation;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Hi/lo id allocator handing out ids from blocks reserved in a database sequence. The sequence is incremented by
+ * {@code blockSize}, so each value it returns reserves the ids {@code [value, value + blockSize)} for this allocator
+ * alone, also across application instances. Ids are assigned without a round trip until the current block is used up.
+ * Unused ids of a block are lost on shutdown, leaving gaps. Allocations running out of ids concurrently each fetch a
+ * block, only the larger remainder is kept.
+ */
+final class BlockIdAllocator {
+
+	private final int blockSize;
+	private final Supplier<Mono<Integer>> nextBlock;
+
+	private int next;
+	private int limit;
+
+	private final AtomicLong blocks = new AtomicLong();
+	private final AtomicLong allocated = new AtomicLong();
+
+	/**
+	 * @param blockSize must match the increment of the sequence.
+	 * @param nextBlock fetches the next value of the sequence.
+	 */
+	BlockIdAllocator(int blockSize, Supplier<Mono<Integer>> nextBlock) {
+		this.blockSize = blockSize;
+		this.nextBlock = nextBlock;
+	}
+
+	/**
+	 * Allocate {@code count} unique ids, fetching as many blocks as required.
+	 */
+	Mono<List<Integer>> allocate(int count) {
+
+		return Mono.defer(() -> {
+
+			List<Integer> ids = new ArrayList<>(count);
+			take(ids, count);
+
+			int missing = count - ids.size();
+			if (missing == 0) {
+				return Mono.just(ids);
+			}
+
+			int required = (missing + blockSize - 1) / blockSize;
+
+			return Flux.range(0, required) //
+					.concatMap(it -> nextBlock.get()) //
+					.doOnNext(it -> blocks.incrementAndGet()) //
+					.collectList() //
+					.map(starts -> {
+
+						for (int start : starts.subList(0, starts.size() - 1)) {
+							for (int id = start; id < start + blockSize; id++) {
+								ids.add(id);
+							}
+						}
+
+						int last = starts.get(starts.size() - 1);
+						int used = count - ids.size();
+						for (int id = last; id < last + used; id++) {
+							ids.add(id);
+						}
+
+						// keep the remainder for subsequent allocations unless a concurrent allocation left a larger one
+						synchronized (this) {
+							if (blockSize - used > limit - next) {
+								next = last + used;
+								limit = last + blockSize;
+							}
+						}
+
+						allocated.addAndGet(missing);
+						return ids;
+					});
+		});
+	}
+
+	private synchronized void take(List<Integer> ids, int count) {
+
+		int available = Math.min(count, limit - next);
+		for (int i = 0; i < available; i++) {
+			ids.add(next++);
+		}
+
+		allocated.addAndGet(available);
+	}
+
+	Map<String, Object> getMetrics() {
+
+		Map<String, Object> metrics = new LinkedHashMap<>();
+		metrics.put("blockSize", blockSize);
+		metrics.put("blocks", blocks.get());
+		metrics.put("allocated", allocated.get());
+		return metrics;
+	}
+}
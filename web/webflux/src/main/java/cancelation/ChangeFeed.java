@@ -0,0 +1,142 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cancelation;
+
+import reactor.core.publisher.BufferOverflowStrategy;
+import reactor.core.publisher.DirectProcessor;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-process fan-out of committed changes to any number of subscribers. Each subscriber gets its own bounded buffer so
+ * a slow subscriber neither slows down publishers nor other subscribers. When a buffer overflows, the subscriber either
+ * loses its oldest pending changes ({@link OverflowPolicy#DROP}) or is terminated with an error
+ * ({@link OverflowPolicy#DISCONNECT}) so it can reconnect and resume.
+ * <p>
+ * Changes are published with the commit position of their transaction and emitted in position order. A transaction
+ * {@link #reserve(long) reserves} its position before it commits, so changes of a later commit are held back until the
+ * reserved position was either published or {@link #cancel(long) canceled}.
+ *
+ * @param <T> change type.
+ */
+final class ChangeFeed<T> {
+
+	private final DirectProcessor<T> processor = DirectProcessor.create();
+	private final FluxSink<T> sink = processor.sink();
+	private final int bufferSize;
+	private final OverflowPolicy overflowPolicy;
+
+	// changes by commit position, null while reserved
+	private final NavigableMap<Long, Collection<? extends T>> pending = new TreeMap<>();
+
+	private final AtomicInteger subscribers = new AtomicInteger();
+	private final AtomicLong published = new AtomicLong();
+	private final AtomicLong dropped = new AtomicLong();
+	private final AtomicLong disconnected = new AtomicLong();
+
+	ChangeFeed(int bufferSize, OverflowPolicy overflowPolicy) {
+		this.bufferSize = bufferSize;
+		this.overflowPolicy = overflowPolicy;
+	}
+
+	/**
+	 * Hold back changes published with a position after {@code position} until it was published or canceled.
+	 */
+	void reserve(long position) {
+
+		synchronized (pending) {
+			pending.put(position, null);
+		}
+	}
+
+	/**
+	 * Publish committed {@code changes} to all current subscribers once all reserved positions before
+	 * {@code position} were published or canceled.
+	 */
+	void publish(long position, Collection<? extends T> changes) {
+
+		synchronized (pending) {
+			pending.put(position, changes);
+			drain();
+		}
+	}
+
+	/**
+	 * Release a {@link #reserve(long) reserved} {@code position} whose transaction did not commit.
+	 */
+	void cancel(long position) {
+
+		synchronized (pending) {
+			pending.remove(position);
+			drain();
+		}
+	}
+
+	private void drain() {
+
+		while (!pending.isEmpty() && pending.firstEntry().getValue() != null) {
+
+			Collection<? extends T> changes = pending.pollFirstEntry().getValue();
+			for (T change : changes) {
+				sink.next(change);
+			}
+
+			published.addAndGet(changes.size());
+		}
+	}
+
+	/**
+	 * @return changes published from now on.
+	 */
+	Flux<T> subscribe() {
+
+		Flux<T> changes = overflowPolicy == OverflowPolicy.DROP
+				? processor.onBackpressureBuffer(bufferSize, it -> dropped.incrementAndGet(),
+						BufferOverflowStrategy.DROP_OLDEST)
+				: processor.onBackpressureBuffer(bufferSize, it -> disconnected.incrementAndGet(),
+						BufferOverflowStrategy.ERROR);
+
+		return changes.doOnSubscribe(it -> subscribers.incrementAndGet())
+				.doFinally(signal -> subscribers.decrementAndGet());
+	}
+
+	Map<String, Object> getMetrics() {
+
+		Map<String, Object> metrics = new LinkedHashMap<>();
+		metrics.put("subscribers", subscribers.get());
+		metrics.put("published", published.get());
+		metrics.put("dropped", dropped.get());
+		metrics.put("disconnected", disconnected.get());
+		synchronized (pending) {
+			metrics.put("pending", pending.size());
+		}
+		metrics.put("bufferSize", bufferSize);
+		metrics.put("overflowPolicy", overflowPolicy);
+		return metrics;
+	}
+
+	enum OverflowPolicy {
+		DROP, DISCONNECT
+	}
+}
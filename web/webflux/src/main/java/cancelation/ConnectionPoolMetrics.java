@@ -0,0 +1,316 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cancelation;
+
+import io.r2dbc.spi.Batch;
+import io.r2dbc.spi.Connection;
+import io.r2dbc.spi.ConnectionFactory;
+import io.r2dbc.spi.ConnectionFactoryMetadata;
+import io.r2dbc.spi.ConnectionMetadata;
+import io.r2dbc.spi.IsolationLevel;
+import io.r2dbc.spi.Statement;
+import io.r2dbc.spi.ValidationDepth;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.util.context.Context;
+import rxtx.support.ConnectionHoldTimes;
+import rxtx.support.LatencyHistogram;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.reactivestreams.Publisher;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.lang.Nullable;
+import org.springframework.transaction.ReactiveTransaction;
+import org.springframework.transaction.ReactiveTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.web.filter.reactive.ServerWebExchangeContextFilter;
+import org.springframework.web.reactive.HandlerMapping;
+
+/**
+ * Records how long subscribers wait for a connection from the {@link ConnectionFactory}, typically a connection pool,
+ * and how long they hold it. A growing wait means the pool, not the database, limits throughput, long holds show who
+ * keeps connections from others. Decorates each {@link ConnectionFactory} bean.
+ * <p>
+ * Leases are attributed to the request and the transactional method found in the subscriber context when the
+ * connection is acquired. The request is put there by {@link ServerWebExchangeContextFilter}, the transactional method
+ * by decorating the {@link ReactiveTransactionManager}.
+ */
+final class ConnectionPoolMetrics implements BeanPostProcessor {
+
+	private static final String TRANSACTION_CONTEXT_KEY = ConnectionPoolMetrics.class.getName() + ".TRANSACTION";
+
+	private final LatencyHistogram acquire = new LatencyHistogram();
+	private final AtomicInteger pending = new AtomicInteger();
+	private final ConnectionHoldTimes holds;
+
+	/**
+	 * @param longestLeases number of longest connection leases to keep.
+	 */
+	ConnectionPoolMetrics(int longestLeases) {
+		this.holds = new ConnectionHoldTimes(longestLeases);
+	}
+
+	@Override
+	public Object postProcessAfterInitialization(Object bean, String beanName) {
+
+		if (bean instanceof ConnectionFactory && !(bean instanceof TimedConnectionFactory)) {
+			return new TimedConnectionFactory((ConnectionFactory) bean);
+		}
+
+		if (bean instanceof ReactiveTransactionManager && !(bean instanceof TrackingTransactionManager)) {
+			return new TrackingTransactionManager((ReactiveTransactionManager) bean);
+		}
+
+		return bean;
+	}
+
+	/**
+	 * Discard recorded wait and hold times, e.g. between load test runs.
+	 */
+	void reset() {
+		acquire.reset();
+		holds.reset();
+	}
+
+	Map<String, Object> getMetrics() {
+
+		Map<String, Object> metrics = new LinkedHashMap<>();
+		metrics.put("pending", pending.get());
+		metrics.put("acquired", acquire.getCount());
+		metrics.put("acquireP50Micros", acquire.getPercentile(50).toNanos() / 1000);
+		metrics.put("acquireP99Micros", acquire.getPercentile(99).toNanos() / 1000);
+		metrics.put("acquireMaxMicros", acquire.getPercentile(100).toNanos() / 1000);
+		metrics.putAll(holds.getSummary());
+		return metrics;
+	}
+
+	/**
+	 * @return hold times per request and transactional method and the longest leases.
+	 */
+	Map<String, Object> getHoldMetrics() {
+		return holds.getMetrics();
+	}
+
+	/**
+	 * @return the HTTP method and the matched pattern of the request in {@code context}.
+	 */
+	@Nullable
+	private static String requestOf(Context context) {
+
+		return ServerWebExchangeContextFilter.get(context).map(exchange -> {
+
+			Object pattern = exchange.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+			String path = pattern != null ? pattern.toString() : ConnectionHoldTimes.UNKNOWN;
+
+			return exchange.getRequest().getMethodValue() + " " + (path.isEmpty() ? "/" : path);
+		}).orElse(null);
+	}
+
+	/**
+	 * @return the transactional method without package, e.g. {@code WebfluxApplication.TransactionalService.save}.
+	 */
+	private static String nameOf(TransactionDefinition definition) {
+
+		String name = definition.getName();
+		if (name == null) {
+			return ConnectionHoldTimes.UNKNOWN;
+		}
+
+		int type = name.lastIndexOf('.', name.lastIndexOf('.') - 1);
+		return name.substring(type + 1).replace('$', '.');
+	}
+
+	/**
+	 * Puts the transactional method into the subscriber context of beginning a transaction, which acquires the
+	 * connection.
+	 */
+	static class TrackingTransactionManager implements ReactiveTransactionManager {
+
+		private final ReactiveTransactionManager delegate;
+
+		TrackingTransactionManager(ReactiveTransactionManager delegate) {
+			this.delegate = delegate;
+		}
+
+		@Override
+		public Mono<ReactiveTransaction> getReactiveTransaction(@Nullable TransactionDefinition definition) {
+
+			String name = nameOf(definition != null ? definition : TransactionDefinition.withDefaults());
+
+			return delegate.getReactiveTransaction(definition) //
+					.subscriberContext(context -> context.put(TRANSACTION_CONTEXT_KEY, name));
+		}
+
+		@Override
+		public Mono<Void> commit(ReactiveTransaction transaction) {
+			return delegate.commit(transaction);
+		}
+
+		@Override
+		public Mono<Void> rollback(ReactiveTransaction transaction) {
+			return delegate.rollback(transaction);
+		}
+	}
+
+	/**
+	 * Times {@link #create()} from subscription until a connection is emitted and returns connections that record their
+	 * hold time when closed. Disposes a pooled delegate on shutdown as the decorator hides its destroy method.
+	 */
+	class TimedConnectionFactory implements ConnectionFactory, DisposableBean {
+
+		private final ConnectionFactory delegate;
+
+		TimedConnectionFactory(ConnectionFactory delegate) {
+			this.delegate = delegate;
+		}
+
+		@Override
+		public Publisher<? extends Connection> create() {
+
+			return Mono.subscriberContext().flatMap(context -> {
+
+				long start = System.nanoTime();
+				pending.incrementAndGet();
+
+				return Mono.from(delegate.create()) //
+						.doOnNext(connection -> acquire.record(System.nanoTime() - start)) //
+						.map(connection -> new TimedConnection(connection, requestOf(context),
+								context.getOrDefault(TRANSACTION_CONTEXT_KEY, null))) //
+						.doFinally(signal -> pending.decrementAndGet());
+			});
+		}
+
+		@Override
+		public ConnectionFactoryMetadata getMetadata() {
+			return delegate.getMetadata();
+		}
+
+		@Override
+		public void destroy() throws Exception {
+
+			if (delegate instanceof DisposableBean) {
+				((DisposableBean) delegate).destroy();
+			} else if (delegate instanceof Disposable) {
+				((Disposable) delegate).dispose();
+			}
+		}
+	}
+
+	/**
+	 * Records the time from acquisition until {@link #close()} completes.
+	 */
+	class TimedConnection implements Connection {
+
+		private final Connection delegate;
+		private final long acquiredAt = System.nanoTime();
+		private final @Nullable String request;
+		private final @Nullable String method;
+		private final AtomicBoolean released = new AtomicBoolean();
+
+		TimedConnection(Connection delegate, @Nullable String request, @Nullable String method) {
+			this.delegate = delegate;
+			this.request = request;
+			this.method = method;
+		}
+
+		@Override
+		public Publisher<Void> close() {
+
+			return Mono.from(delegate.close()).doFinally(signal -> {
+
+				if (released.compareAndSet(false, true)) {
+					holds.record(request, method, System.nanoTime() - acquiredAt);
+				}
+			});
+		}
+
+		@Override
+		public Publisher<Void> beginTransaction() {
+			return delegate.beginTransaction();
+		}
+
+		@Override
+		public Publisher<Void> commitTransaction() {
+			return delegate.commitTransaction();
+		}
+
+		@Override
+		public Batch createBatch() {
+			return delegate.createBatch();
+		}
+
+		@Override
+		public Publisher<Void> createSavepoint(String name) {
+			return delegate.createSavepoint(name);
+		}
+
+		@Override
+		public Statement createStatement(String sql) {
+			return delegate.createStatement(sql);
+		}
+
+		@Override
+		public boolean isAutoCommit() {
+			return delegate.isAutoCommit();
+		}
+
+		@Override
+		public ConnectionMetadata getMetadata() {
+			return delegate.getMetadata();
+		}
+
+		@Override
+		public IsolationLevel getTransactionIsolationLevel() {
+			return delegate.getTransactionIsolationLevel();
+		}
+
+		@Override
+		public Publisher<Void> releaseSavepoint(String name) {
+			return delegate.releaseSavepoint(name);
+		}
+
+		@Override
+		public Publisher<Void> rollbackTransaction() {
+			return delegate.rollbackTransaction();
+		}
+
+		@Override
+		public Publisher<Void> rollbackTransactionToSavepoint(String name) {
+			return delegate.rollbackTransactionToSavepoint(name);
+		}
+
+		@Override
+		public Publisher<Void> setAutoCommit(boolean autoCommit) {
+			return delegate.setAutoCommit(autoCommit);
+		}
+
+		@Override
+		public Publisher<Void> setTransactionIsolationLevel(IsolationLevel isolationLevel) {
+			return delegate.setTransactionIsolationLevel(isolationLevel);
+		}
+
+		@Override
+		public Publisher<Boolean> validate(ValidationDepth depth) {
+			return delegate.validate(depth);
+		}
+	}
+}
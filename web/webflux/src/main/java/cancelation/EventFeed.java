@@ -0,0 +1,166 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cancelation;
+
+import cancelation.WebfluxApplication.Event;
+import cancelation.WebfluxApplication.EventRepository;
+import reactor.core.publisher.Flux;
+import reactor.util.function.Tuple2;
+import reactor.util.function.Tuples;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+
+/**
+ * Stream of committed events. Events are published to a {@link ChangeFeed} once their transaction has committed and
+ * replayed from the database for clients resuming after a given commit position.
+ */
+@Configuration
+class EventFeed {
+
+	/**
+	 * Feed of committed events, see {@link EventFeedService#changes(String)}.
+	 */
+	@Bean
+	ChangeFeed<Event> eventChangeFeed(@Value("${events.feed.buffer-size:256}") int bufferSize,
+			@Value("${events.feed.overflow:drop}") String overflow) {
+		return new ChangeFeed<>(bufferSize, ChangeFeed.OverflowPolicy.valueOf(overflow.toUpperCase(Locale.ROOT)));
+	}
+
+	@RestController
+	static class EventFeedController {
+
+		final EventFeedService eventFeed;
+
+		EventFeedController(EventFeedService eventFeed) {
+			this.eventFeed = eventFeed;
+		}
+
+		/**
+		 * Stream committed events as Server-Sent Events. Reconnecting clients resume after the event id sent as
+		 * {@code Last-Event-ID} header or {@code lastId} parameter.
+		 */
+		@GetMapping(path = "/events/feed", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+		Flux<ServerSentEvent<Event>> changes(
+				@RequestHeader(name = "Last-Event-ID", required = false) String lastEventId,
+				@RequestParam(required = false) String lastId) {
+
+			return eventFeed.changes(lastEventId != null ? lastEventId : lastId) //
+					.map(event -> ServerSentEvent.builder(event).id(FeedIds.encode(event)).build());
+		}
+	}
+
+	@Component
+	public static class EventFeedService {
+
+		private final EventRepository eventRepository;
+		private final ChangeFeed<Event> eventFeed;
+
+		EventFeedService(EventRepository eventRepository, ChangeFeed<Event> eventFeed) {
+			this.eventRepository = eventRepository;
+			this.eventFeed = eventFeed;
+		}
+
+		/**
+		 * Stream events once their transaction has committed. With {@code lastId}, events committed after that feed
+		 * id are replayed from the database first. The live feed is subscribed before the replay starts so no commit is
+		 * missed. Live events are buffered until the replay completes and then skipped if the replay already covered
+		 * them. Both are ordered by commit position and id, so a live event is covered exactly if it does not come
+		 * after the last replayed one.
+		 *
+		 * @throws ResponseStatusException if {@code lastId} is not a feed id.
+		 */
+		public Flux<Event> changes(@Nullable String lastId) {
+
+			if (lastId == null) {
+				return eventFeed.subscribe();
+			}
+
+			Tuple2<Long, Integer> after = FeedIds.decode(lastId);
+
+			return Flux.defer(() -> {
+
+				AtomicReference<Tuple2<Long, Integer>> replayed = new AtomicReference<>(after);
+
+				Flux<Tuple2<Boolean, Event>> replay = eventRepository
+						.findAllCommittedAfter(after.getT1(), after.getT2()) //
+						.doOnNext(it -> replayed.set(FeedIds.of(it))) //
+						.map(it -> Tuples.of(true, it));
+				Flux<Tuple2<Boolean, Event>> live = eventFeed.subscribe().map(it -> Tuples.of(false, it));
+
+				// mergeSequential emits live events only after the replay completed, filter them at that point
+				return Flux.mergeSequential(replay, live) //
+						.filter(it -> it.getT1() || FeedIds.isAfter(it.getT2(), replayed.get())) //
+						.map(Tuple2::getT2);
+			});
+		}
+	}
+
+	/**
+	 * Feed ids, the commit position and id of an event as {@code <position>:<id>}.
+	 */
+	static final class FeedIds {
+
+		private FeedIds() {}
+
+		static Tuple2<Long, Integer> of(Event event) {
+			return Tuples.of(event.getCommitPosition(), event.getId());
+		}
+
+		static boolean isAfter(Event event, Tuple2<Long, Integer> feedId) {
+
+			int position = Long.compare(event.getCommitPosition(), feedId.getT1());
+			return position > 0 || position == 0 && event.getId() > feedId.getT2();
+		}
+
+		static String encode(Event event) {
+			return event.getCommitPosition() + ":" + event.getId();
+		}
+
+		/**
+		 * @throws ResponseStatusException if {@code feedId} cannot be decoded.
+		 */
+		static Tuple2<Long, Integer> decode(String feedId) {
+
+			int separator = feedId.indexOf(':');
+
+			try {
+				if (separator != -1) {
+					return Tuples.of(Long.parseLong(feedId.substring(0, separator)),
+							Integer.parseInt(feedId.substring(separator + 1)));
+				}
+			} catch (NumberFormatException e) {
+				// fall through
+			}
+
+			throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid event id: " + feedId);
+		}
+	}
+}
@@ -0,0 +1,230 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cancelation;
+
+import cancelation.WebfluxApplication.Event;
+import cancelation.WebfluxApplication.EventRepository;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import rxtx.support.ReadCache;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+
+/**
+ * Pages of events using keyset pagination, served from a {@link ReadCache} that is invalidated after transactions
+ * writing events commit.
+ */
+@Configuration
+class EventPages {
+
+	static final int MAX_PAGE_SIZE = 1000;
+
+	/**
+	 * Cache for pages of events, invalidated after transactions writing events commit.
+	 */
+	@Bean
+	ReadCache<String, EventPage> eventPageCache(@Value("${events.cache.max-size:100}") int maxSize,
+			@Value("${events.cache.stale-while-refresh:false}") boolean staleWhileRefresh) {
+		return new ReadCache<>(maxSize, staleWhileRefresh);
+	}
+
+	@RestController
+	static class EventPageController {
+
+		final EventPageService eventPages;
+
+		EventPageController(EventPageService eventPages) {
+			this.eventPages = eventPages;
+		}
+
+		/**
+		 * Stream a page of events ordered by id. A {@code Link} header with {@code rel="next"} points to the next page.
+		 */
+		@GetMapping(produces = { "application/x-ndjson", MediaType.APPLICATION_JSON_VALUE })
+		Mono<ResponseEntity<Flux<Event>>> findAll(@RequestParam(required = false) String cursor,
+				@RequestParam(defaultValue = "100") int size) {
+
+			int pageSize = Math.max(1, Math.min(size, MAX_PAGE_SIZE));
+
+			return eventPages.findPage(Cursors.decode(cursor), pageSize).map(page -> {
+
+				ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+				if (page.hasNext()) {
+					response.header(HttpHeaders.LINK, Cursors.nextLink(page.getNext(), pageSize));
+				}
+
+				return response.body(page.getEvents());
+			});
+		}
+	}
+
+	@Component
+	public static class EventPageService {
+
+		private final EventRepository eventRepository;
+		private final ReadCache<String, EventPage> pageCache;
+
+		EventPageService(EventRepository eventRepository, ReadCache<String, EventPage> pageCache) {
+			this.eventRepository = eventRepository;
+			this.pageCache = pageCache;
+		}
+
+		/**
+		 * Find up to {@code size} events with an id greater than {@code after} using keyset pagination. Cost and
+		 * memory depend on the page size only, not on the size of the table. Pages are served from the page cache if
+		 * possible. Cache misses are streamed and cached once fully consumed.
+		 */
+		public Mono<EventPage> findPage(int after, int size) {
+
+			String key = after + ":" + size;
+
+			return Mono.defer(() -> {
+
+				EventPage cached = pageCache.get(key, () -> refresh(key, after, size));
+				if (cached != null) {
+					return Mono.just(cached);
+				}
+
+				long generation = pageCache.generation();
+				return loadPage(after, size).map(page -> {
+
+					List<Event> events = new ArrayList<>();
+					Flux<Event> caching = page.getEvents().doOnNext(events::add).doOnComplete(
+							() -> pageCache.put(key, page.withEvents(Flux.fromIterable(events)), generation));
+
+					return page.withEvents(caching);
+				});
+			});
+		}
+
+		private void refresh(String key, int after, int size) {
+
+			long generation = pageCache.generation();
+
+			loadPage(after, size) //
+					.flatMap(page -> page.getEvents().collectList().map(events -> {
+						return page.withEvents(Flux.fromIterable(events));
+					})) //
+					.doOnCancel(() -> pageCache.refreshAborted(key, null)) //
+					.subscribe(page -> pageCache.put(key, page, generation), //
+							error -> pageCache.refreshAborted(key, error));
+		}
+
+		/**
+		 * Page bounds are determined upfront from the primary key index so events can be streamed.
+		 */
+		private Mono<EventPage> loadPage(int after, int size) {
+
+			return eventRepository.findIdsAfter(after, size + 1).collectList().map(ids -> {
+
+				if (ids.isEmpty()) {
+					return new EventPage(Flux.empty(), null);
+				}
+
+				int last = ids.get(Math.min(ids.size(), size) - 1);
+				return new EventPage(eventRepository.findRange(after, last), ids.size() > size ? last : null);
+			});
+		}
+	}
+
+	/**
+	 * A page of events and the id to continue after, {@literal null} if this is the last page.
+	 */
+	static class EventPage {
+
+		private final Flux<Event> events;
+		private final Integer next;
+
+		EventPage(Flux<Event> events, Integer next) {
+			this.events = events;
+			this.next = next;
+		}
+
+		public Flux<Event> getEvents() {
+			return this.events;
+		}
+
+		public Integer getNext() {
+			return this.next;
+		}
+
+		public boolean hasNext() {
+			return this.next != null;
+		}
+
+		EventPage withEvents(Flux<Event> events) {
+			return new EventPage(events, next);
+		}
+	}
+
+	/**
+	 * Opaque cursor tokens for keyset pagination on {@code event.id}.
+	 */
+	static final class Cursors {
+
+		private Cursors() {}
+
+		static String encode(int id) {
+			byte[] token = ("id:" + id).getBytes(StandardCharsets.UTF_8);
+			return Base64.getUrlEncoder().withoutPadding().encodeToString(token);
+		}
+
+		/**
+		 * @return the id to continue after, {@literal 0} for the first page.
+		 * @throws ResponseStatusException if the token cannot be decoded.
+		 */
+		static int decode(@Nullable String cursor) {
+
+			if (!StringUtils.hasText(cursor)) {
+				return 0;
+			}
+
+			try {
+
+				String decoded = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+				if (decoded.startsWith("id:")) {
+					return Integer.parseInt(decoded.substring(3));
+				}
+			} catch (IllegalArgumentException e) {
+				// fall through
+			}
+
+			throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid cursor: " + cursor);
+		}
+
+		static String nextLink(int next, int size) {
+			return String.format("</?cursor=%s&size=%d>; rel=\"next\"", encode(next), size);
+		}
+	}
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cancelation;
+
+import reactor.core.publisher.Flux;
+import rxtx.support.IdempotencyKeys;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+/**
+ * Subscribes to work at most once per {@code Idempotency-Key} at a time. A request arriving while an execution for its
+ * key is in flight subscribes to that execution and receives all of its elements, including those emitted before it
+ * attached. The execution is cancelled once all attached requests cancelled. Results of completed executions are kept
+ * for {@code ttl} and replayed without running the work again.
+ *
+ * @see IdempotencyKeys
+ */
+final class IdempotentExecutions<T> {
+
+	private final IdempotencyKeys<List<T>, Flux<T>> keys;
+
+	/**
+	 * @param ttl time to keep results of completed executions.
+	 * @param maxSize maximum number of results to keep, the oldest are evicted first.
+	 */
+	IdempotentExecutions(Duration ttl, int maxSize) {
+		this.keys = new IdempotencyKeys<>(ttl, maxSize);
+	}
+
+	/**
+	 * @throws ResponseStatusException with {@code 400 Bad Request} if {@code key} is invalid.
+	 * @see IdempotencyKeys#validate(String)
+	 */
+	static void validate(String key) {
+
+		try {
+			IdempotencyKeys.validate(key);
+		} catch (IllegalArgumentException e) {
+			throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+		}
+	}
+
+	/**
+	 * Subscribe to {@code work} unless a result for {@code key} is cached or an execution is in flight.
+	 */
+	Flux<T> execute(String key, Supplier<Flux<T>> work) {
+
+		return Flux.defer(() -> {
+
+			List<T> cached = keys.getCompleted(key);
+			if (cached != null) {
+				return Flux.fromIterable(cached);
+			}
+
+			return keys.join(key, () -> share(key, work));
+		});
+	}
+
+	Map<String, Object> getMetrics() {
+		return keys.getMetrics();
+	}
+
+	private Flux<T> share(String key, Supplier<Flux<T>> work) {
+
+		List<T> results = Collections.synchronizedList(new ArrayList<>());
+
+		return Flux.defer(work) //
+				.doOnNext(results::add) //
+				.doOnComplete(() -> keys.complete(key, new ArrayList<>(results))) //
+				.doFinally(signal -> keys.finished(key)) //
+				.replay() //
+				.refCount();
+	}
+}
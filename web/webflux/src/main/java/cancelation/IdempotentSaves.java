@@ -0,0 +1,206 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cancelation;
+
+import cancelation.WebfluxApplication.CommittedRound;
+import cancelation.WebfluxApplication.TransactionalService;
+import cancelation.WebfluxApplication.WebController;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.r2dbc.repository.Modifying;
+import org.springframework.data.r2dbc.repository.Query;
+import org.springframework.data.relational.core.mapping.Table;
+import org.springframework.data.repository.query.Param;
+import org.springframework.data.repository.reactive.ReactiveCrudRepository;
+import org.springframework.stereotype.Component;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * {@code POST /?mode=per-round} requests carrying an {@code Idempotency-Key} header. Each round commits in its own
+ * transaction that records the key, so a retry replays the committed rounds and resumes with the next one.
+ */
+@Configuration
+class IdempotentSaves {
+
+	/**
+	 * Deduplication of {@code POST /} requests by {@code Idempotency-Key}.
+	 */
+	@Bean
+	IdempotentExecutions<Integer> idempotentExecutions(@Value("${events.idempotency.ttl:1h}") Duration ttl,
+			@Value("${events.idempotency.cache-size:1000}") int cacheSize) {
+		return new IdempotentExecutions<>(ttl, cacheSize);
+	}
+
+	@RestController
+	static class IdempotentSaveController {
+
+		final IdempotentSaveService idempotentSaves;
+		final WebController webController;
+		final IdempotentExecutions<Integer> idempotentExecutions;
+		final Duration roundDelay;
+
+		IdempotentSaveController(IdempotentSaveService idempotentSaves, WebController webController,
+				IdempotentExecutions<Integer> idempotentExecutions,
+				@Value("${events.round-delay:10s}") Duration roundDelay) {
+			this.idempotentSaves = idempotentSaves;
+			this.webController = webController;
+			this.idempotentExecutions = idempotentExecutions;
+			this.roundDelay = roundDelay;
+		}
+
+		/**
+		 * Save six rounds of events, each round in its own transaction. Cancellation rolls back the round in flight,
+		 * so a retry replays the committed rounds and resumes with the next one. A request for a key in flight
+		 * attaches to that execution, see {@link IdempotentExecutions}.
+		 *
+		 * @return the numbers of committed rounds, as replayed rounds have no id range at hand.
+		 */
+		@PostMapping(params = "mode=per-round", headers = "Idempotency-Key")
+		Flux<Integer> longRunningSaveInRounds(@RequestHeader("Idempotency-Key") String idempotencyKey) {
+
+			IdempotentExecutions.validate(idempotencyKey);
+
+			Flux<Integer> rounds = idempotentSaves.findCompletedRounds(idempotencyKey) //
+					.defaultIfEmpty(0) //
+					.flatMapMany(completed -> {
+
+						if (completed >= WebController.ROUNDS) {
+							return Flux.range(0, WebController.ROUNDS);
+						}
+
+						Flux<Integer> remaining = idempotentSaves.save(WebController.counter(completed, roundDelay),
+								idempotencyKey);
+						return Flux.range(0, completed).concatWith(remaining);
+					});
+
+			return idempotentExecutions.execute(idempotencyKey, () -> rounds) //
+					.transform(webController::countInFlight) //
+					.doOnCancel(() -> System.out.println("Canceled!"));
+		}
+	}
+
+	/**
+	 * Saves each round in its own transaction through {@link TransactionalService} and records the round for its key
+	 * in that transaction.
+	 */
+	@Component
+	public static class IdempotentSaveService {
+
+		private final TransactionalService transactionalService;
+		private final IdempotencyKeyRepository idempotencyKeyRepository;
+
+		IdempotentSaveService(TransactionalService transactionalService,
+				IdempotencyKeyRepository idempotencyKeyRepository) {
+			this.transactionalService = transactionalService;
+			this.idempotencyKeyRepository = idempotencyKeyRepository;
+		}
+
+		/**
+		 * Save the rounds of {@code counter} for a request identified by {@code idempotencyKey}. Fails and rolls back
+		 * the round if it was already saved, e.g. by a concurrent retry on another instance.
+		 *
+		 * @return the numbers of committed rounds.
+		 */
+		public Flux<Integer> save(Flux<Integer> counter, String idempotencyKey) {
+
+			byte[] key = toBytes(idempotencyKey);
+
+			return transactionalService.saveInRounds(counter, i -> {
+
+				Mono<Integer> recorded = i == 0 ? idempotencyKeyRepository.insert(key, 1)
+						: idempotencyKeyRepository.advance(key, i, i + 1);
+
+				return recorded.flatMap(updated -> {
+
+					if (updated == 0) {
+						return Mono.error(new OptimisticLockingFailureException(
+								String.format("Round %d of %s already saved", i, idempotencyKey)));
+					}
+
+					return Mono.empty();
+				}).then();
+			}).map(CommittedRound::getRound);
+		}
+
+		/**
+		 * @return the number of rounds committed for {@code idempotencyKey}, empty if unknown.
+		 */
+		public Mono<Integer> findCompletedRounds(String idempotencyKey) {
+			return idempotencyKeyRepository.findCompletedRounds(toBytes(idempotencyKey));
+		}
+
+		private static byte[] toBytes(String idempotencyKey) {
+			return idempotencyKey.getBytes(StandardCharsets.UTF_8);
+		}
+	}
+
+	/**
+	 * Keys are bound as UTF-8 bytes as r2dbc-h2 encodes {@link String} parameters through a blocking CLOB codec.
+	 */
+	interface IdempotencyKeyRepository extends ReactiveCrudRepository<IdempotencyKey, byte[]> {
+
+		@Query("SELECT completed_rounds FROM idempotency_key WHERE idem_key = :key")
+		Mono<Integer> findCompletedRounds(@Param("key") byte[] key);
+
+		@Modifying
+		@Query("INSERT INTO idempotency_key (idem_key, completed_rounds, created_at) "
+				+ "VALUES (:key, :rounds, CURRENT_TIMESTAMP)")
+		Mono<Integer> insert(@Param("key") byte[] key, @Param("rounds") int rounds);
+
+		@Modifying
+		@Query("UPDATE idempotency_key SET completed_rounds = :rounds WHERE idem_key = :key "
+				+ "AND completed_rounds = :expected")
+		Mono<Integer> advance(@Param("key") byte[] key, @Param("expected") int expected, @Param("rounds") int rounds);
+	}
+
+	/**
+	 * Rounds committed for a request identified by its {@code Idempotency-Key}.
+	 */
+	@Table("idempotency_key")
+	static class IdempotencyKey {
+
+		@Id byte[] idemKey;
+
+		int completedRounds;
+
+		public byte[] getIdemKey() {
+			return idemKey;
+		}
+
+		public void setIdemKey(byte[] idemKey) {
+			this.idemKey = idemKey;
+		}
+
+		public int getCompletedRounds() {
+			return completedRounds;
+		}
+
+		public void setCompletedRounds(int completedRounds) {
+			this.completedRounds = completedRounds;
+		}
+	}
+}
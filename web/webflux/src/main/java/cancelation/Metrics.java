@@ -0,0 +1,167 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cancelation;
+
+import cancelation.EventPages.EventPage;
+import cancelation.WebfluxApplication.Event;
+import cancelation.WebfluxApplication.TransactionalService;
+import cancelation.WebfluxApplication.WebController;
+import io.r2dbc.spi.ConnectionFactory;
+import rxtx.support.ReadCache;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.filter.reactive.ServerWebExchangeContextFilter;
+
+/**
+ * Connection pool, statement, cache, feed and thread metrics exposed below {@code /metrics}.
+ */
+@Configuration
+class Metrics {
+
+	/**
+	 * Connection acquisition and hold times. Static as it post-processes the {@link ConnectionFactory} and the
+	 * transaction manager.
+	 */
+	@Bean
+	static ConnectionPoolMetrics connectionPoolMetrics(
+			@Value("${events.pool.longest-leases:10}") int longestLeases) {
+		return new ConnectionPoolMetrics(longestLeases);
+	}
+
+	/**
+	 * Statements per request, flagging statements executed more than {@code events.statements.threshold} times by a
+	 * single request as possible N+1 queries. Static as it post-processes the {@link ConnectionFactory}.
+	 */
+	@Bean
+	static RequestStatements requestStatements(@Value("${events.statements.threshold:10}") int threshold,
+			@Value("${events.statements.retained:10}") int retained) {
+		return new RequestStatements(threshold, retained);
+	}
+
+	/**
+	 * Exposes the current exchange in the subscriber context to attribute connection leases to requests.
+	 */
+	@Bean
+	ServerWebExchangeContextFilter serverWebExchangeContextFilter() {
+		return new ServerWebExchangeContextFilter();
+	}
+
+	@RestController
+	static class MetricsController {
+
+		final TransactionalService transactionalService;
+		final WebController webController;
+		final ReadCache<String, EventPage> pageCache;
+		final ChangeFeed<Event> eventFeed;
+		final AdmissionControl admissionControl;
+		final IdempotentExecutions<Integer> idempotentExecutions;
+		final ConnectionPoolMetrics poolMetrics;
+		final RequestStatements requestStatements;
+
+		MetricsController(TransactionalService transactionalService, WebController webController,
+				ReadCache<String, EventPage> pageCache, ChangeFeed<Event> eventFeed, AdmissionControl admissionControl,
+				IdempotentExecutions<Integer> idempotentExecutions, ConnectionPoolMetrics poolMetrics,
+				RequestStatements requestStatements) {
+			this.transactionalService = transactionalService;
+			this.webController = webController;
+			this.pageCache = pageCache;
+			this.eventFeed = eventFeed;
+			this.admissionControl = admissionControl;
+			this.idempotentExecutions = idempotentExecutions;
+			this.poolMetrics = poolMetrics;
+			this.requestStatements = requestStatements;
+		}
+
+		@GetMapping("/metrics/writes")
+		Map<String, Integer> writeMetrics() {
+			return transactionalService.getWriteMetrics().toMap();
+		}
+
+		@GetMapping("/metrics/cache")
+		Map<String, Object> cacheMetrics() {
+			return pageCache.getMetrics();
+		}
+
+		@GetMapping("/metrics/feed")
+		Map<String, Object> feedMetrics() {
+			return eventFeed.getMetrics();
+		}
+
+		@GetMapping("/metrics/admission")
+		Map<String, Object> admissionMetrics() {
+			return admissionControl.getMetrics();
+		}
+
+		@GetMapping("/metrics/idempotency")
+		Map<String, Object> idempotencyMetrics() {
+			return idempotentExecutions.getMetrics();
+		}
+
+		@GetMapping("/metrics/pool")
+		Map<String, Object> poolMetrics() {
+			return poolMetrics.getMetrics();
+		}
+
+		@GetMapping("/metrics/pool/holds")
+		Map<String, Object> poolHoldMetrics() {
+			return poolMetrics.getHoldMetrics();
+		}
+
+		@DeleteMapping("/metrics/pool")
+		void resetPoolMetrics() {
+			poolMetrics.reset();
+		}
+
+		/**
+		 * Requests that executed a statement more often than the threshold, typically an N+1 query.
+		 */
+		@GetMapping("/metrics/statements")
+		Map<String, Object> statementMetrics() {
+			return requestStatements.getMetrics();
+		}
+
+		@DeleteMapping("/metrics/statements")
+		void resetStatementMetrics() {
+			requestStatements.reset();
+		}
+
+		/**
+		 * Thread and heap usage, comparable to the servlet application. Requests do not hold a thread while waiting.
+		 */
+		@GetMapping("/metrics/threads")
+		Map<String, Object> threadMetrics() {
+
+			ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+			Map<String, Object> metrics = new LinkedHashMap<>();
+			metrics.put("inFlight", webController.getInFlight());
+			metrics.put("platformThreads", threads.getThreadCount());
+			metrics.put("peakPlatformThreads", threads.getPeakThreadCount());
+			metrics.put("heapUsedBytes", ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed());
+			return metrics;
+		}
+	}
+}
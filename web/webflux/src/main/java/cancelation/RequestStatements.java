@@ -0,0 +1,272 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cancelation;
+
+import io.r2dbc.spi.Batch;
+import io.r2dbc.spi.Connection;
+import io.r2dbc.spi.ConnectionFactory;
+import io.r2dbc.spi.ConnectionFactoryMetadata;
+import io.r2dbc.spi.ConnectionMetadata;
+import io.r2dbc.spi.IsolationLevel;
+import io.r2dbc.spi.Result;
+import io.r2dbc.spi.Statement;
+import io.r2dbc.spi.ValidationDepth;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import rxtx.support.NPlusOneDetector;
+import rxtx.support.UnitOfWork;
+
+import java.util.Map;
+
+import org.reactivestreams.Publisher;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+
+/**
+ * Counts the statements executed on behalf of each HTTP request in a {@link UnitOfWork} to detect N+1 queries, see
+ * {@link NPlusOneDetector}. The unit of work travels with the subscriber context of the exchange and statements are
+ * recorded by decorating each {@link ConnectionFactory} bean. Work subscribed outside of the request, such as page
+ * cache refreshes, is not counted, neither are batches as they take a single round trip.
+ */
+final class RequestStatements implements WebFilter, BeanPostProcessor {
+
+	private final NPlusOneDetector detector;
+
+	/**
+	 * @param threshold number of executions per statement shape and request that are still fine.
+	 * @param retained number of most recently flagged requests to keep.
+	 */
+	RequestStatements(int threshold, int retained) {
+		this.detector = new NPlusOneDetector(threshold, retained);
+	}
+
+	@Override
+	public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+
+		UnitOfWork unitOfWork = new UnitOfWork(
+				exchange.getRequest().getMethodValue() + " " + exchange.getRequest().getPath().value());
+
+		return chain.filter(exchange) //
+				.subscriberContext(context -> context.put(UnitOfWork.class, unitOfWork)) //
+				.doFinally(signal -> detector.complete(unitOfWork));
+	}
+
+	@Override
+	public Object postProcessAfterInitialization(Object bean, String beanName) {
+
+		if (bean instanceof ConnectionFactory && !(bean instanceof CountingConnectionFactory)) {
+			return new CountingConnectionFactory((ConnectionFactory) bean);
+		}
+
+		return bean;
+	}
+
+	/**
+	 * @return completed and flagged requests and the repeated statements of the most recently flagged ones.
+	 */
+	Map<String, Object> getMetrics() {
+		return detector.getMetrics();
+	}
+
+	void reset() {
+		detector.reset();
+	}
+
+	/**
+	 * Returns connections that count statements. Disposes a pooled delegate on shutdown as the decorator hides its
+	 * destroy method.
+	 */
+	class CountingConnectionFactory implements ConnectionFactory, DisposableBean {
+
+		private final ConnectionFactory delegate;
+
+		CountingConnectionFactory(ConnectionFactory delegate) {
+			this.delegate = delegate;
+		}
+
+		@Override
+		public Publisher<? extends Connection> create() {
+			return Mono.from(delegate.create()).map(CountingConnection::new);
+		}
+
+		@Override
+		public ConnectionFactoryMetadata getMetadata() {
+			return delegate.getMetadata();
+		}
+
+		@Override
+		public void destroy() throws Exception {
+
+			if (delegate instanceof DisposableBean) {
+				((DisposableBean) delegate).destroy();
+			} else if (delegate instanceof Disposable) {
+				((Disposable) delegate).dispose();
+			}
+		}
+	}
+
+	class CountingConnection implements Connection {
+
+		private final Connection delegate;
+
+		CountingConnection(Connection delegate) {
+			this.delegate = delegate;
+		}
+
+		@Override
+		public Publisher<Void> beginTransaction() {
+			return delegate.beginTransaction();
+		}
+
+		@Override
+		public Publisher<Void> close() {
+			return delegate.close();
+		}
+
+		@Override
+		public Publisher<Void> commitTransaction() {
+			return delegate.commitTransaction();
+		}
+
+		@Override
+		public Batch createBatch() {
+			return delegate.createBatch();
+		}
+
+		@Override
+		public Publisher<Void> createSavepoint(String name) {
+			return delegate.createSavepoint(name);
+		}
+
+		@Override
+		public Statement createStatement(String sql) {
+			return new CountingStatement(sql, delegate.createStatement(sql));
+		}
+
+		@Override
+		public boolean isAutoCommit() {
+			return delegate.isAutoCommit();
+		}
+
+		@Override
+		public ConnectionMetadata getMetadata() {
+			return delegate.getMetadata();
+		}
+
+		@Override
+		public IsolationLevel getTransactionIsolationLevel() {
+			return delegate.getTransactionIsolationLevel();
+		}
+
+		@Override
+		public Publisher<Void> releaseSavepoint(String name) {
+			return delegate.releaseSavepoint(name);
+		}
+
+		@Override
+		public Publisher<Void> rollbackTransaction() {
+			return delegate.rollbackTransaction();
+		}
+
+		@Override
+		public Publisher<Void> rollbackTransactionToSavepoint(String name) {
+			return delegate.rollbackTransactionToSavepoint(name);
+		}
+
+		@Override
+		public Publisher<Void> setAutoCommit(boolean autoCommit) {
+			return delegate.setAutoCommit(autoCommit);
+		}
+
+		@Override
+		public Publisher<Void> setTransactionIsolationLevel(IsolationLevel isolationLevel) {
+			return delegate.setTransactionIsolationLevel(isolationLevel);
+		}
+
+		@Override
+		public Publisher<Boolean> validate(ValidationDepth depth) {
+			return delegate.validate(depth);
+		}
+	}
+
+	/**
+	 * Records {@code sql} into the unit of work of the subscriber when the results are subscribed to.
+	 */
+	private Publisher<? extends Result> execute(String sql, Publisher<? extends Result> execution) {
+
+		return Mono.subscriberContext().flatMapMany(context -> {
+
+			context.<UnitOfWork> getOrEmpty(UnitOfWork.class).ifPresent(it -> detector.record(it, sql));
+			return execution;
+		});
+	}
+
+	class CountingStatement implements Statement {
+
+		private final String sql;
+		private final Statement delegate;
+
+		CountingStatement(String sql, Statement delegate) {
+			this.sql = sql;
+			this.delegate = delegate;
+		}
+
+		@Override
+		public Statement add() {
+			delegate.add();
+			return this;
+		}
+
+		@Override
+		public Statement bind(int index, Object value) {
+			delegate.bind(index, value);
+			return this;
+		}
+
+		@Override
+		public Statement bind(String name, Object value) {
+			delegate.bind(name, value);
+			return this;
+		}
+
+		@Override
+		public Statement bindNull(int index, Class<?> type) {
+			delegate.bindNull(index, type);
+			return this;
+		}
+
+		@Override
+		public Statement bindNull(String name, Class<?> type) {
+			delegate.bindNull(name, type);
+			return this;
+		}
+
+		@Override
+		public Statement returnGeneratedValues(String... columns) {
+			delegate.returnGeneratedValues(columns);
+			return this;
+		}
+
+		@Override
+		public Publisher<? extends Result> execute() {
+			return RequestStatements.this.execute(sql, delegate.execute());
+		}
+	}
+}
@@ -15,25 +15,78 @@
  */
 package cancelation;
 
+import cancelation.EventPages.EventPage;
 import io.netty.channel.ChannelDuplexHandler;
 import io.netty.channel.ChannelHandlerContext;
+import io.r2dbc.spi.Connection;
+import io.r2dbc.spi.ConnectionFactory;
+import io.r2dbc.spi.Result;
+import io.r2dbc.spi.Statement;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import rxtx.support.BlockingDetection;
+import rxtx.support.ReadCache;
 
 import java.time.Duration;
-
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IntSummaryStatistics;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.codec.CodecCustomizer;
 import org.springframework.boot.web.embedded.netty.NettyServerCustomizer;
 import org.springframework.context.annotation.Bean;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.r2dbc.connectionfactory.ConnectionFactoryUtils;
+import org.springframework.data.r2dbc.core.DatabaseClient;
+import org.springframework.data.r2dbc.repository.Modifying;
+import org.springframework.data.r2dbc.repository.Query;
+import org.springframework.data.relational.core.mapping.Table;
 import org.springframework.data.r2dbc.repository.config.EnableR2dbcRepositories;
+import org.springframework.data.repository.query.Param;
 import org.springframework.data.repository.reactive.ReactiveCrudRepository;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.json.Jackson2JsonDecoder;
+import org.springframework.http.codec.json.Jackson2JsonEncoder;
+import org.springframework.lang.Nullable;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.NoTransactionException;
+import org.springframework.transaction.ReactiveTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.reactive.TransactionSynchronization;
+import org.springframework.transaction.reactive.TransactionSynchronizationManager;
+import org.springframework.transaction.reactive.TransactionalOperator;
+import org.springframework.transaction.support.DefaultTransactionDefinition;
+import org.springframework.util.MimeType;
+import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.bind.annotation.RestControllerAdvice;
+import org.springframework.web.server.ResponseStatusException;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
 
 /**
  * @author Mark Paluch
@@ -42,10 +95,17 @@ import org.springframework.web.bind.annotation.RestController;
 @EnableR2dbcRepositories(considerNestedRepositories = true)
 public class WebfluxApplication {
 
+	static final MediaType APPLICATION_NDJSON = MediaType.parseMediaType("application/x-ndjson");
+
 	public static void main(String[] args) {
+		BlockingDetection.installIfEnabled();
 		SpringApplication.run(WebfluxApplication.class, args);
 	}
 
+	/**
+	 * Re-enables reading after each read. Not registered as it would defeat backpressure, e.g. for uploads to
+	 * {@link TransactionalService#ingest(Flux)}.
+	 */
 	// @Bean
 	NettyServerCustomizer customizer() {
 		return httpServer -> {
@@ -66,49 +126,333 @@ public class WebfluxApplication {
 		};
 	}
 
+	/**
+	 * Register {@code application/x-ndjson} with the JSON codecs. Streams are encoded one JSON document per line.
+	 */
+	@Bean
+	CodecCustomizer ndjsonCodecCustomizer(ObjectMapper objectMapper) {
+
+		MimeType[] mimeTypes = { MediaType.APPLICATION_JSON, MediaType.APPLICATION_STREAM_JSON, APPLICATION_NDJSON };
+
+		return configurer -> {
+
+			Jackson2JsonEncoder encoder = new Jackson2JsonEncoder(objectMapper, mimeTypes);
+			encoder.setStreamingMediaTypes(Arrays.asList(MediaType.APPLICATION_STREAM_JSON, APPLICATION_NDJSON));
+
+			configurer.defaultCodecs().jackson2JsonDecoder(new Jackson2JsonDecoder(objectMapper, mimeTypes));
+			configurer.defaultCodecs().jackson2JsonEncoder(encoder);
+		};
+	}
+
+	/**
+	 * Admission control for write transactions. Defaults to the connection pool size so excess transactions queue here,
+	 * bounded, instead of waiting for a connection.
+	 */
+	@Bean
+	AdmissionControl admissionControl(
+			@Value("${events.admission.max-concurrent:${spring.r2dbc.pool.max-size:10}}") int maxConcurrent,
+			@Value("${events.admission.max-queue:10}") int maxQueue,
+			@Value("${events.admission.max-wait:5s}") Duration maxWait,
+			@Value("${events.admission.retry-after:10s}") Duration retryAfter) {
+		return new AdmissionControl(maxConcurrent, maxQueue, maxWait, retryAfter);
+	}
+
+	/**
+	 * Allocator for event ids, unless {@code events.id-generation=database}. {@code events.id-block-size} must match
+	 * the increment of {@code event_id_block_seq}.
+	 */
+	@Bean
+	@ConditionalOnProperty(name = "events.id-generation", havingValue = "sequence", matchIfMissing = true)
+	BlockIdAllocator eventIdAllocator(DatabaseClient databaseClient,
+			@Value("${events.id-block-size:1000}") int blockSize) {
+
+		return new BlockIdAllocator(blockSize,
+				() -> databaseClient.execute("SELECT NEXT VALUE FOR event_id_block_seq") //
+						.map(row -> row.get(0, Long.class)) //
+						.one() //
+						.map(Long::intValue));
+	}
+
 	@RestController
 	static class WebController {
 
+		static final int ROUNDS = 6;
+
 		final TransactionalService transactionalService;
+		final AdmissionControl admissionControl;
+		final Duration roundDelay;
+		final AtomicInteger inFlight = new AtomicInteger();
 
-		WebController(TransactionalService transactionalService) {
+		WebController(TransactionalService transactionalService, AdmissionControl admissionControl,
+				@Value("${events.round-delay:10s}") Duration roundDelay) {
 			this.transactionalService = transactionalService;
+			this.admissionControl = admissionControl;
+			this.roundDelay = roundDelay;
 		}
 
+		/**
+		 * Save six rounds of events in a single transaction, admitted through {@link AdmissionControl} as a whole as it
+		 * holds a connection throughout. A single transaction cannot resume after a failure, so an
+		 * {@code Idempotency-Key} is rejected with {@code 400 Bad Request}, see {@link IdempotentSaves}.
+		 */
 		@PostMapping
-		Flux<Integer> longRunningSave() {
+		Flux<Integer> longRunningSave(
+				@RequestHeader(name = "Idempotency-Key", required = false) String idempotencyKey) {
+
+			if (idempotencyKey != null) {
+				throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Idempotency-Key requires mode=per-round");
+			}
+
+			return admissionControl.admit(transactionalService.save(counter(0, roundDelay))) //
+					.transform(this::countInFlight) //
+					.doOnCancel(() -> System.out.println("Canceled!"));
+		}
+
+		/**
+		 * Save six rounds of events, each in its own transaction. Each round is admitted on its own so waiting between
+		 * rounds holds neither a connection nor a permit. Only the first round can be rejected with
+		 * {@code 503 Service Unavailable}, a later rejection aborts the response like a failed round. Requests with an
+		 * {@code Idempotency-Key} header are handled by {@link IdempotentSaves}.
+		 */
+		@PostMapping(params = "mode=per-round")
+		Flux<CommittedRound> longRunningSaveInRounds() {
+			return transactionalService.saveInRounds(counter(0, roundDelay)) //
+					.transform(this::countInFlight) //
+					.doOnCancel(() -> System.out.println("Canceled!"));
+		}
+
+		/**
+		 * Count {@code request} in {@link #getInFlight()} while it is subscribed.
+		 */
+		<T> Flux<T> countInFlight(Flux<T> request) {
+			return request.doOnSubscribe(it -> inFlight.incrementAndGet()).doFinally(it -> inFlight.decrementAndGet());
+		}
+
+		int getInFlight() {
+			return inFlight.get();
+		}
+
+		/**
+		 * @return round numbers from {@code first} to the last round, spaced by {@code events.round-delay}.
+		 */
+		static Flux<Integer> counter(int first, Duration roundDelay) {
 
-			Flux<Integer> counter = Flux.interval(Duration.ZERO, Duration.ofSeconds(10)) //
-					.take(6) //
-					.map(Long::intValue);
+			if (roundDelay.isZero()) {
+				return Flux.range(first, ROUNDS - first);
+			}
 
-			return transactionalService.save(counter).doOnCancel(() -> System.out.println("Canceled!"));
+			return Flux.interval(Duration.ZERO, roundDelay) //
+					.take(ROUNDS - first) //
+					.map(i -> first + i.intValue());
 		}
 
-		@GetMapping
-		Flux<Event> findAll() {
-			return transactionalService.findAll();
+		/**
+		 * Ingest uploaded events. Each batch is admitted on its own, so a slow upload holds a permit only while a batch
+		 * is written.
+		 */
+		@PostMapping(path = "/events", consumes = "application/x-ndjson", produces = "application/x-ndjson")
+		Flux<CommittedRound> ingest(@RequestBody Flux<Event> events) {
+			return transactionalService.ingest(events).transform(this::countInFlight);
+		}
+
+		/**
+		 * Count, min, max and sum of all event counters, read from a summary maintained by each writing transaction.
+		 */
+		@GetMapping("/statistics")
+		Mono<EventStatistics> statistics() {
+			return transactionalService.getStatistics();
+		}
+
+		/**
+		 * Recompute the summary from the {@code event} table to recover from drift.
+		 */
+		@PostMapping("/statistics/rebuild")
+		Mono<EventStatistics> rebuildStatistics() {
+			return transactionalService.rebuildStatistics();
 		}
 	}
 
+	/**
+	 * Shed load that exceeds {@link AdmissionControl} capacity, for all controllers admitting requests.
+	 */
+	@RestControllerAdvice
+	static class AdmissionControlAdvice {
+
+		@ExceptionHandler
+		ResponseEntity<Void> rejected(AdmissionControl.RejectedException e) {
+
+			return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE) //
+					.header(HttpHeaders.RETRY_AFTER, Long.toString(e.getRetryAfter().getSeconds())) //
+					.build();
+		}
+	}
+
+	/**
+	 * Saves rounds of {@link Event}s. All rounds of a {@link #save(Flux)} call share the connection of a single
+	 * transaction, so running more rounds concurrently than there are connections only adds queueing and buffering.
+	 * {@code events.write-concurrency} limits the number of in-flight rounds and defaults to one. Rounds exceeding that
+	 * limit wait in a queue reported by {@link #getWriteMetrics()}.
+	 * <p>
+	 * {@link #saveInRounds(Flux)} commits each round in its own transaction instead. A connection is held only while a
+	 * round is written and cancellation rolls back the in-flight round only.
+	 * <p>
+	 * {@link #ingest(Flux)} writes a stream of uploaded events in batches of {@code events.ingest-batch-size}, each
+	 * batch in its own transaction.
+	 * <p>
+	 * Transactions spanning a single round or batch are admitted through {@link AdmissionControl} each, so waiting for
+	 * the next round or for an upload holds no permit.
+	 */
 	@Component
 	public static class TransactionalService {
 
 		private final EventRepository eventRepository;
-
-		public TransactionalService(EventRepository eventRepository) {
+		private final EventStatisticsRepository statisticsRepository;
+		private final EventBatchWriter batchWriter;
+		private final AdmissionControl admissionControl;
+		private final int roundSize;
+		private final int writeConcurrency;
+		private final int ingestBatchSize;
+		private final TransactionalOperator roundTransactions;
+		private final TransactionalOperator ingestTransactions;
+		private final WriteMetrics writeMetrics = new WriteMetrics();
+
+		public TransactionalService(EventRepository eventRepository, EventStatisticsRepository statisticsRepository,
+				EventBatchWriter batchWriter, AdmissionControl admissionControl,
+				ReactiveTransactionManager transactionManager,
+				@Value("${events.round-size:10}") int roundSize,
+				@Value("${events.write-concurrency:1}") int writeConcurrency,
+				@Value("${events.ingest-batch-size:1000}") int ingestBatchSize) {
 			this.eventRepository = eventRepository;
+			this.statisticsRepository = statisticsRepository;
+			this.batchWriter = batchWriter;
+			this.admissionControl = admissionControl;
+			this.roundTransactions = TransactionalOperator.create(transactionManager, named("saveInRounds"));
+			this.ingestTransactions = TransactionalOperator.create(transactionManager, named("ingest"));
+			this.roundSize = roundSize;
+			this.writeConcurrency = writeConcurrency;
+			this.ingestBatchSize = ingestBatchSize;
 		}
 
 		@Transactional
 		public Flux<Integer> save(Flux<Integer> counter) {
 
-			return counter.flatMap(i -> {
+			return Flux.defer(() -> {
+
+				long start = System.nanoTime();
+
+				return writeRounds(counter, i -> saveRound(i).thenReturn(i)).doFinally(signal -> System.out
+						.printf("Transaction held a connection for %d ms%n", (System.nanoTime() - start) / 1_000_000));
+			});
+		}
+
+		/**
+		 * @return a definition named like those of {@link Transactional @Transactional} methods.
+		 */
+		private static TransactionDefinition named(String method) {
+
+			DefaultTransactionDefinition definition = new DefaultTransactionDefinition();
+			definition.setName(TransactionalService.class.getName() + "." + method);
+			return definition;
+		}
+
+		/**
+		 * Run {@code work} in a transaction of {@code transactions} that rolls back if the subscriber cancels. The
+		 * result is emitted once the transaction has committed. {@link TransactionalOperator#transactional(Mono)} would
+		 * leave the transaction open on cancel, holding its connection, while {@code execute} would commit it.
+		 */
+		private static <T> Mono<T> inTransaction(TransactionalOperator transactions, Mono<T> work) {
+			return transactions.execute(status -> work.doOnCancel(status::setRollbackOnly)).singleOrEmpty();
+		}
+
+		/**
+		 * Save each round in its own transaction, admitted through {@link AdmissionControl} on its own.
+		 *
+		 * @return the id ranges of committed rounds.
+		 */
+		public Flux<CommittedRound> saveInRounds(Flux<Integer> counter) {
+			return saveInRounds(counter, i -> Mono.empty());
+		}
+
+		/**
+		 * Save each round in its own transaction that runs {@code beforeRound} first, so that whatever it writes
+		 * commits or rolls back together with the round.
+		 *
+		 * @return the id ranges of committed rounds.
+		 */
+		public Flux<CommittedRound> saveInRounds(Flux<Integer> counter, Function<Integer, Mono<Void>> beforeRound) {
+
+			return Flux.defer(() -> {
+
+				long start = System.nanoTime();
+				AtomicLong held = new AtomicLong();
+
+				return writeRounds(counter, i -> admissionControl.admit(Mono.defer(() -> {
 
-				int from = 10 * i;
-				System.out.printf("Round %d, from %d to %d%n", i, from, from + 10);
+					long begin = System.nanoTime();
 
-				return Flux.range(from, 10).flatMap(item -> eventRepository.save(new Event(item))).then(Mono.just(i));
+					Mono<CommittedRound> round = beforeRound.apply(i).then(saveRound(i))
+							.map(events -> CommittedRound.of(i, events));
+
+					return inTransaction(roundTransactions, round) //
+							.doFinally(signal -> held.addAndGet(System.nanoTime() - begin));
+				}))).doFinally(signal -> {
+
+					long elapsed = System.nanoTime() - start;
+					System.out.printf("Round transactions held a connection for %d of %d ms (%d%%)%n",
+							held.get() / 1_000_000, elapsed / 1_000_000, elapsed == 0 ? 0 : held.get() * 100 / elapsed);
+				});
+			});
+		}
+
+		/**
+		 * Save {@code events} in batches, each batch in its own transaction. At most two batches are requested from
+		 * {@code events} at a time, one being written and one being collected, so a fast producer is slowed down to the
+		 * pace of the database instead of being buffered. For an HTTP upload, missing demand stops reading from the
+		 * socket. An aborted upload rolls back the batch being written.
+		 *
+		 * @return the id ranges of committed batches.
+		 */
+		public Flux<CommittedRound> ingest(Flux<Event> events) {
+
+			return events.map(it -> new Event(it.getCounter())) //
+					.buffer(ingestBatchSize) //
+					.index() //
+					.concatMap(batch -> admissionControl.admit(inTransaction(ingestTransactions,
+							batchWriter.insertAll(batch.getT2()) //
+									.collectList() //
+									.map(saved -> CommittedRound.of(batch.getT1().intValue(), saved)))), 1);
+		}
+
+		private <T> Flux<T> writeRounds(Flux<Integer> counter, Function<Integer, Mono<T>> round) {
+
+			return counter.doOnNext(i -> writeMetrics.queued(roundSize)) //
+					.onBackpressureBuffer() //
+					.flatMap(i -> round.apply(i) //
+							.doOnSubscribe(it -> writeMetrics.started(roundSize)) //
+							.doFinally(signal -> writeMetrics.completed()), writeConcurrency) //
+					.doOnDiscard(Integer.class, i -> writeMetrics.discarded(roundSize));
+		}
+
+		private Mono<List<Event>> saveRound(int i) {
+
+			return Mono.defer(() -> {
+
+				int from = roundSize * i;
+				System.out.printf("Round %d, from %d to %d%n", i, from, from + roundSize);
+
+				List<Event> events = IntStream.range(from, from + roundSize).mapToObj(Event::new)
+						.collect(Collectors.toList());
+
+				return Mono.defer(() -> {
+
+					long start = System.nanoTime();
+					return batchWriter.insertAll(events).collectList().doOnSuccess(it -> {
+
+						long elapsed = (System.nanoTime() - start) / 1_000_000;
+						System.out.printf("Round %d, saved %d events in %d ms, %s%n", i, events.size(), elapsed,
+								writeMetrics);
+					});
+				});
 			});
 		}
 
@@ -116,13 +460,457 @@ public class WebfluxApplication {
 			return eventRepository.findAll();
 		}
 
+		/**
+		 * @return statistics over all committed events. Reads a single summary row regardless of the number of events.
+		 */
+		public Mono<EventStatistics> getStatistics() {
+			return statisticsRepository.find();
+		}
+
+		/**
+		 * Recompute statistics from the {@code event} table. The summary row is locked first so transactions committing
+		 * concurrently apply their delta after the rebuild, on top of the recomputed values.
+		 */
+		@Transactional
+		public Mono<EventStatistics> rebuildStatistics() {
+
+			return statisticsRepository.findForUpdate() //
+					.then(statisticsRepository.rebuild()) //
+					.then(statisticsRepository.find());
+		}
+
+		public WriteMetrics getWriteMetrics() {
+			return writeMetrics;
+		}
+
 		public void deleteAll() {
 			eventRepository.deleteAll();
 		}
 	}
 
+	/**
+	 * Range of event ids committed by a round.
+	 */
+	public static class CommittedRound {
+
+		private final int round;
+		private final int firstId;
+		private final int lastId;
+		private final int count;
+
+		CommittedRound(int round, int firstId, int lastId, int count) {
+			this.round = round;
+			this.firstId = firstId;
+			this.lastId = lastId;
+			this.count = count;
+		}
+
+		static CommittedRound of(int round, List<Event> events) {
+
+			IntSummaryStatistics ids = events.stream().mapToInt(Event::getId).summaryStatistics();
+			return new CommittedRound(round, ids.getMin(), ids.getMax(), events.size());
+		}
+
+		public int getRound() {
+			return this.round;
+		}
+
+		public int getFirstId() {
+			return this.firstId;
+		}
+
+		public int getLastId() {
+			return this.lastId;
+		}
+
+		public int getCount() {
+			return this.count;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("Round %d, committed ids %d to %d", round, firstId, lastId);
+		}
+	}
+
+	/**
+	 * Queue depth of transactional writes. Queued rounds were emitted but wait for a free write slot, in-flight rounds
+	 * are being written. Maximum values are kept until the application restarts.
+	 */
+	public static class WriteMetrics {
+
+		private final AtomicInteger queuedRounds = new AtomicInteger();
+		private final AtomicInteger queuedEvents = new AtomicInteger();
+		private final AtomicInteger inFlightRounds = new AtomicInteger();
+		private final AtomicInteger maxQueuedRounds = new AtomicInteger();
+		private final AtomicInteger maxQueuedEvents = new AtomicInteger();
+		private final AtomicInteger maxInFlightRounds = new AtomicInteger();
+		private final AtomicInteger completedRounds = new AtomicInteger();
+
+		void queued(int events) {
+			maxQueuedRounds.accumulateAndGet(queuedRounds.incrementAndGet(), Math::max);
+			maxQueuedEvents.accumulateAndGet(queuedEvents.addAndGet(events), Math::max);
+		}
+
+		void started(int events) {
+			discarded(events);
+			maxInFlightRounds.accumulateAndGet(inFlightRounds.incrementAndGet(), Math::max);
+		}
+
+		void discarded(int events) {
+			queuedRounds.decrementAndGet();
+			queuedEvents.addAndGet(-events);
+		}
+
+		void completed() {
+			inFlightRounds.decrementAndGet();
+			completedRounds.incrementAndGet();
+		}
+
+		public Map<String, Integer> toMap() {
+
+			Map<String, Integer> metrics = new LinkedHashMap<>();
+			metrics.put("queuedRounds", queuedRounds.get());
+			metrics.put("queuedEvents", queuedEvents.get());
+			metrics.put("inFlightRounds", inFlightRounds.get());
+			metrics.put("maxQueuedRounds", maxQueuedRounds.get());
+			metrics.put("maxQueuedEvents", maxQueuedEvents.get());
+			metrics.put("maxInFlightRounds", maxInFlightRounds.get());
+			metrics.put("completedRounds", completedRounds.get());
+			return metrics;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("queued %d rounds (%d events), in flight %d rounds", queuedRounds.get(),
+					queuedEvents.get(), inFlightRounds.get());
+		}
+	}
+
 	interface EventRepository extends ReactiveCrudRepository<Event, Integer> {
 
+		@Query("SELECT id FROM event WHERE id > :after ORDER BY id LIMIT :limit")
+		Flux<Integer> findIdsAfter(@Param("after") int after, @Param("limit") int limit);
+
+		@Query("SELECT * FROM event WHERE id > :after AND id <= :last ORDER BY id")
+		Flux<Event> findRange(@Param("after") int after, @Param("last") int last);
+
+		@Query("SELECT * FROM event WHERE commit_position > :position OR commit_position = :position AND id > :id "
+				+ "ORDER BY commit_position, id")
+		Flux<Event> findAllCommittedAfter(@Param("position") long position, @Param("id") int id);
+	}
+
+	interface EventStatisticsRepository extends ReactiveCrudRepository<EventStatistics, Integer> {
+
+		@Query("SELECT * FROM event_stats WHERE id = 1")
+		Mono<EventStatistics> find();
+
+		@Query("SELECT * FROM event_stats WHERE id = 1 FOR UPDATE")
+		Mono<EventStatistics> findForUpdate();
+
+		@Modifying
+		@Query("UPDATE event_stats SET event_count = (SELECT COUNT(*) FROM event), "
+				+ "min_counter = (SELECT MIN(counter) FROM event), max_counter = (SELECT MAX(counter) FROM event), "
+				+ "sum_counter = (SELECT COALESCE(SUM(counter), 0) FROM event) WHERE id = 1")
+		Mono<Integer> rebuild();
+	}
+
+	/**
+	 * Count, min, max and sum of event counters, stored in a single row. Min and max are {@literal null} without events.
+	 */
+	@Table("event_stats")
+	static class EventStatistics {
+
+		@Id Integer id;
+
+		long eventCount;
+
+		@Nullable Integer minCounter;
+
+		@Nullable Integer maxCounter;
+
+		long sumCounter;
+
+		public long getEventCount() {
+			return eventCount;
+		}
+
+		public void setEventCount(long eventCount) {
+			this.eventCount = eventCount;
+		}
+
+		@Nullable
+		public Integer getMinCounter() {
+			return minCounter;
+		}
+
+		public void setMinCounter(@Nullable Integer minCounter) {
+			this.minCounter = minCounter;
+		}
+
+		@Nullable
+		public Integer getMaxCounter() {
+			return maxCounter;
+		}
+
+		public void setMaxCounter(@Nullable Integer maxCounter) {
+			this.maxCounter = maxCounter;
+		}
+
+		public long getSumCounter() {
+			return sumCounter;
+		}
+
+		public void setSumCounter(long sumCounter) {
+			this.sumCounter = sumCounter;
+		}
+	}
+
+	/**
+	 * Inserts {@link Event}s using multi-row {@code INSERT} statements instead of one statement per event. Participates
+	 * in an ongoing transaction. Once it commits, the page cache is invalidated and inserted events are published to
+	 * the change feed. Without a transaction, this happens right after the insert. Rollbacks publish nothing.
+	 */
+	@Component
+	static class EventBatchWriter {
+
+		private final ConnectionFactory connectionFactory;
+		private final ReadCache<?, ?> pageCache;
+		private final ChangeFeed<Event> eventFeed;
+		private final @Nullable BlockIdAllocator idAllocator;
+		private final int batchSize;
+
+		EventBatchWriter(ConnectionFactory connectionFactory, ReadCache<String, EventPage> pageCache,
+				ChangeFeed<Event> eventFeed, @Nullable BlockIdAllocator idAllocator,
+				@Value("${events.batch-size:1000}") int batchSize) {
+			this.connectionFactory = connectionFactory;
+			this.pageCache = pageCache;
+			this.eventFeed = eventFeed;
+			this.idAllocator = idAllocator;
+			this.batchSize = batchSize;
+		}
+
+		/**
+		 * Insert {@code events} and assign their ids, either allocated upfront through {@link BlockIdAllocator} or
+		 * generated by the database. Within a transaction, the statistics summary is updated once with the delta of all
+		 * events inserted by the transaction right before it commits, so the summary row is locked only briefly and a
+		 * rollback discards the delta along with the events. While holding that lock, the transaction takes its commit
+		 * position from {@code event_commit_seq} and stores it with its events. Unlike ids, which are assigned on
+		 * insert, positions increase in commit order, so the event feed can resume after a position without missing
+		 * events of transactions that committed late. Without a transaction, each batch updates the summary and takes
+		 * a position right after it was inserted, so concurrent batches may be published out of order.
+		 */
+		Flux<Event> insertAll(List<Event> events) {
+
+			List<List<Event>> batches = new ArrayList<>();
+			for (int i = 0; i < events.size(); i += batchSize) {
+				batches.add(events.subList(i, Math.min(events.size(), i + batchSize)));
+			}
+
+			return TransactionSynchronizationManager.forCurrentTransaction() //
+					.filter(TransactionSynchronizationManager::isSynchronizationActive) //
+					.map(this::getUncommittedEvents) //
+					.map(uncommitted -> Flux.fromIterable(batches) //
+							.concatMap(batch -> insertBatch(batch, uncommitted::addAll))) //
+					.onErrorResume(NoTransactionException.class, e -> Mono.empty()) //
+					.defaultIfEmpty(Flux.fromIterable(batches).concatMap(batch -> insertBatch(batch, it -> {}) //
+							.collectList() //
+							.flatMapMany(inserted -> recordCommit(inserted) //
+									.doOnSuccess(it -> committed(inserted)) //
+									.thenMany(Flux.fromIterable(inserted))))) //
+					.flatMapMany(Function.identity());
+		}
+
+		/**
+		 * Events inserted within the current transaction, bound to the transaction on first use.
+		 */
+		@SuppressWarnings("unchecked")
+		private List<Event> getUncommittedEvents(TransactionSynchronizationManager synchronizationManager) {
+
+			List<Event> uncommitted = (List<Event>) synchronizationManager.getResource(this);
+
+			if (uncommitted == null) {
+
+				List<Event> events = Collections.synchronizedList(new ArrayList<>());
+
+				synchronizationManager.bindResource(this, events);
+				synchronizationManager.registerSynchronization(new TransactionSynchronization() {
+
+					@Override
+					public Mono<Void> beforeCommit(boolean readOnly) {
+						return recordCommit(events).doOnNext(eventFeed::reserve).then();
+					}
+
+					@Override
+					public Mono<Void> afterCommit() {
+						return Mono.fromRunnable(() -> committed(events));
+					}
+
+					@Override
+					public Mono<Void> afterCompletion(int status) {
+
+						return Mono.fromRunnable(() -> {
+
+							Long position = events.isEmpty() ? null : events.get(0).getCommitPosition();
+							if (status != STATUS_COMMITTED && position != null) {
+								eventFeed.cancel(position);
+							}
+						});
+					}
+				});
+
+				uncommitted = events;
+			}
+
+			return uncommitted;
+		}
+
+		private void committed(List<Event> events) {
+
+			pageCache.invalidate();
+
+			if (!events.isEmpty()) {
+
+				List<Event> ordered = new ArrayList<>(events);
+				ordered.sort(Comparator.comparing(Event::getId));
+				eventFeed.publish(ordered.get(0).getCommitPosition(), ordered);
+			}
+		}
+
+		/**
+		 * Add count, min, max and sum of {@code events} to the statistics summary and store the next commit position
+		 * with {@code events}.
+		 *
+		 * @return the commit position.
+		 */
+		private Mono<Long> recordCommit(List<Event> events) {
+
+			if (events.isEmpty()) {
+				return Mono.empty();
+			}
+
+			IntSummaryStatistics delta = events.stream().mapToInt(Event::getCounter).summaryStatistics();
+
+			return Flux.usingWhen(ConnectionFactoryUtils.getConnection(connectionFactory), connection -> {
+
+				Statement statement = connection.createStatement("UPDATE event_stats "
+						+ "SET event_count = event_count + $1, sum_counter = sum_counter + $2, "
+						+ "min_counter = LEAST(COALESCE(min_counter, $3), $3), "
+						+ "max_counter = GREATEST(COALESCE(max_counter, $4), $4) WHERE id = 1") //
+						.bind(0, delta.getCount()) //
+						.bind(1, delta.getSum()) //
+						.bind(2, delta.getMin()) //
+						.bind(3, delta.getMax());
+
+				return Flux.from(statement.execute()) //
+						.concatMap(Result::getRowsUpdated) //
+						.thenMany(Flux.defer(() -> connection.createStatement("SELECT NEXT VALUE FOR event_commit_seq")
+								.execute())) //
+						.concatMap(result -> result.map((row, metadata) -> row.get(0, Long.class))) //
+						.concatMap(position -> storeCommitPosition(connection, events, position));
+
+			}, this::releaseConnection).next();
+		}
+
+		private Mono<Long> storeCommitPosition(Connection connection, List<Event> events, long position) {
+
+			return Flux.range(0, (events.size() + batchSize - 1) / batchSize).concatMap(i -> {
+
+				List<Event> batch = events.subList(i * batchSize, Math.min(events.size(), (i + 1) * batchSize));
+
+				StringJoiner ids = new StringJoiner(", ");
+				for (int j = 0; j < batch.size(); j++) {
+					ids.add("$" + (j + 2));
+				}
+
+				Statement statement = connection
+						.createStatement("UPDATE event SET commit_position = $1 WHERE id IN (" + ids + ")") //
+						.bind(0, position);
+				for (int j = 0; j < batch.size(); j++) {
+					statement.bind(j + 1, batch.get(j).getId());
+					batch.get(j).setCommitPosition(position);
+				}
+
+				return Flux.from(statement.execute()).concatMap(Result::getRowsUpdated);
+			}).then(Mono.just(position));
+		}
+
+		/**
+		 * Insert {@code batch} and emit its events with their ids. {@code inserted} is notified once the database
+		 * acknowledged the insert, before the first event is emitted, so a subscriber canceling in between cannot miss
+		 * rows the transaction is going to commit.
+		 */
+		private Flux<Event> insertBatch(List<Event> batch, Consumer<List<Event>> inserted) {
+
+			if (idAllocator != null) {
+				return insertBatchWithIds(batch, inserted);
+			}
+
+			return Flux.usingWhen(ConnectionFactoryUtils.getConnection(connectionFactory), connection -> {
+
+				StringJoiner values = new StringJoiner(", ");
+				for (int i = 0; i < batch.size(); i++) {
+					values.add("($" + (i + 1) + ")");
+				}
+
+				Statement statement = connection.createStatement("INSERT INTO event (counter) VALUES " + values)
+						.returnGeneratedValues("id");
+				for (int i = 0; i < batch.size(); i++) {
+					statement.bind(i, batch.get(i).getCounter());
+				}
+
+				return Flux.from(statement.execute()) //
+						.concatMap(result -> result.map((row, metadata) -> row.get("id", Integer.class))) //
+						.collectList() //
+						.flatMapIterable(ids -> {
+
+							for (int i = 0; i < ids.size(); i++) {
+								batch.get(i).setId(ids.get(i));
+							}
+
+							inserted.accept(batch);
+							return batch;
+						});
+
+			}, this::releaseConnection);
+		}
+
+		private Flux<Event> insertBatchWithIds(List<Event> batch, Consumer<List<Event>> inserted) {
+
+			return idAllocator.allocate(batch.size()).flatMapMany(ids -> {
+
+				for (int i = 0; i < batch.size(); i++) {
+					batch.get(i).setId(ids.get(i));
+				}
+
+				return Flux.usingWhen(ConnectionFactoryUtils.getConnection(connectionFactory), connection -> {
+
+					StringJoiner values = new StringJoiner(", ");
+					for (int i = 0; i < batch.size(); i++) {
+						values.add("($" + (2 * i + 1) + ", $" + (2 * i + 2) + ")");
+					}
+
+					Statement statement = connection.createStatement("INSERT INTO event (id, counter) VALUES " + values);
+					for (int i = 0; i < batch.size(); i++) {
+						statement.bind(2 * i, batch.get(i).getId()).bind(2 * i + 1, batch.get(i).getCounter());
+					}
+
+					return Flux.from(statement.execute()) //
+							.concatMap(Result::getRowsUpdated) //
+							.doOnComplete(() -> inserted.accept(batch));
+
+				}, this::releaseConnection).thenMany(Flux.fromIterable(batch));
+			});
+		}
+
+		/**
+		 * Close {@code connection} unless it is bound to the current transaction, same as {@link DatabaseClient} does.
+		 */
+		private Mono<Void> releaseConnection(Connection connection) {
+
+			return ConnectionFactoryUtils.currentConnectionFactory(connectionFactory).then()
+					.onErrorResume(Exception.class, e -> Mono.from(connection.close()));
+		}
 	}
 
 	static class Event {
@@ -131,6 +919,10 @@ public class WebfluxApplication {
 
 		int counter;
 
+		@Nullable Long commitPosition;
+
+		Event() {}
+
 		public Event(int counter) {
 			this.counter = counter;
 		}
@@ -150,5 +942,17 @@ public class WebfluxApplication {
 		public void setCounter(int counter) {
 			this.counter = counter;
 		}
+
+		/**
+		 * @return position of the transaction that committed the event, see {@link EventBatchWriter#insertAll(List)}.
+		 */
+		@Nullable
+		public Long getCommitPosition() {
+			return this.commitPosition;
+		}
+
+		public void setCommitPosition(@Nullable Long commitPosition) {
+			this.commitPosition = commitPosition;
+		}
 	}
 }
@@ -1,5 +1,34 @@
+-- blocks of ids for BlockIdAllocator, ids generated by the database (events.id-generation=database) use the identity
+-- of event.id instead. Both write the same column, so a database must not be shared between both modes.
+CREATE SEQUENCE event_id_block_seq INCREMENT BY 1000;
+
+-- Commit order of events for the event feed, see EventBatchWriter. Values are taken while the event_stats row is
+-- locked by the committing transaction, so they increase in commit order. Rolled back values are skipped.
+CREATE SEQUENCE event_commit_seq;
+
 CREATE TABLE event
 (
-    id      SERIAL PRIMARY KEY,
-    counter INT
+    id              SERIAL PRIMARY KEY,
+    counter         INT,
+    commit_position BIGINT
+);
+
+CREATE INDEX event_commit_position ON event (commit_position, id);
+
+CREATE TABLE event_stats
+(
+    id          INT PRIMARY KEY,
+    event_count BIGINT NOT NULL,
+    min_counter INT,
+    max_counter INT,
+    sum_counter BIGINT NOT NULL
+);
+
+INSERT INTO event_stats VALUES (1, 0, NULL, NULL, 0);
+
+CREATE TABLE idempotency_key
+(
+    idem_key         VARBINARY(1020) PRIMARY KEY,
+    completed_rounds INT       NOT NULL,
+    created_at       TIMESTAMP NOT NULL
 );
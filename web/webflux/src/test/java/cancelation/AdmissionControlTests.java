@@ -0,0 +1,145 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cancelation;
+
+import static org.assertj.core.api.Assertions.*;
+
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoProcessor;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.reactive.AutoConfigureWebTestClient;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.test.web.reactive.server.WebTestClient;
+
+/**
+ * Tests for {@link AdmissionControl} and rejections answered with {@code 503 Service Unavailable}.
+ */
+@SpringBootTest(properties = { "events.round-delay=0s", "events.admission.max-concurrent=1",
+		"events.admission.max-queue=1", "events.admission.max-wait=200ms", "events.admission.retry-after=7s" })
+@AutoConfigureWebTestClient
+final class AdmissionControlTests {
+
+	@Autowired WebTestClient client;
+	@Autowired AdmissionControl admissionControl;
+
+	@AfterEach
+	void tearDown() {
+		assertThat(admissionControl.getMetrics()).containsEntry("inFlight", 0).containsEntry("waiting", 0);
+	}
+
+	@Test
+	void rejectsWithRetryAfterWhenQueueIsFull() {
+
+		Disposable running = admissionControl.admit(Mono.never()).subscribe();
+		Disposable queued = admissionControl.admit(Mono.never()).subscribe();
+
+		try {
+			client.post().uri("/").exchange() //
+					.expectStatus().isEqualTo(503) //
+					.expectHeader().valueEquals(HttpHeaders.RETRY_AFTER, "7");
+		} finally {
+			queued.dispose();
+			running.dispose();
+		}
+	}
+
+	@Test
+	void rejectsWithRetryAfterAfterMaxWait() {
+
+		Disposable running = admissionControl.admit(Mono.never()).subscribe();
+		long rejected = (long) admissionControl.getMetrics().get("rejected");
+		long admitted = (long) admissionControl.getMetrics().get("admitted");
+
+		try {
+			client.post().uri("/").exchange() //
+					.expectStatus().isEqualTo(503) //
+					.expectHeader().valueEquals(HttpHeaders.RETRY_AFTER, "7");
+		} finally {
+			running.dispose();
+		}
+
+		// the timed out request left the queue and was not handed the released permit
+		assertThat(admissionControl.getMetrics()).containsEntry("rejected", rejected + 1)
+				.containsEntry("admitted", admitted);
+	}
+
+	@Test
+	void admitsQueuedWorkOncePermitIsReleased() {
+
+		MonoProcessor<Void> running = MonoProcessor.create();
+		admissionControl.admit(running).subscribe();
+
+		MonoProcessor<String> queued = admissionControl.admit(Mono.just("admitted")).toProcessor();
+		assertThat(queued.isTerminated()).isFalse();
+
+		running.onComplete();
+
+		assertThat(queued.block(Duration.ofSeconds(5))).isEqualTo("admitted");
+	}
+
+	@Test
+	void canceledWaitersDoNotLeakPermits() throws Exception {
+
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+
+		try {
+
+			for (int i = 0; i < 2000; i++) {
+
+				MonoProcessor<Void> running = MonoProcessor.create();
+				admissionControl.admit(running).subscribe();
+				Disposable waiter = admissionControl.admit(Mono.never()).subscribe();
+
+				// hand the permit over to the waiter while it gets canceled
+				CountDownLatch start = new CountDownLatch(1);
+				CountDownLatch done = new CountDownLatch(2);
+				executor.execute(() -> race(start, done, running::onComplete));
+				executor.execute(() -> race(start, done, waiter::dispose));
+
+				start.countDown();
+				assertThat(done.await(5, TimeUnit.SECONDS)).isTrue();
+				assertThat(admissionControl.getMetrics()).as("Iteration %d", i).containsEntry("inFlight", 0)
+						.containsEntry("waiting", 0);
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private static void race(CountDownLatch start, CountDownLatch done, Runnable action) {
+
+		try {
+			start.await();
+			action.run();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			done.countDown();
+		}
+	}
+}
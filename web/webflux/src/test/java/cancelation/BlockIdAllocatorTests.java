@@ -0,0 +1,86 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cancelation;
+
+import static org.assertj.core.api.Assertions.*;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoProcessor;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Unit tests for {@link BlockIdAllocator}.
+ */
+final class BlockIdAllocatorTests {
+
+	static final int BLOCK_SIZE = 10;
+
+	@Test
+	void concurrentAllocationsReturnUniqueIds() {
+
+		AtomicInteger sequence = new AtomicInteger();
+		BlockIdAllocator allocator = new BlockIdAllocator(BLOCK_SIZE,
+				() -> Mono.fromCallable(() -> sequence.getAndAdd(BLOCK_SIZE)).delayElement(Duration.ofMillis(1)));
+
+		List<Integer> ids = Flux.range(0, 200) //
+				.flatMap(it -> allocator.allocate(1 + it % 13).subscribeOn(Schedulers.parallel()), 32) //
+				.flatMapIterable(it -> it) //
+				.collectList() //
+				.block(Duration.ofSeconds(10));
+
+		int expected = Flux.range(0, 200).map(it -> 1 + it % 13).reduce(0, Integer::sum).block();
+
+		assertThat(ids).hasSize(expected).doesNotHaveDuplicates();
+	}
+
+	@Test
+	void keepsLargerRemainderOfConcurrentlyFetchedBlocks() {
+
+		Queue<MonoProcessor<Integer>> fetches = new ArrayDeque<>();
+		BlockIdAllocator allocator = new BlockIdAllocator(BLOCK_SIZE, () -> {
+
+			MonoProcessor<Integer> block = MonoProcessor.create();
+			fetches.add(block);
+			return block;
+		});
+
+		// both find no ids left and fetch a block, the one leaving the smaller remainder completes last
+		MonoProcessor<List<Integer>> first = allocator.allocate(3).toProcessor();
+		MonoProcessor<List<Integer>> second = allocator.allocate(8).toProcessor();
+
+		fetches.poll().onNext(0);
+		fetches.poll().onNext(10);
+
+		assertThat(first.block()).containsExactly(0, 1, 2);
+		assertThat(second.block()).containsExactly(10, 11, 12, 13, 14, 15, 16, 17);
+
+		// the remainder of the first block is used without fetching another one
+		MonoProcessor<List<Integer>> third = allocator.allocate(7).toProcessor();
+
+		assertThat(fetches).isEmpty();
+		assertThat(third.peek()).containsExactly(3, 4, 5, 6, 7, 8, 9);
+		assertThat(allocator.getMetrics()).containsEntry("blocks", 2L).containsEntry("allocated", 18L);
+	}
+}
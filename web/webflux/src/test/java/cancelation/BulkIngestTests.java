@@ -0,0 +1,120 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cancelation;
+
+import static org.assertj.core.api.Assertions.*;
+
+import cancelation.CanceledWrites.StallingBatchWriter;
+import cancelation.WebfluxApplication.Event;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.reactive.AutoConfigureWebTestClient;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.data.r2dbc.core.DatabaseClient;
+import org.springframework.test.web.reactive.server.WebTestClient;
+
+/**
+ * Tests for the NDJSON bulk-ingest endpoint.
+ */
+@SpringBootTest(properties = "events.ingest-batch-size=100")
+@AutoConfigureWebTestClient
+@Import(CanceledWrites.Config.class)
+final class BulkIngestTests {
+
+	static final int EVENTS = 50_000;
+	static final int BATCH_SIZE = 100;
+	static final int PREFETCH = 512;
+
+	@Autowired WebTestClient client;
+	@Autowired StallingBatchWriter batchWriter;
+	@Autowired ConnectionPoolMetrics poolMetrics;
+	@Autowired DatabaseClient databaseClient;
+
+	@BeforeEach
+	void setUp() {
+
+		CanceledWrites.deleteEvents(databaseClient);
+		batchWriter.reset();
+	}
+
+	@Test
+	void ingestKeepsUploadBacklogBounded() {
+
+		AtomicLong written = new AtomicLong();
+		AtomicLong maxOutstanding = new AtomicLong();
+
+		Flux<Event> upload = Flux.range(0, EVENTS) //
+				.map(Event::new) //
+				.doOnNext(it -> maxOutstanding.accumulateAndGet(it.getCounter() + 1 - written.get(), Math::max));
+
+		client.post().uri("/events") //
+				.contentType(WebfluxApplication.APPLICATION_NDJSON) //
+				.body(upload, Event.class) //
+				.exchange() //
+				.expectStatus().isOk() //
+				.returnResult(new ParameterizedTypeReference<Map<String, Integer>>() {}) //
+				.getResponseBody() //
+				.doOnNext(round -> written.addAndGet(round.get("count"))) //
+				.as(StepVerifier::create) //
+				.expectNextCount(EVENTS / BATCH_SIZE) //
+				.verifyComplete();
+
+		assertThat(written).hasValue(EVENTS);
+
+		// one batch being written, one being collected plus what codecs and transport prefetch, independent of EVENTS
+		assertThat(maxOutstanding.get()).isLessThanOrEqualTo(2 * BATCH_SIZE + PREFETCH);
+	}
+
+	@Test
+	void abortedUploadRollsBackBatchInFlight() throws InterruptedException {
+
+		// the third batch inserts its events and then hangs until the upload breaks off
+		CompletableFuture<Void> stalled = batchWriter.stallFrom(2);
+
+		Flux<Event> upload = Flux.range(0, 3 * BATCH_SIZE) //
+				.map(Event::new) //
+				.concatWith(Mono.<Event> error(new IllegalStateException("Upload aborted"))
+						.delaySubscription(Mono.fromFuture(stalled)));
+
+		client.post().uri("/events") //
+				.contentType(WebfluxApplication.APPLICATION_NDJSON) //
+				.body(upload, Event.class) //
+				.exchange() //
+				.returnResult(new ParameterizedTypeReference<Map<String, Integer>>() {}) //
+				.getResponseBody() //
+				.as(StepVerifier::create) //
+				.expectNextCount(2) //
+				.verifyErrorMessage("Upload aborted");
+
+		CanceledWrites.awaitIdlePool(poolMetrics);
+
+		assertThat(CanceledWrites.count(databaseClient, "SELECT COUNT(*) FROM event")).isEqualTo(2 * BATCH_SIZE);
+		assertThat(CanceledWrites.count(databaseClient, "SELECT event_count FROM event_stats"))
+				.isEqualTo(2 * BATCH_SIZE);
+	}
+}
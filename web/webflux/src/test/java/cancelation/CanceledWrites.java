@@ -0,0 +1,154 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cancelation;
+
+import static org.assertj.core.api.Assertions.*;
+
+import cancelation.EventPages.EventPage;
+import cancelation.WebfluxApplication.Event;
+import cancelation.WebfluxApplication.EventBatchWriter;
+import io.r2dbc.spi.ConnectionFactory;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import rxtx.support.ReadCache;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Primary;
+import org.springframework.data.r2dbc.core.DatabaseClient;
+
+/**
+ * Support for tests canceling writes while their transaction is in flight, e.g. by a client disconnect. Import
+ * {@link Config} to write through a {@link StallingBatchWriter}.
+ */
+final class CanceledWrites {
+
+	private CanceledWrites() {}
+
+	/**
+	 * Wait for rollback and release of connections, which complete asynchronously after a cancellation.
+	 */
+	static void awaitIdlePool(ConnectionPoolMetrics poolMetrics) throws InterruptedException {
+
+		for (int i = 0; i < 100 && !isIdle(poolMetrics.getMetrics()); i++) {
+			Thread.sleep(10);
+		}
+
+		assertThat(poolMetrics.getMetrics()).matches(CanceledWrites::isIdle, "no connection pending or in use");
+	}
+
+	private static boolean isIdle(Map<String, Object> metrics) {
+		return metrics.get("pending").equals(0) && metrics.get("acquired").equals(metrics.get("released"));
+	}
+
+	/**
+	 * Wait for a {@link StallingBatchWriter} to stall, see {@link StallingBatchWriter#stallFrom(int)}.
+	 */
+	static void await(CompletableFuture<Void> stalled) {
+
+		try {
+			stalled.get(5, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(e);
+		} catch (ExecutionException | TimeoutException e) {
+			throw new IllegalStateException("Batch writer did not stall", e);
+		}
+	}
+
+	static long count(DatabaseClient databaseClient, String sql) {
+		return databaseClient.execute(sql).map(row -> row.get(0, Long.class)).one().block();
+	}
+
+	/**
+	 * Remove all events and reset the statistics summary.
+	 */
+	static void deleteEvents(DatabaseClient databaseClient) {
+
+		databaseClient.execute("DELETE FROM event").then().block();
+		databaseClient.execute("UPDATE event_stats SET event_count = 0, min_counter = NULL, max_counter = NULL, "
+				+ "sum_counter = 0").then().block();
+	}
+
+	@TestConfiguration
+	static class Config {
+
+		@Bean
+		@Primary
+		StallingBatchWriter stallingBatchWriter(ConnectionFactory connectionFactory,
+				ReadCache<String, EventPage> pageCache, ChangeFeed<Event> eventFeed,
+				ObjectProvider<BlockIdAllocator> idAllocator, @Value("${events.batch-size:1000}") int batchSize) {
+			return new StallingBatchWriter(connectionFactory, pageCache, eventFeed, idAllocator.getIfAvailable(),
+					batchSize);
+		}
+	}
+
+	/**
+	 * {@link EventBatchWriter} that, starting with a given call, inserts the events but never completes, like a
+	 * statement that takes forever.
+	 */
+	static class StallingBatchWriter extends EventBatchWriter {
+
+		private final AtomicInteger calls = new AtomicInteger();
+		private volatile int stallFrom = Integer.MAX_VALUE;
+		private volatile CompletableFuture<Void> stalled = new CompletableFuture<>();
+
+		StallingBatchWriter(ConnectionFactory connectionFactory, ReadCache<String, EventPage> pageCache,
+				ChangeFeed<Event> eventFeed, BlockIdAllocator idAllocator, int batchSize) {
+			super(connectionFactory, pageCache, eventFeed, idAllocator, batchSize);
+		}
+
+		/**
+		 * Stall calls from {@code call} on, counting from the next call as {@literal 0}.
+		 *
+		 * @return completed once a call has inserted its events and stalls.
+		 */
+		CompletableFuture<Void> stallFrom(int call) {
+
+			CompletableFuture<Void> stalled = new CompletableFuture<>();
+			this.calls.set(0);
+			this.stalled = stalled;
+			this.stallFrom = call;
+			return stalled;
+		}
+
+		void reset() {
+			stallFrom(Integer.MAX_VALUE);
+		}
+
+		@Override
+		Flux<Event> insertAll(List<Event> events) {
+
+			if (calls.getAndIncrement() < stallFrom) {
+				return super.insertAll(events);
+			}
+
+			CompletableFuture<Void> stalled = this.stalled;
+			return super.insertAll(events)
+					.concatWith(Mono.<Event> never().doOnSubscribe(it -> stalled.complete(null)));
+		}
+	}
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cancelation;
+
+import static org.assertj.core.api.Assertions.*;
+
+import cancelation.CanceledWrites.StallingBatchWriter;
+import cancelation.IdempotentSaves.IdempotentSaveService;
+import cancelation.WebfluxApplication.Event;
+import cancelation.WebfluxApplication.TransactionalService;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.r2dbc.core.DatabaseClient;
+import org.springframework.transaction.ReactiveTransactionManager;
+import org.springframework.transaction.reactive.TransactionalOperator;
+
+/**
+ * Tests for writes canceled while a transaction is in flight, e.g. by a client disconnect.
+ */
+@SpringBootTest(properties = { "events.round-delay=0s", "events.round-size=10" })
+@Import(CanceledWrites.Config.class)
+final class CancellationTests {
+
+	@Autowired TransactionalService transactionalService;
+	@Autowired IdempotentSaveService idempotentSaves;
+	@Autowired StallingBatchWriter batchWriter;
+	@Autowired ConnectionPoolMetrics poolMetrics;
+	@Autowired DatabaseClient databaseClient;
+	@Autowired ReactiveTransactionManager transactionManager;
+
+	@BeforeEach
+	void setUp() {
+
+		CanceledWrites.deleteEvents(databaseClient);
+		databaseClient.execute("DELETE FROM idempotency_key").then().block();
+		batchWriter.reset();
+	}
+
+	@Test
+	void cancelRollsBackRoundInFlight() throws InterruptedException {
+
+		// the second round inserts its events and then hangs
+		CompletableFuture<Void> stalled = batchWriter.stallFrom(1);
+
+		transactionalService.saveInRounds(Flux.range(0, 3)) //
+				.as(StepVerifier::create) //
+				.expectNextCount(1) //
+				.then(() -> CanceledWrites.await(stalled)) //
+				.thenCancel() //
+				.verify();
+
+		CanceledWrites.awaitIdlePool(poolMetrics);
+
+		assertThat(CanceledWrites.count(databaseClient, "SELECT COUNT(*) FROM event")).isEqualTo(10);
+		assertThat(CanceledWrites.count(databaseClient, "SELECT event_count FROM event_stats")).isEqualTo(10);
+	}
+
+	@Test
+	void retryResumesAfterRoundsCommittedBeforeCancel() throws InterruptedException {
+
+		CompletableFuture<Void> stalled = batchWriter.stallFrom(1);
+
+		idempotentSaves.save(Flux.range(0, 3), "cancel-mid-round") //
+				.as(StepVerifier::create) //
+				.expectNext(0) //
+				.then(() -> CanceledWrites.await(stalled)) //
+				.thenCancel() //
+				.verify();
+
+		CanceledWrites.awaitIdlePool(poolMetrics);
+		batchWriter.reset();
+
+		// the retry finds the first round committed with the key and saves the remaining ones exactly once
+		int completed = idempotentSaves.findCompletedRounds("cancel-mid-round").block();
+		assertThat(completed).isEqualTo(1);
+
+		idempotentSaves.save(Flux.range(completed, 3 - completed), "cancel-mid-round") //
+				.as(StepVerifier::create) //
+				.expectNext(1, 2) //
+				.verifyComplete();
+
+		assertThat(idempotentSaves.findCompletedRounds("cancel-mid-round").block()).isEqualTo(3);
+		assertThat(CanceledWrites.count(databaseClient, "SELECT COUNT(*) FROM event")).isEqualTo(30);
+		assertThat(CanceledWrites.count(databaseClient, "SELECT COUNT(DISTINCT counter) FROM event")).isEqualTo(30);
+	}
+
+	@Test
+	void statisticsCountEventsInsertedButNotConsumed() {
+
+		TransactionalOperator rxtx = TransactionalOperator.create(transactionManager);
+		List<Event> events = IntStream.range(0, 10).mapToObj(Event::new).collect(Collectors.toList());
+
+		// the batch is inserted, canceling after its first event must not lose the others from the delta
+		batchWriter.insertAll(events) //
+				.take(1) //
+				.as(rxtx::transactional) //
+				.as(StepVerifier::create) //
+				.expectNextCount(1) //
+				.verifyComplete();
+
+		assertThat(CanceledWrites.count(databaseClient, "SELECT COUNT(*) FROM event")).isEqualTo(10);
+		assertThat(CanceledWrites.count(databaseClient, "SELECT event_count FROM event_stats")).isEqualTo(10);
+	}
+}
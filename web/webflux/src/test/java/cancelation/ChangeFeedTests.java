@@ -0,0 +1,242 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cancelation;
+
+import static org.assertj.core.api.Assertions.*;
+
+import cancelation.EventFeed.EventFeedService;
+import cancelation.EventFeed.FeedIds;
+import cancelation.WebfluxApplication.Event;
+import cancelation.WebfluxApplication.EventBatchWriter;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoProcessor;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.r2dbc.core.DatabaseClient;
+import org.springframework.transaction.ReactiveTransactionManager;
+import org.springframework.transaction.reactive.TransactionalOperator;
+
+/**
+ * Tests for {@link ChangeFeed} and streaming committed events through {@link EventFeedService#changes(String)}.
+ */
+@SpringBootTest(properties = "events.round-delay=0s")
+final class ChangeFeedTests {
+
+	@Autowired EventFeedService eventFeedService;
+	@Autowired EventBatchWriter batchWriter;
+	@Autowired ChangeFeed<Event> eventFeed;
+	@Autowired DatabaseClient databaseClient;
+	@Autowired ReactiveTransactionManager transactionManager;
+
+	@BeforeEach
+	void setUp() {
+		CanceledWrites.deleteEvents(databaseClient);
+	}
+
+	@Test
+	void publishesEventsOnlyOnceTheirTransactionCommitted() {
+
+		List<Event> published = new CopyOnWriteArrayList<>();
+		Disposable subscription = eventFeed.subscribe().subscribe(published::add);
+
+		try {
+
+			MonoProcessor<Void> commit = MonoProcessor.create();
+			MonoProcessor<List<Event>> inserted = MonoProcessor.create();
+			MonoProcessor<List<Event>> saved = TransactionalOperator.create(transactionManager) //
+					.execute(status -> batchWriter.insertAll(events(0, 3)).collectList() //
+							.doOnNext(inserted::onNext) //
+							.delayUntil(it -> commit)) //
+					.next() //
+					.toProcessor();
+
+			inserted.block(Duration.ofSeconds(10));
+			assertThat(published).isEmpty();
+
+			commit.onComplete();
+
+			assertThat(saved.block(Duration.ofSeconds(10))).hasSize(3);
+			assertThat(published).extracting(Event::getId)
+					.containsExactlyElementsOf(saved.peek().stream().map(Event::getId).collect(Collectors.toList()));
+		} finally {
+			subscription.dispose();
+		}
+	}
+
+	@Test
+	void doesNotPublishRolledBackEvents() {
+
+		List<Event> published = new CopyOnWriteArrayList<>();
+		Disposable subscription = eventFeed.subscribe().subscribe(published::add);
+
+		try {
+
+			TransactionalOperator.create(transactionManager) //
+					.execute(status -> batchWriter.insertAll(events(0, 3)) //
+							.then(Mono.error(new IllegalStateException()))) //
+					.as(StepVerifier::create) //
+					.verifyError(IllegalStateException.class);
+
+			assertThat(published).isEmpty();
+
+			// the position of the rolled back transaction does not hold back later commits
+			List<Event> saved = TransactionalOperator.create(transactionManager) //
+					.execute(status -> batchWriter.insertAll(events(3, 1))) //
+					.collectList() //
+					.block(Duration.ofSeconds(10));
+
+			assertThat(published).extracting(Event::getCounter).containsExactly(3);
+			assertThat(published).extracting(Event::getId).containsExactly(saved.get(0).getId());
+		} finally {
+			subscription.dispose();
+		}
+	}
+
+	@Test
+	void resumesWithEventsOfTransactionsThatCommittedAfterLaterIds() {
+
+		// the first transaction gets the lower id but commits last
+		MonoProcessor<Void> commit = MonoProcessor.create();
+		MonoProcessor<List<Event>> inserted = MonoProcessor.create();
+		MonoProcessor<List<Event>> late = TransactionalOperator.create(transactionManager) //
+				.execute(status -> batchWriter.insertAll(events(0, 1)).collectList() //
+						.doOnNext(inserted::onNext) //
+						.delayUntil(it -> commit)) //
+				.next() //
+				.toProcessor();
+
+		inserted.block(Duration.ofSeconds(10));
+
+		Event early = TransactionalOperator.create(transactionManager) //
+				.execute(status -> batchWriter.insertAll(events(1, 1))) //
+				.blockFirst(Duration.ofSeconds(10));
+
+		commit.onComplete();
+		Event lateEvent = late.block(Duration.ofSeconds(10)).get(0);
+
+		assertThat(lateEvent.getId()).isLessThan(early.getId());
+		assertThat(lateEvent.getCommitPosition()).isGreaterThan(early.getCommitPosition());
+
+		eventFeedService.changes(FeedIds.encode(early)) //
+				.as(StepVerifier::create) //
+				.assertNext(it -> assertThat(it.getId()).isEqualTo(lateEvent.getId())) //
+				.thenCancel() //
+				.verify(Duration.ofSeconds(10));
+	}
+
+	@Test
+	void resumeSkipsLiveEventsPublishedDuringReplay() {
+
+		List<Event> saved = batchWriter.insertAll(events(0, 100)).collectList().block();
+
+		long position = saved.get(0).getCommitPosition();
+		Event next = new Event(100);
+		next.setId(saved.get(99).getId() + 1);
+		next.setCommitPosition(position + 1);
+
+		// request a single event so the replay is still running when events get published
+		eventFeedService.changes(position + ":" + (saved.get(0).getId() - 1)) //
+				.as(it -> StepVerifier.create(it, 1)) //
+				.expectNextCount(1) //
+				.then(() -> eventFeed.publish(position, Collections.singletonList(saved.get(49)))) //
+				.then(() -> eventFeed.publish(position + 1, Collections.singletonList(next))) //
+				.thenRequest(Long.MAX_VALUE) //
+				.recordWith(ArrayList::new) //
+				.expectNextCount(100) //
+				.consumeRecordedWith(events -> {
+					assertThat(events).extracting(Event::getId).doesNotHaveDuplicates().endsWith(next.getId());
+				}) //
+				.thenCancel() //
+				.verify();
+	}
+
+	@Test
+	void rejectsInvalidFeedIds() {
+		assertThatThrownBy(() -> eventFeedService.changes("42")).hasMessageContaining("Invalid event id");
+	}
+
+	@Test
+	void holdsBackLaterPositionsUntilReservedPositionCompleted() {
+
+		ChangeFeed<String> feed = new ChangeFeed<>(16, ChangeFeed.OverflowPolicy.DROP);
+
+		feed.subscribe() //
+				.as(StepVerifier::create) //
+				.then(() -> {
+					feed.reserve(1);
+					feed.reserve(2);
+					feed.publish(3, Collections.singletonList("c"));
+					feed.publish(2, Collections.singletonList("b"));
+				}) //
+				.expectNoEvent(Duration.ofMillis(50)) //
+				.then(() -> feed.cancel(1)) //
+				.expectNext("b", "c") //
+				.thenCancel() //
+				.verify();
+
+		assertThat(feed.getMetrics()).containsEntry("published", 2L).containsEntry("pending", 0);
+	}
+
+	@Test
+	void dropsOldestChangesOfSlowSubscribers() {
+
+		ChangeFeed<String> feed = new ChangeFeed<>(2, ChangeFeed.OverflowPolicy.DROP);
+
+		feed.subscribe() //
+				.as(it -> StepVerifier.create(it, 0)) //
+				.then(() -> feed.publish(1, Arrays.asList("a", "b", "c", "d"))) //
+				.thenRequest(Long.MAX_VALUE) //
+				.expectNext("c", "d") //
+				.thenCancel() //
+				.verify();
+
+		assertThat(feed.getMetrics()).containsEntry("dropped", 2L);
+	}
+
+	@Test
+	void disconnectsSlowSubscribers() {
+
+		ChangeFeed<String> feed = new ChangeFeed<>(2, ChangeFeed.OverflowPolicy.DISCONNECT);
+
+		feed.subscribe() //
+				.as(it -> StepVerifier.create(it, 0)) //
+				.then(() -> feed.publish(1, Arrays.asList("a", "b", "c"))) //
+				.thenRequest(Long.MAX_VALUE) //
+				.expectNext("a", "b") //
+				.verifyError(IllegalStateException.class);
+
+		assertThat(feed.getMetrics()).containsEntry("disconnected", 1L).containsEntry("subscribers", 0);
+	}
+
+	private static List<Event> events(int from, int count) {
+		return IntStream.range(from, from + count).mapToObj(Event::new).collect(Collectors.toList());
+	}
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cancelation;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.reactive.AutoConfigureWebTestClient;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.test.web.reactive.server.WebTestClient;
+
+/**
+ * Tests for connection hold times reported by {@link ConnectionPoolMetrics}.
+ */
+@SpringBootTest(properties = "events.round-delay=0s")
+@AutoConfigureWebTestClient
+final class ConnectionPoolMetricsTests {
+
+	@Autowired WebTestClient client;
+
+	@Test
+	@SuppressWarnings("unchecked")
+	void attributesHoldTimesToRequestAndTransactionalMethod() {
+
+		client.delete().uri("/metrics/pool").exchange().expectStatus().isOk();
+		client.post().uri("/").exchange().expectStatus().isOk().expectBody(String.class);
+
+		Map<String, Object> holds = client.get().uri("/metrics/pool/holds").exchange() //
+				.expectStatus().isOk() //
+				.expectBody(new ParameterizedTypeReference<Map<String, Object>>() {}) //
+				.returnResult().getResponseBody();
+
+		// all six rounds share the connection of a single transaction
+		assertThat((List<Map<String, Object>>) holds.get("holders")).anySatisfy(holder -> {
+
+			assertThat(holder).containsEntry("request", "POST /");
+			assertThat(holder.get("method")).asString().endsWith("TransactionalService.save");
+			assertThat(holder.get("leases")).isEqualTo(1);
+		});
+	}
+}
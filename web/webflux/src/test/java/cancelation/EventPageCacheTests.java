@@ -0,0 +1,149 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cancelation;
+
+import static org.assertj.core.api.Assertions.*;
+
+import cancelation.EventPages.EventPage;
+import cancelation.WebfluxApplication.Event;
+import cancelation.WebfluxApplication.EventBatchWriter;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoProcessor;
+import reactor.test.StepVerifier;
+import rxtx.support.ReadCache;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.reactive.AutoConfigureWebTestClient;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.data.r2dbc.core.DatabaseClient;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import org.springframework.transaction.ReactiveTransactionManager;
+import org.springframework.transaction.reactive.TransactionalOperator;
+
+/**
+ * Tests for invalidating cached {@link EventPage event pages} once a write committed.
+ */
+@SpringBootTest(properties = "events.round-delay=0s")
+@AutoConfigureWebTestClient
+final class EventPageCacheTests {
+
+	@Autowired WebTestClient client;
+	@Autowired EventBatchWriter batchWriter;
+	@Autowired DatabaseClient databaseClient;
+	@Autowired ReactiveTransactionManager transactionManager;
+	@Autowired ReadCache<String, EventPage> pageCache;
+
+	@BeforeEach
+	void setUp() {
+
+		CanceledWrites.deleteEvents(databaseClient);
+		batchWriter.insertAll(events(0, 3)).blockLast();
+		pageCache.invalidate();
+	}
+
+	@Test
+	void keepsServingCachedPageAfterRollback() {
+
+		assertThat(getCounters()).containsExactly(0, 1, 2);
+		Map<String, Object> before = getCacheMetrics();
+
+		TransactionalOperator.create(transactionManager) //
+				.execute(status -> batchWriter.insertAll(events(3, 2)) //
+						.then(Mono.error(new IllegalStateException()))) //
+				.as(StepVerifier::create) //
+				.verifyError(IllegalStateException.class);
+
+		assertThat(getCounters()).containsExactly(0, 1, 2);
+
+		Map<String, Object> after = getCacheMetrics();
+		assertThat(delta(before, after, "invalidations")).isZero();
+		assertThat(delta(before, after, "hits")).isOne();
+		assertThat(delta(before, after, "misses")).isZero();
+	}
+
+	@Test
+	void invalidatesCachedPageOnlyOnceWriteCommitted() {
+
+		assertThat(getCounters()).containsExactly(0, 1, 2);
+		Map<String, Object> before = getCacheMetrics();
+
+		MonoProcessor<Void> commit = MonoProcessor.create();
+		MonoProcessor<List<Event>> inserted = MonoProcessor.create();
+		MonoProcessor<List<Event>> saved = TransactionalOperator.create(transactionManager) //
+				.execute(status -> batchWriter.insertAll(events(3, 2)).collectList() //
+						.doOnNext(inserted::onNext) //
+						.delayUntil(it -> commit)) //
+				.next() //
+				.toProcessor();
+
+		inserted.block(Duration.ofSeconds(10));
+
+		// an open transaction leaves the cached page in place
+		assertThat(getCounters()).containsExactly(0, 1, 2);
+		assertThat(delta(before, getCacheMetrics(), "invalidations")).isZero();
+
+		commit.onComplete();
+		assertThat(saved.block(Duration.ofSeconds(10))).hasSize(2);
+
+		assertThat(getCounters()).containsExactly(0, 1, 2, 3, 4);
+
+		Map<String, Object> after = getCacheMetrics();
+		assertThat(delta(before, after, "invalidations")).isOne();
+		assertThat(delta(before, after, "hits")).isOne();
+		assertThat(delta(before, after, "misses")).isOne();
+	}
+
+	private List<Integer> getCounters() {
+
+		List<Map<String, Object>> page = client.get().uri("/?size=10").accept(MediaType.APPLICATION_JSON) //
+				.exchange() //
+				.expectStatus().isOk() //
+				.expectBody(new ParameterizedTypeReference<List<Map<String, Object>>>() {}) //
+				.returnResult() //
+				.getResponseBody();
+
+		return page.stream().map(event -> (Integer) event.get("counter")).collect(Collectors.toList());
+	}
+
+	private Map<String, Object> getCacheMetrics() {
+
+		return client.get().uri("/metrics/cache") //
+				.exchange() //
+				.expectStatus().isOk() //
+				.expectBody(new ParameterizedTypeReference<Map<String, Object>>() {}) //
+				.returnResult() //
+				.getResponseBody();
+	}
+
+	private static long delta(Map<String, Object> before, Map<String, Object> after, String metric) {
+		return ((Number) after.get(metric)).longValue() - ((Number) before.get(metric)).longValue();
+	}
+
+	private static List<Event> events(int from, int count) {
+		return IntStream.range(from, from + count).mapToObj(Event::new).collect(Collectors.toList());
+	}
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cancelation;
+
+import static org.assertj.core.api.Assertions.*;
+
+import cancelation.WebfluxApplication.Event;
+import cancelation.WebfluxApplication.EventBatchWriter;
+import io.r2dbc.h2.H2ConnectionFactory;
+import io.r2dbc.spi.ConnectionFactory;
+import rxtx.support.ReadCache;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.Test;
+
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.r2dbc.connectionfactory.init.ResourceDatabasePopulator;
+import org.springframework.data.r2dbc.core.DatabaseClient;
+import org.springframework.lang.Nullable;
+
+/**
+ * Compares bulk saves with ids generated by the identity column ({@code returnGeneratedValues}) against ids allocated
+ * upfront through {@link BlockIdAllocator} for a range of batch sizes. A batch size of 1 corresponds to saving row by row.
+ * <p>
+ * Not part of the regular build, run with {@code -Dtest=IdAllocationBenchmark}. Tune with:
+ * <ul>
+ * <li>{@code events.benchmark.events}: events saved per cell.</li>
+ * <li>{@code events.benchmark.batchSizes}: comma-separated batch sizes.</li>
+ * <li>{@code events.benchmark.blockSize}: id block size, also used as sequence increment.</li>
+ * </ul>
+ */
+final class IdAllocationBenchmark {
+
+	private final int events = Integer.getInteger("events.benchmark.events", 20_000);
+	private final List<Integer> batchSizes = Arrays
+			.stream(System.getProperty("events.benchmark.batchSizes", "1,10,100,1000").split(","))
+			.map(String::trim).map(Integer::valueOf).collect(Collectors.toList());
+	private final int blockSize = Integer.getInteger("events.benchmark.blockSize", 1000);
+
+	@Test
+	void compareIdGeneration() {
+
+		ConnectionFactory connectionFactory = H2ConnectionFactory.inMemory("IdAllocationBenchmark");
+		DatabaseClient databaseClient = DatabaseClient.create(connectionFactory);
+
+		new ResourceDatabasePopulator(new ClassPathResource("schema.sql")).execute(connectionFactory).block();
+		databaseClient.execute("ALTER SEQUENCE event_id_block_seq INCREMENT BY " + blockSize).then().block();
+
+		System.out.printf("%d events per cell, block size %d%n", events, blockSize);
+		System.out.printf("%-12s|%-16s|%-16s|%-8s%n", "batch size", "database (ms)", "allocated (ms)", "blocks");
+
+		for (int batchSize : batchSizes) {
+
+			BlockIdAllocator allocator = new BlockIdAllocator(blockSize,
+					() -> databaseClient.execute("SELECT NEXT VALUE FOR event_id_block_seq") //
+							.map(row -> row.get(0, Long.class)) //
+							.one() //
+							.map(Long::intValue));
+
+			// warm up
+			measure(connectionFactory, null, batchSize, databaseClient, batchSize);
+			measure(connectionFactory, allocator, batchSize, databaseClient, batchSize);
+
+			long database = measure(connectionFactory, null, batchSize, databaseClient, events);
+			long allocated = measure(connectionFactory, allocator, batchSize, databaseClient, events);
+
+			System.out.printf("%-12d|%-16d|%-16d|%-8s%n", batchSize, database, allocated,
+					allocator.getMetrics().get("blocks"));
+		}
+	}
+
+	/**
+	 * @param allocator {@literal null} to use ids generated by the identity column.
+	 */
+	private long measure(ConnectionFactory connectionFactory, @Nullable BlockIdAllocator allocator, int batchSize,
+			DatabaseClient databaseClient, int count) {
+
+		EventBatchWriter writer = new EventBatchWriter(connectionFactory, new ReadCache<>(1, false),
+				new ChangeFeed<>(1, ChangeFeed.OverflowPolicy.DROP), allocator, batchSize);
+		List<Event> toSave = IntStream.range(0, count).mapToObj(Event::new).collect(Collectors.toList());
+
+		long start = System.nanoTime();
+		List<Event> saved = writer.insertAll(toSave).collectList().block();
+		long elapsed = (System.nanoTime() - start) / 1_000_000;
+
+		assertThat(saved).hasSize(count).extracting(Event::getId).doesNotContainNull().doesNotHaveDuplicates();
+
+		if (allocator == null) {
+
+			// baseline is an identity incremented by one, not a sequence handing out blocks
+			int first = saved.get(0).getId();
+			assertThat(saved).extracting(Event::getId).isEqualTo(
+					IntStream.range(first, first + count).boxed().collect(Collectors.toList()));
+		}
+
+		databaseClient.execute("DELETE FROM event").then().block();
+		return elapsed;
+	}
+}
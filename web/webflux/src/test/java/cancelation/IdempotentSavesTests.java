@@ -0,0 +1,157 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cancelation;
+
+import static org.assertj.core.api.Assertions.*;
+
+import cancelation.IdempotentSaves.IdempotentSaveService;
+import reactor.core.publisher.Flux;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.reactive.AutoConfigureWebTestClient;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.data.r2dbc.core.DatabaseClient;
+import org.springframework.test.web.reactive.server.WebTestClient;
+
+/**
+ * Tests for {@code POST /?mode=per-round} requests carrying an {@code Idempotency-Key} header.
+ */
+@SpringBootTest(properties = { "events.round-delay=100ms", "events.idempotency.ttl=1s" })
+@AutoConfigureWebTestClient(timeout = "10s")
+final class IdempotentSavesTests {
+
+	@Autowired WebTestClient client;
+	@Autowired IdempotentSaveService idempotentSaves;
+	@Autowired DatabaseClient databaseClient;
+
+	@BeforeEach
+	void setUp() {
+		CanceledWrites.deleteEvents(databaseClient);
+		databaseClient.execute("DELETE FROM idempotency_key").then().block();
+	}
+
+	@Test
+	void replaysCompletedKey() {
+
+		Map<String, Object> before = metrics();
+
+		assertThat(save("replay")).containsExactly(0, 1, 2, 3, 4, 5);
+		assertThat(save("replay")).containsExactly(0, 1, 2, 3, 4, 5);
+
+		assertThat(countEvents()).isEqualTo(60);
+		assertThat(delta(before, "executed")).isEqualTo(1);
+		assertThat(delta(before, "replayed")).isEqualTo(1);
+	}
+
+	@Test
+	void concurrentDuplicateAttachesToExecutionInFlight() throws Exception {
+
+		Map<String, Object> before = metrics();
+
+		CompletableFuture<List<Integer>> first = CompletableFuture.supplyAsync(() -> save("concurrent"));
+		awaitInFlight();
+		CompletableFuture<List<Integer>> duplicate = CompletableFuture.supplyAsync(() -> save("concurrent"));
+
+		// the duplicate receives rounds committed before it attached as well
+		assertThat(first.get(10, TimeUnit.SECONDS)).containsExactly(0, 1, 2, 3, 4, 5);
+		assertThat(duplicate.get(10, TimeUnit.SECONDS)).containsExactly(0, 1, 2, 3, 4, 5);
+
+		assertThat(countEvents()).isEqualTo(60);
+		assertThat(delta(before, "executed")).isEqualTo(1);
+		assertThat(delta(before, "attached")).isEqualTo(1);
+	}
+
+	@Test
+	void retryResumesAfterCommittedRounds() {
+
+		// rounds committed by an earlier request for the key, e.g. on another instance before its client disconnected
+		idempotentSaves.save(Flux.range(0, 2), "resume").blockLast();
+
+		assertThat(save("resume")).containsExactly(0, 1, 2, 3, 4, 5);
+
+		assertThat(countEvents()).isEqualTo(60);
+		assertThat(CanceledWrites.count(databaseClient, "SELECT COUNT(DISTINCT counter) FROM event")).isEqualTo(60);
+		assertThat(idempotentSaves.findCompletedRounds("resume").block()).isEqualTo(6);
+	}
+
+	@Test
+	void expiredKeyIsCheckedAgainstDatabase() throws InterruptedException {
+
+		Map<String, Object> before = metrics();
+
+		assertThat(save("expire")).containsExactly(0, 1, 2, 3, 4, 5);
+		Thread.sleep(1500);
+		assertThat(save("expire")).containsExactly(0, 1, 2, 3, 4, 5);
+
+		// the second execution finds all rounds committed and saves nothing
+		assertThat(countEvents()).isEqualTo(60);
+		assertThat(delta(before, "executed")).isEqualTo(2);
+		assertThat(delta(before, "replayed")).isEqualTo(0);
+	}
+
+	@Test
+	void rejectsInvalidKey() {
+
+		client.post().uri("/?mode=per-round").header("Idempotency-Key", "") //
+				.exchange() //
+				.expectStatus().isBadRequest();
+	}
+
+	private List<Integer> save(String idempotencyKey) {
+
+		return client.post().uri("/?mode=per-round").header("Idempotency-Key", idempotencyKey) //
+				.exchange() //
+				.expectStatus().isOk() //
+				.expectBodyList(Integer.class) //
+				.returnResult().getResponseBody();
+	}
+
+	private Map<String, Object> metrics() {
+
+		return client.get().uri("/metrics/idempotency").exchange() //
+				.expectStatus().isOk() //
+				.expectBody(new ParameterizedTypeReference<Map<String, Object>>() {}) //
+				.returnResult().getResponseBody();
+	}
+
+	private long delta(Map<String, Object> before, String metric) {
+		return ((Number) metrics().get(metric)).longValue() - ((Number) before.get(metric)).longValue();
+	}
+
+	private void awaitInFlight() throws InterruptedException {
+
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+
+		while (((Number) metrics().get("inFlight")).intValue() == 0) {
+
+			assertThat(System.nanoTime() - deadline).as("Waiting for an execution in flight").isNegative();
+			Thread.sleep(10);
+		}
+	}
+
+	private long countEvents() {
+		return CanceledWrites.count(databaseClient, "SELECT COUNT(*) FROM event");
+	}
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cancelation;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.reactive.AutoConfigureWebTestClient;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.web.reactive.server.WebTestClient;
+
+/**
+ * Tests for N+1 detection per HTTP request.
+ */
+@SpringBootTest(properties = { "events.round-delay=0s", "events.statements.threshold=5" })
+@AutoConfigureWebTestClient
+final class RequestStatementsTests {
+
+	@Autowired WebTestClient client;
+	@Autowired RequestStatements requestStatements;
+
+	@BeforeEach
+	void setUp() {
+		requestStatements.reset();
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	void flagsRequestRepeatingStatement() throws InterruptedException {
+
+		// six rounds within the same request, one insert each
+		client.post().uri("/").exchange().expectStatus().isOk().expectBodyList(Integer.class).hasSize(6);
+
+		Map<String, Object> metrics = awaitCompletedRequest();
+		assertThat(metrics).containsEntry("flagged", 1L);
+
+		List<Map<String, Object>> flagged = (List<Map<String, Object>>) metrics.get("recentlyFlagged");
+		assertThat(flagged).hasSize(1);
+		assertThat(flagged.get(0)).containsEntry("name", "POST /");
+		assertThat((Map<String, Integer>) flagged.get(0).get("repeated"))
+				.containsEntry("INSERT INTO event (id, counter) VALUES (?)", 6);
+	}
+
+	@Test
+	void doesNotFlagRequestBelowThreshold() throws InterruptedException {
+
+		client.get().uri("/?size=10").exchange().expectStatus().isOk();
+
+		assertThat(awaitCompletedRequest()).containsEntry("flagged", 0L);
+	}
+
+	/**
+	 * The unit of work of a request completes once the response is written, possibly after the client received it.
+	 */
+	private Map<String, Object> awaitCompletedRequest() throws InterruptedException {
+
+		for (int i = 0; i < 100 && requestStatements.getMetrics().get("completed").equals(0L); i++) {
+			Thread.sleep(10);
+		}
+
+		Map<String, Object> metrics = requestStatements.getMetrics();
+		assertThat(metrics).containsEntry("completed", 1L);
+		return metrics;
+	}
+}
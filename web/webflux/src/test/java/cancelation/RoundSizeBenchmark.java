@@ -0,0 +1,111 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cancelation;
+
+import static org.assertj.core.api.Assertions.*;
+
+import cancelation.WebfluxApplication.Event;
+import cancelation.WebfluxApplication.EventBatchWriter;
+import cancelation.WebfluxApplication.EventRepository;
+import reactor.core.publisher.Flux;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.Test;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.ReactiveTransactionManager;
+import org.springframework.transaction.reactive.TransactionalOperator;
+
+/**
+ * Compares rows per second of saving rounds of events through {@link EventBatchWriter} against saving each event of a
+ * round through {@link EventRepository}, as {@code TransactionalService.save} did before. Each round runs in its own
+ * transaction, so small rounds show the per-transaction overhead and large rounds the per-statement cost.
+ * <p>
+ * Not part of the regular build, run with {@code -Dtest=RoundSizeBenchmark}. Tune with:
+ * <ul>
+ * <li>{@code events.benchmark.events}: events saved per cell.</li>
+ * <li>{@code events.benchmark.roundSizes}: comma-separated number of events per round.</li>
+ * <li>{@code events.batch-size}: maximum number of rows per {@code INSERT}.</li>
+ * </ul>
+ */
+@SpringBootTest
+final class RoundSizeBenchmark {
+
+	private final int events = Integer.getInteger("events.benchmark.events", 20_000);
+	private final List<Integer> roundSizes = Arrays
+			.stream(System.getProperty("events.benchmark.roundSizes", "10,100,200,500,1000").split(","))
+			.map(String::trim).map(Integer::valueOf).collect(Collectors.toList());
+
+	@Autowired EventRepository eventRepository;
+	@Autowired EventBatchWriter batchWriter;
+	@Autowired ReactiveTransactionManager transactionManager;
+
+	@Test
+	void compareRoundSizes() {
+
+		TransactionalOperator rxtx = TransactionalOperator.create(transactionManager);
+		Function<List<Event>, Flux<Event>> perRow = round -> Flux.fromIterable(round).concatMap(eventRepository::save);
+		Function<List<Event>, Flux<Event>> batched = batchWriter::insertAll;
+
+		// warm up
+		measure(rxtx, perRow, 100, 1000);
+		measure(rxtx, batched, 100, 1000);
+
+		System.out.printf("%d events per cell%n", events);
+		System.out.printf("%-12s|%-16s|%-16s|%-8s%n", "round size", "row (rows/s)", "batch (rows/s)", "speedup");
+
+		for (int roundSize : roundSizes) {
+
+			double row = measure(rxtx, perRow, roundSize, events);
+			double batch = measure(rxtx, batched, roundSize, events);
+
+			System.out.printf("%-12d|%-16.0f|%-16.0f|%-8.1f%n", roundSize, row, batch, batch / row);
+		}
+	}
+
+	/**
+	 * Save {@code count} events in rounds of {@code roundSize}, one transaction per round.
+	 *
+	 * @return rows per second.
+	 */
+	private double measure(TransactionalOperator rxtx, Function<List<Event>, Flux<Event>> save, int roundSize,
+			int count) {
+
+		List<List<Event>> rounds = IntStream.range(0, count / roundSize)
+				.mapToObj(round -> IntStream.range(round * roundSize, (round + 1) * roundSize).mapToObj(Event::new)
+						.collect(Collectors.toList()))
+				.collect(Collectors.toList());
+
+		long start = System.nanoTime();
+		List<Event> saved = Flux.fromIterable(rounds) //
+				.concatMap(round -> save.apply(round).as(rxtx::transactional)) //
+				.collectList() //
+				.block();
+		long elapsed = System.nanoTime() - start;
+
+		assertThat(saved).hasSize(rounds.size() * roundSize).extracting(Event::getId).doesNotContainNull()
+				.doesNotHaveDuplicates();
+
+		eventRepository.deleteAll().block();
+		return saved.size() * 1_000_000_000d / elapsed;
+	}
+}